@@ -35,7 +35,7 @@ dependencies {
 	testImplementation("org.assertj:assertj-core:3.25.1")
 
 	// https://mvnrepository.com/artifact/org.eclipse.jgit/org.eclipse.jgit
-	implementation("org.eclipse.jgit:org.eclipse.jgit:2.2.0.201212191850-r")
+	implementation("org.eclipse.jgit:org.eclipse.jgit:6.10.0.202406032230-r")
 
 	// https://mvnrepository.com/artifact/commons-io/commons-io
 	implementation("commons-io:commons-io:2.6")
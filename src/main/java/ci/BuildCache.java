@@ -0,0 +1,152 @@
+package ci;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store backing the Gradle HTTP build cache served by the CI server.
+ * Entries are stored as one file per cache key. The store is kept below a size limit by
+ * evicting the least recently used entries.
+ */
+public class BuildCache {
+	private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{1,128}");
+
+	private final Path dir;
+	private final long maxSizeBytes;
+	private final long maxEntryBytes;
+	private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size = 0;
+
+	/**
+	 * Creates a new build cache, keeping the entries already stored in the directory.
+	 *
+	 * @param dir        Directory the entries are stored in.
+	 * @param maxSizeMb  Maximum size of all entries in MB.
+	 * @param maxEntryMb Maximum size of a single entry in MB.
+	 * @throws IOException If the directory cannot be read.
+	 */
+	public BuildCache(Path dir, long maxSizeMb, long maxEntryMb) throws IOException {
+		this.dir = dir;
+		this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+		this.maxEntryBytes = maxEntryMb * 1024 * 1024;
+		Files.createDirectories(dir);
+		try (Stream<Path> files = Files.list(dir)) {
+			List<Path> stored = files.sorted(Comparator.comparingLong(file -> file.toFile().lastModified())).toList();
+			for (Path file : stored) {
+				if (!isValidKey(file.getFileName().toString())) {
+					// Left over from an interrupted store
+					Files.deleteIfExists(file);
+					continue;
+				}
+				entries.put(file.getFileName().toString(), file.toFile().length());
+				size += file.toFile().length();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Checks whether a string is a valid cache key.
+	 *
+	 * @param key The key.
+	 * @return true if the key is a hexadecimal hash, false otherwise
+	 */
+	public static boolean isValidKey(String key) {
+		return KEY_PATTERN.matcher(key).matches();
+	}
+
+	/**
+	 * Opens a cache entry for reading.
+	 * The entry stays readable through the returned channel even if it is evicted meanwhile.
+	 *
+	 * @param key The cache key.
+	 * @return Channel to read the entry from, which must be closed, or null if the entry was not found
+	 * @throws IOException If the entry cannot be opened.
+	 */
+	public FileChannel open(String key) throws IOException {
+		synchronized (this) {
+			if (entries.get(key) == null) {
+				return null;
+			}
+		}
+		try {
+			return FileChannel.open(dir.resolve(key), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			// Evicted after it was looked up
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a cache entry, evicting the least recently used entries if the cache is full.
+	 * Entries larger than the maximum entry size are rejected without reading them past that size.
+	 *
+	 * @param key    The cache key.
+	 * @param input  The stream to read the entry from.
+	 * @param length The declared size of the entry in bytes, or -1 if it is not known in advance.
+	 * @return true if the entry was stored, false if it is larger than the maximum entry size
+	 * @throws IOException If the entry cannot be stored.
+	 */
+	public boolean store(String key, InputStream input, long length) throws IOException {
+		if (length > maxEntryBytes) {
+			return false;
+		}
+		Path temp = Files.createTempFile(dir, key, ".tmp");
+		try {
+			// Reads at most one byte more than allowed, enough to tell that the entry is too large
+			long stored = Files.copy(new BoundedInputStream(input, maxEntryBytes + 1), temp,
+				StandardCopyOption.REPLACE_EXISTING);
+			if (stored > maxEntryBytes) {
+				return false;
+			}
+			synchronized (this) {
+				Files.move(temp, dir.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				Long previous = entries.put(key, stored);
+				size += stored - (previous == null ? 0 : previous);
+				evict();
+			}
+			return true;
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache fits its size limit.
+	 *
+	 * @throws IOException If an entry cannot be deleted.
+	 */
+	private synchronized void evict() throws IOException {
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+		while (size > maxSizeBytes && iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			Files.deleteIfExists(dir.resolve(entry.getKey()));
+			size -= entry.getValue();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Gets the size of the stored entries
+	 *
+	 * @return Size in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,109 @@
+package ci;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events emitted along the build pipeline, so that a recording started with
+ * {@code jcmd <pid> JFR.start} shows GC, I/O and lock contention next to the builds they slowed down.
+ * Each event carries the repository, branch and commit of its push. When no recording is running,
+ * the events are not committed and cost about as much as the allocation of the event object.
+ */
+public class BuildEvents {
+
+	private BuildEvents() {
+	}
+
+	/**
+	 * Base class of the events of a push.
+	 */
+	@Category("CI")
+	@StackTrace(false)
+	abstract static class PushEvent extends Event {
+		@Label("Repository")
+		String repo;
+
+		@Label("Branch")
+		String branch;
+
+		@Label("Commit")
+		String sha;
+
+		/**
+		 * Sets the push of the event.
+		 *
+		 * @param payload The push payload, or null if it could not be parsed.
+		 */
+		void setPush(PushPayload payload) {
+			if (payload != null) {
+				repo = payload.getRepo();
+				branch = payload.getBranch();
+				sha = payload.getHeadSha();
+			}
+		}
+	}
+
+	/**
+	 * A webhook request, from when it was received until its payload was parsed.
+	 */
+	@Name("ci.Webhook")
+	@Label("Webhook Received")
+	@Description("Webhook request received and its push payload parsed")
+	static class Webhook extends PushEvent {
+		@Label("Parsed")
+		boolean parsed;
+	}
+
+	/**
+	 * A build job added to the build queue.
+	 */
+	@Name("ci.JobQueued")
+	@Label("Job Queued")
+	static class JobQueued extends PushEvent {
+		@Label("Job Id")
+		int jobId;
+
+		@Label("Queue Depth")
+		int queueDepth;
+	}
+
+	/**
+	 * A build job taken from the build queue by a worker.
+	 */
+	@Name("ci.JobDequeued")
+	@Label("Job Dequeued")
+	static class JobDequeued extends PushEvent {
+		@Label("Job Id")
+		int jobId;
+
+		@Label("Queue Wait (ms)")
+		long queueWaitMillis;
+	}
+
+	/**
+	 * A phase of a build: clone, checkout, a gradle phase, result parsing, writing the history or notifying GitHub.
+	 */
+	@Name("ci.BuildPhase")
+	@Label("Build Phase")
+	static class BuildPhase extends PushEvent {
+		@Label("Phase")
+		String phase;
+	}
+
+	/**
+	 * A commit status posted to GitHub.
+	 */
+	@Name("ci.StatusPosted")
+	@Label("Status Posted")
+	static class StatusPosted extends PushEvent {
+		@Label("State")
+		String state;
+
+		@Label("Response Code")
+		int responseCode;
+	}
+}
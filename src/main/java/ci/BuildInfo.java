@@ -18,6 +18,11 @@ public class BuildInfo {
 	private TestDetails testDetails;
 	private String buildDate;
 	private String branch;
+	private BuildOutcome outcome = BuildOutcome.built;
+	private String treeHash;
+	private String repo;
+	private List<PhaseTiming> phaseTimings = List.of();
+	private List<TaskTiming> taskTimings = List.of();
 
 	/**
 	 * Creates a new BuildInfo object.
@@ -121,6 +126,51 @@ public class BuildInfo {
 		return branch;
 	}
 
+	/**
+	 * Gets outcome
+	 *
+	 * @return Whether the push was built, or why it was not
+	 */
+	public BuildOutcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * Gets tree hash
+	 *
+	 * @return Hash of the git tree that was built, or null if unknown
+	 */
+	public String getTreeHash() {
+		return treeHash;
+	}
+
+	/**
+	 * Gets repository
+	 *
+	 * @return Full name of the repository that was built, or null if unknown
+	 */
+	public String getRepo() {
+		return repo;
+	}
+
+	/**
+	 * Gets phase timings
+	 *
+	 * @return Time spent in each phase of the build, empty if none were recorded
+	 */
+	public List<PhaseTiming> getPhaseTimings() {
+		return phaseTimings;
+	}
+
+	/**
+	 * Gets task timings
+	 *
+	 * @return Time spent in each gradle task of the build, empty if none were recorded
+	 */
+	public List<TaskTiming> getTaskTimings() {
+		return taskTimings;
+	}
+
 	/**
 	 * Sets id of build
 	 *
@@ -184,6 +234,51 @@ public class BuildInfo {
 		this.branch = branch;
 	}
 
+	/**
+	 * Sets outcome
+	 *
+	 * @param outcome Whether the push was built, or why it was not
+	 */
+	public void setOutcome(BuildOutcome outcome) {
+		this.outcome = outcome;
+	}
+
+	/**
+	 * Sets tree hash
+	 *
+	 * @param treeHash Hash of the git tree that was built, or null if unknown
+	 */
+	public void setTreeHash(String treeHash) {
+		this.treeHash = treeHash;
+	}
+
+	/**
+	 * Sets repository
+	 *
+	 * @param repo Full name of the repository that was built, or null if unknown
+	 */
+	public void setRepo(String repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * Sets phase timings
+	 *
+	 * @param phaseTimings Time spent in each phase of the build
+	 */
+	public void setPhaseTimings(List<PhaseTiming> phaseTimings) {
+		this.phaseTimings = phaseTimings;
+	}
+
+	/**
+	 * Sets task timings
+	 *
+	 * @param taskTimings Time spent in each gradle task of the build
+	 */
+	public void setTaskTimings(List<TaskTiming> taskTimings) {
+		this.taskTimings = taskTimings;
+	}
+
 	/**
 	 * Build details.
 	 *
@@ -203,4 +298,49 @@ public class BuildInfo {
 	public record TestDetails(int totalTests, int numOfPassedTests, String testLog) {
 	}
 
+	/**
+	 * Result of a single test.
+	 *
+	 * @param className      Fully qualified name of the test class
+	 * @param name           Name of the test within its class
+	 * @param duration       Time taken to run the test in seconds
+	 * @param outcome        Whether the test passed, failed or was skipped
+	 * @param failureMessage Message of the failure, or null if the test did not fail
+	 */
+	public record TestResult(String className, String name, double duration, TestOutcome outcome,
+							 String failureMessage) {
+	}
+
+	/**
+	 * Summary of a build, without its sender, commits or logs.
+	 *
+	 * @param id          ID of the build
+	 * @param branch      Branch of the build
+	 * @param buildResult Integer storing result of build, the ordinal of its commit status
+	 * @param outcome     Whether the push was built, or why it was not
+	 * @param buildDate   Date of build as string
+	 */
+	public record BuildSummary(int id, String branch, int buildResult, BuildOutcome outcome, String buildDate) {
+	}
+
+	/**
+	 * Time spent in a phase of a build.
+	 *
+	 * @param phase      Name of the phase, such as clone or test
+	 * @param wallMillis Wall time of the phase in milliseconds
+	 * @param cpuMillis  CPU time of the phase on the thread of the CI server in milliseconds
+	 */
+	public record PhaseTiming(String phase, long wallMillis, long cpuMillis) {
+	}
+
+	/**
+	 * Time spent in a gradle task of a build.
+	 *
+	 * @param taskPath       Path of the task, such as :compileJava
+	 * @param outcome        Whether the task ran, was up-to-date, came from the build cache, was skipped or failed
+	 * @param durationMillis Time taken by the task in milliseconds
+	 */
+	public record TaskTiming(String taskPath, TaskOutcome outcome, long durationMillis) {
+	}
+
 }
@@ -0,0 +1,10 @@
+package ci;
+
+/**
+ * Possible outcomes of a queued build, besides the commit status it reports.
+ * A build whose checkout or Gradle itself failed is recorded as {@link BuildOutcome#infrastructureFailure},
+ * since its result says nothing about the pushed code.
+ */
+public enum BuildOutcome {
+	built, superseded, cached, timedOut, infrastructureFailure
+}
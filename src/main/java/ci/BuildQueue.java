@@ -0,0 +1,390 @@
+package ci;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Queue of build jobs that are run on a separate executor, so that webhook requests
+ * can be answered before the build itself has finished.
+ * The queue is bounded, jobs submitted while it is full are rejected.
+ * In coalescing mode a newer push to a branch supersedes the jobs of that branch that
+ * are still queued, and optionally also cancels the one that is running.
+ */
+public class BuildQueue {
+	private final Executor executor;
+	private final Consumer<BuildJob> worker;
+	private final int workers;
+	private final int capacity;
+	private final boolean coalesce;
+	private final boolean cancelRunning;
+	private final Map<String, BuildJob> latestJobs = new ConcurrentHashMap<>();
+	private final AtomicInteger nextJobId = new AtomicInteger(1);
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private boolean shutdown = false;
+
+	/**
+	 * Creates a new build queue.
+	 *
+	 * @param executor The executor the build jobs are run on.
+	 * @param workers  The number of threads of the executor.
+	 * @param capacity The maximum number of jobs waiting for a worker.
+	 * @param worker   The function that runs a single build job.
+	 */
+	public BuildQueue(Executor executor, int workers, int capacity, Consumer<BuildJob> worker) {
+		this(executor, workers, capacity, false, false, worker);
+	}
+
+	/**
+	 * Creates a new build queue.
+	 *
+	 * @param executor      The executor the build jobs are run on.
+	 * @param workers       The number of threads of the executor.
+	 * @param capacity      The maximum number of jobs waiting for a worker.
+	 * @param coalesce      Whether a newer push to a branch supersedes queued jobs of the same branch.
+	 * @param cancelRunning Whether a newer push to a branch also cancels the running job of the branch.
+	 * @param worker        The function that runs a single build job.
+	 */
+	public BuildQueue(Executor executor, int workers, int capacity, boolean coalesce, boolean cancelRunning,
+					  Consumer<BuildJob> worker) {
+		this.executor = executor;
+		this.workers = workers;
+		this.capacity = capacity;
+		this.coalesce = coalesce;
+		this.cancelRunning = cancelRunning;
+		this.worker = worker;
+	}
+
+	/**
+	 * Enqueues a build of the given push.
+	 *
+	 * @param payload   The push payload to build.
+	 * @param accessUrl URL the build info will be available at.
+	 * @return The id of the queued job.
+	 * @throws RejectedExecutionException If the queue is full or shut down, or the executor rejects the job.
+	 */
+	public synchronized int submit(PushPayload payload, String accessUrl) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Build queue is shut down");
+		}
+		if (queued.get() >= capacity) {
+			throw new RejectedExecutionException("Build queue is full (" + capacity + " jobs)");
+		}
+		BuildJob job = new BuildJob(nextJobId.getAndIncrement(), payload, accessUrl, System.currentTimeMillis());
+		BuildJob previous = coalesce ? latestJobs.put(branchKey(payload), job) : null;
+		int queueDepth = queued.incrementAndGet();
+		var event = new BuildEvents.JobQueued();
+		if (event.shouldCommit()) {
+			event.setPush(payload);
+			event.jobId = job.getId();
+			event.queueDepth = queueDepth;
+			event.commit();
+		}
+		try {
+			executor.execute(() -> run(job));
+		} catch (RuntimeException e) {
+			queued.decrementAndGet();
+			if (coalesce) {
+				// The previous job was not superseded yet, so it is still the one to build
+				if (previous != null) {
+					latestJobs.replace(branchKey(payload), job, previous);
+				} else {
+					latestJobs.remove(branchKey(payload), job);
+				}
+			}
+			throw e;
+		}
+		if (previous != null) {
+			supersede(previous, job);
+		}
+		return job.getId();
+	}
+
+	/**
+	 * Stops accepting jobs and waits for the workers to finish the jobs already queued.
+	 * Workers still building when the timeout expires are interrupted.
+	 * The workers can only be waited for if the executor is an {@link ExecutorService}.
+	 *
+	 * @param timeoutSeconds How long to wait for the queued jobs, and then for the interrupted workers.
+	 * @return true if every worker has stopped, false otherwise.
+	 * @throws InterruptedException If interrupted while waiting for the workers.
+	 */
+	public boolean shutdown(long timeoutSeconds) throws InterruptedException {
+		synchronized (this) {
+			shutdown = true;
+		}
+		if (!(executor instanceof ExecutorService executorService)) {
+			return queued.get() == 0 && active.get() == 0;
+		}
+		executorService.shutdown();
+		if (executorService.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+			return true;
+		}
+		executorService.shutdownNow();
+		return executorService.awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Supersedes an older job of the same branch by a newer one.
+	 * Every job older than the previous latest one has already been superseded by it.
+	 *
+	 * @param previous The previous latest job of the branch.
+	 * @param newer    The job that supersedes it.
+	 */
+	private void supersede(BuildJob previous, BuildJob newer) {
+		if (previous.supersedeQueued(newer)) {
+			queued.decrementAndGet();
+			newer.coalesced = true;
+		} else if (cancelRunning && previous.cancelRunning(newer)) {
+			newer.coalesced = true;
+		}
+	}
+
+	/**
+	 * Gets the key jobs are coalesced by.
+	 *
+	 * @param payload The push payload of the job.
+	 * @return Key identifying the repository and branch of the push.
+	 */
+	private static String branchKey(PushPayload payload) {
+		return payload.getRepo() + ":" + payload.getBranch();
+	}
+
+	/**
+	 * Runs a job on the calling worker thread, keeping the queue counters up to date.
+	 *
+	 * @param job The job to run.
+	 */
+	private void run(BuildJob job) {
+		if (job.start()) {
+			queued.decrementAndGet();
+		}
+		var event = new BuildEvents.JobDequeued();
+		if (event.shouldCommit()) {
+			event.setPush(job.getPayload());
+			event.jobId = job.getId();
+			event.queueWaitMillis = System.currentTimeMillis() - job.getQueuedAt();
+			event.commit();
+		}
+		active.incrementAndGet();
+		try {
+			worker.accept(job);
+		} finally {
+			active.decrementAndGet();
+			if (coalesce) {
+				latestJobs.remove(branchKey(job.getPayload()), job);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of jobs waiting for a worker
+	 *
+	 * @return Number of queued jobs
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * Gets the number of workers currently running a build
+	 *
+	 * @return Number of active workers
+	 */
+	public int getActiveWorkers() {
+		return active.get();
+	}
+
+	/**
+	 * Gets the number of workers
+	 *
+	 * @return Number of workers
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Gets the maximum number of queued jobs
+	 *
+	 * @return Queue capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Computes how many builds the host can run at once: one per CPU,
+	 * but never more than fit into the physical memory of the machine.
+	 *
+	 * @param memoryPerWorkerMb Memory a single build (Gradle daemon and test JVMs) needs, in MB
+	 * @return Number of build workers, at least 1
+	 */
+	public static int defaultWorkerCount(long memoryPerWorkerMb) {
+		int cpuSlots = Runtime.getRuntime().availableProcessors();
+		long memorySlots = cpuSlots;
+		if (ManagementFactory.getOperatingSystemMXBean() instanceof OperatingSystemMXBean os) {
+			memorySlots = os.getTotalMemorySize() / (memoryPerWorkerMb * 1024 * 1024);
+		}
+		return (int) Math.max(1, Math.min(cpuSlots, memorySlots));
+	}
+
+	/**
+	 * A build waiting in, or taken from, the queue.
+	 */
+	public static class BuildJob {
+		private final int id;
+		private final PushPayload payload;
+		private final String accessUrl;
+		private final long queuedAt;
+		private boolean started = false;
+		private BuildJob supersededBy = null;
+		private volatile boolean coalesced = false;
+		private Runnable cancelHandler = null;
+
+		/**
+		 * Creates a new build job.
+		 *
+		 * @param id        Id of the job, unique while the server is running.
+		 * @param payload   The push payload to build.
+		 * @param accessUrl URL the build info will be available at.
+		 * @param queuedAt  Time the job was queued, in milliseconds since the epoch.
+		 */
+		public BuildJob(int id, PushPayload payload, String accessUrl, long queuedAt) {
+			this.id = id;
+			this.payload = payload;
+			this.accessUrl = accessUrl;
+			this.queuedAt = queuedAt;
+		}
+
+		/**
+		 * Gets id of the job
+		 *
+		 * @return Id of the job, unique while the server is running
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * Gets push payload
+		 *
+		 * @return The push payload to build
+		 */
+		public PushPayload getPayload() {
+			return payload;
+		}
+
+		/**
+		 * Gets access url
+		 *
+		 * @return URL the build info will be available at
+		 */
+		public String getAccessUrl() {
+			return accessUrl;
+		}
+
+		/**
+		 * Gets time the job was queued
+		 *
+		 * @return Time the job was queued, in milliseconds since the epoch
+		 */
+		public long getQueuedAt() {
+			return queuedAt;
+		}
+
+		/**
+		 * Checks whether a newer push to the same branch superseded this job
+		 *
+		 * @return true if the job was superseded, false otherwise
+		 */
+		public synchronized boolean isSuperseded() {
+			return supersededBy != null;
+		}
+
+		/**
+		 * Gets the job that superseded this one
+		 *
+		 * @return The newer job, or null if this job was not superseded
+		 */
+		public synchronized BuildJob getSupersededBy() {
+			return supersededBy;
+		}
+
+		/**
+		 * Checks whether this job stands in for older pushes to the same branch,
+		 * which it superseded before they were built
+		 *
+		 * @return true if the job superseded a queued or running job, false otherwise
+		 */
+		public boolean isCoalesced() {
+			return coalesced;
+		}
+
+		/**
+		 * Sets the function that cancels the running build of this job.
+		 * It is run at once if the job was already cancelled.
+		 *
+		 * @param cancelHandler Function cancelling the build
+		 */
+		public synchronized void onCancel(Runnable cancelHandler) {
+			this.cancelHandler = cancelHandler;
+			if (started && supersededBy != null) {
+				cancelHandler.run();
+			}
+		}
+
+		/**
+		 * Marks the job as taken from the queue by a worker.
+		 *
+		 * @return true if the job should be built, false if it was superseded while queued
+		 */
+		private synchronized boolean start() {
+			if (supersededBy != null) {
+				return false;
+			}
+			started = true;
+			return true;
+		}
+
+		/**
+		 * Supersedes the job if no worker has taken it yet.
+		 *
+		 * @param newer The job superseding this one
+		 * @return true if the job was still queued and is now superseded, false otherwise
+		 */
+		private synchronized boolean supersedeQueued(BuildJob newer) {
+			if (started || supersededBy != null) {
+				return false;
+			}
+			supersededBy = newer;
+			return true;
+		}
+
+		/**
+		 * Supersedes the job while it is running and cancels its build.
+		 *
+		 * @param newer The job superseding this one
+		 * @return true if the job was running and is now superseded, false otherwise
+		 */
+		private synchronized boolean cancelRunning(BuildJob newer) {
+			if (!started || supersededBy != null) {
+				return false;
+			}
+			supersededBy = newer;
+			if (cancelHandler != null) {
+				cancelHandler.run();
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package ci;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a phase of a build is cancelled because it ran longer than its timeout.
+ */
+public class BuildTimeoutException extends RuntimeException {
+	private final CommitStatuses status;
+
+	/**
+	 * Creates a new build timeout exception.
+	 *
+	 * @param phase   Name of the phase that timed out, for example "Build" or "Tests".
+	 * @param timeout The timeout of the phase.
+	 * @param status  The commit status to report for the build.
+	 * @param cause   The failure of the cancelled gradle invocation.
+	 */
+	public BuildTimeoutException(String phase, Duration timeout, CommitStatuses status, Throwable cause) {
+		super(phase + " timed out after " + timeout.toMinutes() + " minutes", cause);
+		this.status = status;
+	}
+
+	/**
+	 * Gets the commit status to report for the build
+	 *
+	 * @return {@link CommitStatuses#failure} if the build timed out, {@link CommitStatuses#error} if the tests did
+	 */
+	public CommitStatuses getStatus() {
+		return status;
+	}
+}
@@ -3,22 +3,69 @@ package ci;
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.gradle.tooling.BuildException;
 import org.gradle.tooling.BuildLauncher;
+import org.gradle.tooling.BuildCancelledException;
+import org.gradle.tooling.CancellationTokenSource;
+import org.gradle.tooling.ConfigurableLauncher;
+import org.gradle.tooling.GradleConnectionException;
 import org.gradle.tooling.GradleConnector;
 import org.gradle.tooling.ResultHandler;
+import org.gradle.tooling.TestExecutionException;
+import org.gradle.tooling.TestLauncher;
+import org.gradle.tooling.events.OperationType;
+import org.gradle.tooling.events.ProgressEvent;
+import org.gradle.tooling.events.ProgressListener;
+import org.gradle.tooling.events.task.TaskFailureResult;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskOperationResult;
+import org.gradle.tooling.events.task.TaskSkippedResult;
+import org.gradle.tooling.events.task.TaskStartEvent;
+import org.gradle.tooling.events.task.TaskSuccessResult;
 import org.gradle.tooling.internal.consumer.BlockingResultHandler;
 
+import ci.BuildInfo.TaskTiming;
 import ci.BuildInfo.TestDetails;
+import ci.BuildInfo.TestResult;
+import ci.FlakinessDetector.TestId;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,12 +86,60 @@ import java.util.regex.Pattern;
  */
 public class Builder implements AutoCloseable {
 
-	private final Pattern testResultPattern = Pattern.compile("<div class=\"counter\">[0-9]+</div>");
+	private static final Pattern METHOD_NAME_PATTERN = Pattern.compile("([\\w$]+)\\(.*\\)");
+	private static final Duration FORCE_STOP_DELAY = Duration.ofSeconds(30);
+	private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "build-timeouts");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ExecutorService SHARDS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "test-shards");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private final GradleConnector connector;
 	private final Path projectDir;
 	private final OutputStream buildOutput;
 	private final OutputStream testOutput;
+	private final CancellationTokenSource cancellationTokenSource = GradleConnector.newCancellationTokenSource();
+	private MirrorCache mirrorCache = null;
+	private int cloneDepth = 0;
+	private boolean singleInvocation = false;
+	private Set<String> testSelection = null;
+	private int testShards = 1;
+	private Map<String, Double> testDurations = Map.of();
+	private List<TestResult> testResults = List.of();
+	private Set<TestId> suspectedFlakyTests = Set.of();
+	private int flakyRetries = 0;
+	private boolean quarantine = false;
+	private Set<String> priorityTests = null;
+	private boolean failFast = false;
+	private Duration buildTimeout = null;
+	private Duration testTimeout = null;
+	private final Object timeoutLock = new Object();
+	private Object runningPhase = null;
+	private boolean timedOut = false;
+	private volatile ScheduledFuture<?> forceStop = null;
+	private final List<GradleConnector> shardConnectors = Collections.synchronizedList(new ArrayList<>());
+	private final List<Path> shardDirs = new ArrayList<>();
+	private final List<DaemonPool.Daemon> shardDaemons = new ArrayList<>();
+	private final Set<DaemonPool.Daemon> unhealthyShardDaemons = ConcurrentHashMap.newKeySet();
+	private DaemonPool daemonPool = null;
+	private DaemonPool.Daemon daemon = null;
+	private volatile boolean daemonHealthy = true;
+	private volatile boolean shardsHealthy = true;
+	private boolean checkedOut = false;
+	private DependencyCache dependencyCache = null;
+	private boolean trustedDependencies = false;
+	private Path readOnlyDependencyCache = null;
+	private boolean warmDependencies = false;
+	private String buildCacheUrl = null;
+	private String buildCachePassword = null;
+	private boolean buildCachePush = false;
+	private PhaseTimer phaseTimer = new PhaseTimer();
+	private final List<TaskTiming> taskTimings = Collections.synchronizedList(new ArrayList<>());
 
 	/**
 	 * Creates a new builder.
@@ -75,24 +170,499 @@ public class Builder implements AutoCloseable {
 	 */
 	public void runTasks(Consumer<BuildLauncher> executeTasks, ResultHandler<? super Void> handler,
 						 OutputStream outputStream) {
-		try (var connection = connector.connect()) {
+		try (var connection = getConnector().connect()) {
 			var taskRunner = connection.newBuild();
-			taskRunner.setStandardOutput(outputStream);
-			taskRunner.setStandardError(outputStream);
+			configureLauncher(taskRunner, outputStream);
 			executeTasks.accept(taskRunner);
-			taskRunner.run(handler);
+			taskRunner.run(trackDaemonHealth(handler, () -> daemonHealthy = false));
 		}
 	}
 
 	/**
-	 * Removes gradle-specific files.
+	 * Run tests of the project, selected by class or method.
+	 * Example invocation:
+	 * builder.runTests(
+	 * launcher -> launcher.withJvmTestClasses("ci.BuilderTest"),
+	 * new BlockingResultHandler<>(Void.class),
+	 * testOutput
+	 * );
+	 *
+	 * @param selectTests  Allows you to select the tests on the {@link TestLauncher}.
+	 * @param handler      The {@link ResultHandler}, fails with a {@link TestExecutionException}
+	 *                     if any selected test fails.
+	 * @param outputStream The output stream to output the logs to.
+	 */
+	public void runTests(Consumer<TestLauncher> selectTests, ResultHandler<? super Void> handler,
+						 OutputStream outputStream) {
+		try (var connection = getConnector().connect()) {
+			var testLauncher = connection.newTestLauncher();
+			configureLauncher(testLauncher, outputStream);
+			selectTests.accept(testLauncher);
+			testLauncher.run(trackDaemonHealth(handler, () -> daemonHealthy = false));
+		}
+	}
+
+	/**
+	 * Applies the settings of this builder to a launcher: output, cancellation, task timing, daemon JVM arguments,
+	 * build cache and dependency cache.
+	 *
+	 * @param launcher     The launcher to configure.
+	 * @param outputStream The output stream to output the logs to.
+	 */
+	private void configureLauncher(ConfigurableLauncher<?> launcher, OutputStream outputStream) {
+		launcher.setStandardOutput(outputStream);
+		launcher.setStandardError(outputStream);
+		launcher.withCancellationToken(cancellationTokenSource.token());
+		launcher.addProgressListener(this::recordTaskTiming, OperationType.TASK);
+		if (daemon != null) {
+			launcher.setJvmArguments(daemon.getJvmArguments());
+		}
+		List<String> arguments = new ArrayList<>();
+		if (buildCacheUrl != null) {
+			arguments.addAll(List.of("--build-cache", "--init-script", writeBuildCacheInitScript().toString()));
+		}
+		if (failFast) {
+			arguments.addAll(List.of("--init-script", writeInitScript("ci-fail-fast.gradle", """
+				allprojects {
+					tasks.withType(Test).configureEach {
+						failFast = true
+					}
+				}
+				""").toString()));
+		}
+		if (!arguments.isEmpty()) {
+			launcher.withArguments(arguments.toArray(new String[0]));
+		}
+		if (readOnlyDependencyCache != null) {
+			var environment = new HashMap<>(System.getenv());
+			// The link to the current generation, since pooled daemons keep the cache they were started with
+			environment.put("GRADLE_RO_DEP_CACHE", dependencyCache.getPath().toString());
+			launcher.setEnvironmentVariables(environment);
+		}
+	}
+
+	/**
+	 * Records the outcome and duration of each task that finishes.
+	 * Called on gradle threads, possibly for several shards at once.
+	 *
+	 * @param event A task progress event.
+	 */
+	private void recordTaskTiming(ProgressEvent event) {
+		if (event instanceof TaskFinishEvent finish) {
+			TaskOperationResult result = finish.getResult();
+			taskTimings.add(new TaskTiming(finish.getDescriptor().getTaskPath(), getTaskOutcome(result),
+				result.getEndTime() - result.getStartTime()));
+		}
+	}
+
+	/**
+	 * Gets the outcome of a finished task.
+	 *
+	 * @param result The result of the task.
+	 * @return The outcome of the task.
+	 */
+	private static TaskOutcome getTaskOutcome(TaskOperationResult result) {
+		if (result instanceof TaskSuccessResult success) {
+			// Tasks loaded from the build cache also count as up-to-date
+			return success.isFromCache() ? TaskOutcome.fromCache
+				: success.isUpToDate() ? TaskOutcome.upToDate : TaskOutcome.executed;
+		}
+		return result instanceof TaskSkippedResult ? TaskOutcome.skipped : TaskOutcome.failed;
+	}
+
+	/**
+	 * Wraps a result handler to notice failures of gradle itself, after which the daemon should not be reused.
+	 *
+	 * @param handler       The result handler to wrap.
+	 * @param markUnhealthy Marks the daemon that ran the build as not to be reused.
+	 * @return A result handler passing the result on to the given one.
+	 */
+	private ResultHandler<Void> trackDaemonHealth(ResultHandler<? super Void> handler, Runnable markUnhealthy) {
+		return new ResultHandler<>() {
+			@Override
+			public void onComplete(Void result) {
+				handler.onComplete(result);
+			}
+
+			@Override
+			public void onFailure(GradleConnectionException failure) {
+				if (!(failure instanceof BuildException) && !(failure instanceof BuildCancelledException)
+					&& !(failure instanceof TestExecutionException)) {
+					markUnhealthy.run();
+				}
+				handler.onFailure(failure);
+			}
+		};
+	}
+
+	/**
+	 * Gets the connector to run gradle with, leasing a daemon from the pool on first use if one is set.
+	 *
+	 * @return The connector of the leased daemon, or the connector of this builder.
+	 */
+	private GradleConnector getConnector() {
+		if (dependencyCache != null && readOnlyDependencyCache == null) {
+			readOnlyDependencyCache = dependencyCache.acquire();
+		}
+		if (daemonPool == null) {
+			return connector;
+		}
+		if (daemon == null) {
+			try {
+				daemon = daemonPool.lease(projectDir);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BuildCancelledException("Interrupted while waiting for a gradle daemon");
+			}
+			if (!trustedDependencies) {
+				daemon.markUntrusted();
+			}
+		}
+		return daemon.getConnector();
+	}
+
+	/**
+	 * Writes the init script that makes the build use the build cache of the CI server.
+	 * The script is written to the .gradle directory of the project, which is removed when the builder is closed.
+	 *
+	 * @return Path to the init script.
+	 */
+	private Path writeBuildCacheInitScript() {
+		return writeInitScript("ci-build-cache.gradle", """
+			settingsEvaluated { settings ->
+				settings.buildCache {
+					remote(HttpBuildCache) {
+						url = '%s'
+						allowInsecureProtocol = true
+						push = %b
+						credentials {
+							username = 'ci'
+							password = '%s'
+						}
+					}
+				}
+			}
+			""".formatted(buildCacheUrl, buildCachePush, buildCachePassword));
+	}
+
+	/**
+	 * Writes an init script to the .gradle directory of the project, which is removed when the builder is closed.
+	 *
+	 * @param name   File name of the init script.
+	 * @param script Contents of the init script.
+	 * @return Path to the init script.
+	 */
+	private Path writeInitScript(String name, String script) {
+		Path initScript = projectDir.toAbsolutePath().resolve(".gradle").resolve(name);
+		try {
+			Files.createDirectories(initScript.getParent());
+			Files.writeString(initScript, script);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return initScript;
+	}
+
+	/**
+	 * Returns the leased daemon to the pool. If this build should warm the shared dependency cache,
+	 * the cache is warmed in the background from the Gradle user home of the daemon first.
+	 * Only done for trusted builds, as only those have a Gradle user home that no other,
+	 * untrusted, build has written to. The daemon stays leased until the cache is warmed,
+	 * so that no other build writes to its user home meanwhile.
+	 */
+	private void releaseDaemon() {
+		DaemonPool.Daemon leased = daemon;
+		boolean healthy = daemonHealthy;
+		daemon = null;
+		if (warmDependencies && trustedDependencies && leased.isTrusted()) {
+			dependencyCache.warmInBackground(leased.getUserHome(), () -> daemonPool.release(leased, healthy));
+		} else {
+			daemonPool.release(leased, healthy);
+		}
+	}
+
+	/**
+	 * Cancels the running gradle tasks, and any tasks run later by this builder.
+	 * The cancelled build fails with a {@link org.gradle.tooling.BuildCancelledException}.
+	 */
+	public void cancel() {
+		cancellationTokenSource.cancel();
+	}
+
+	/**
+	 * Makes {@link Builder#cloneTargetRepo(String, String)} create the workspace from a local
+	 * mirror of the repository instead of cloning it over the network.
+	 *
+	 * @param mirrorCache The mirror cache to use, or null to clone directly.
+	 */
+	public void setMirrorCache(MirrorCache mirrorCache) {
+		this.mirrorCache = mirrorCache;
+	}
+
+	/**
+	 * Makes {@link Builder#cloneTargetRepo(String, String, String)} fetch only the target branch,
+	 * truncated to the given number of commits.
+	 * Has no effect when a mirror cache is used.
+	 *
+	 * @param cloneDepth Number of commits to fetch, or 0 to fetch all branches with their full history.
+	 */
+	public void setCloneDepth(int cloneDepth) {
+		this.cloneDepth = cloneDepth;
+	}
+
+	/**
+	 * Makes the builder run gradle on a daemon leased from a pool instead of starting its own.
+	 * The daemon is leased when the first task is run and returned to the pool when the builder is closed.
+	 *
+	 * @param daemonPool The daemon pool to use, or null to use a new connector.
+	 */
+	public void setDaemonPool(DaemonPool daemonPool) {
+		this.daemonPool = daemonPool;
+	}
+
+	/**
+	 * Makes the builder use a shared dependency cache as read-only gradle dependency cache.
+	 *
+	 * @param dependencyCache The dependency cache to use, or null to not use one.
+	 * @param trusted         true if the build may warm the cache with what it downloads.
+	 */
+	public void setDependencyCache(DependencyCache dependencyCache, boolean trusted) {
+		this.dependencyCache = dependencyCache;
+		this.trustedDependencies = trusted;
+	}
+
+	/**
+	 * Makes the builds use a remote gradle build cache, so that task outputs are reused across
+	 * branches and commits.
+	 *
+	 * @param url      URL of the build cache, or null to not use one.
+	 * @param password Password the build authenticates to the cache with.
+	 * @param push     true if the build may store its task outputs in the cache.
+	 */
+	public void setBuildCache(String url, String password, boolean push) {
+		this.buildCacheUrl = url;
+		this.buildCachePassword = password;
+		this.buildCachePush = push;
+	}
+
+	/**
+	 * Makes {@link Builder#buildAndTest()} run only the given test classes instead of the test task.
+	 * A selection always runs the tests in their own gradle invocation.
+	 *
+	 * @param testSelection Names of the test classes to run, or null to run the full suite.
+	 */
+	public void setTestSelection(Set<String> testSelection) {
+		this.testSelection = testSelection;
+	}
+
+	/**
+	 * Makes {@link Builder#buildAndTest()} split the tests into shards of about equal duration,
+	 * which are run in parallel, each in its own copy of the workspace.
+	 * Sharded tests always run in their own gradle invocation.
+	 *
+	 * @param testShards    Maximum number of shards, or 1 to run the tests unsharded.
+	 * @param testDurations Duration in seconds of each test class in earlier builds.
+	 */
+	public void setTestShards(int testShards, Map<String, Double> testDurations) {
+		this.testShards = testShards;
+		this.testDurations = testDurations;
+	}
+
+	/**
+	 * Makes {@link Builder#buildAndTest()} retry failing tests that are suspected to be flaky.
+	 * A suspected test that passes on a retry no longer fails the build.
+	 *
+	 * @param suspectedFlakyTests The tests suspected to be flaky.
+	 * @param retries             Maximum number of retries of each failing suspected test.
+	 * @param quarantine          true if suspected tests that keep failing should not fail the build either.
+	 */
+	public void setFlakyTests(Set<TestId> suspectedFlakyTests, int retries, boolean quarantine) {
+		this.suspectedFlakyTests = suspectedFlakyTests;
+		this.flakyRetries = retries;
+		this.quarantine = quarantine;
+	}
+
+	/**
+	 * Makes {@link Builder#buildAndTest()} run the given test classes before the others,
+	 * each group in its own gradle invocation.
+	 *
+	 * @param priorityTests Names of the test classes to run first, or null to run all tests together.
+	 */
+	public void setPriorityTests(Set<String> priorityTests) {
+		this.priorityTests = priorityTests;
+	}
+
+	/**
+	 * Makes {@link Builder#buildAndTest()} stop running tests after the first test failure.
+	 * With priority tests, the other tests are not run if a priority test fails.
+	 *
+	 * @param failFast true to stop after the first failure, false to run all tests.
+	 */
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	/**
+	 * Makes {@link Builder#buildAndTest()} cancel the build when compiling or testing takes too long.
+	 * If gradle does not stop within 30 seconds of being cancelled, its daemons are stopped.
+	 *
+	 * @param buildTimeout Maximum time to compile the project, or null for no limit.
+	 * @param testTimeout  Maximum time to run the tests, or null for no limit.
+	 */
+	public void setTimeouts(Duration buildTimeout, Duration testTimeout) {
+		this.buildTimeout = buildTimeout;
+		this.testTimeout = testTimeout;
+	}
+
+	/**
+	 * Sets the timer to measure the clone, checkout, assemble, test and result parsing phases with.
+	 *
+	 * @param phaseTimer The timer of the build.
+	 */
+	public void setPhaseTimer(PhaseTimer phaseTimer) {
+		this.phaseTimer = phaseTimer;
+	}
+
+	/**
+	 * Gets how long each test class took to run in the last build.
+	 * Must be called after {@link Builder#buildAndTest()} and before the builder is closed.
+	 *
+	 * @return Duration in seconds of each test class that was run.
+	 */
+	public Map<String, Double> getTestDurations() {
+		Map<String, Double> durations = new HashMap<>();
+		for (TestResult testResult : testResults) {
+			durations.merge(testResult.className(), testResult.duration(), Double::sum);
+		}
+		return durations;
+	}
+
+	/**
+	 * Gets the outcome and duration of every gradle task the builder ran, in the order the tasks finished.
+	 * Tasks that ran in several invocations or shards are listed once per run.
+	 *
+	 * @return Time spent in each task.
+	 */
+	public List<TaskTiming> getTaskTimings() {
+		synchronized (taskTimings) {
+			return new ArrayList<>(taskTimings);
+		}
+	}
+
+	/**
+	 * Checks whether the pushed commit was cloned and checked out.
+	 *
+	 * @return true if the last call to {@link Builder#cloneTargetRepo(String, String, String)} checked out the commit
+	 */
+	public boolean isCheckedOut() {
+		return checkedOut;
+	}
+
+	/**
+	 * Checks whether the result of the last build depends only on the pushed code,
+	 * rather than on the checkout or Gradle itself failing.
+	 *
+	 * @return true if the push was checked out and Gradle did not fail, false otherwise
+	 */
+	public boolean isConclusive() {
+		return checkedOut && daemonHealthy && shardsHealthy;
+	}
+
+	/**
+	 * Finds the files that differ between a commit and the checked out commit.
+	 * Must be called after {@link Builder#cloneTargetRepo(String, String, String)} and before the builder is closed.
+	 *
+	 * @param baseSha Commit to compare with, usually the one the branch pointed to before the push.
+	 * @return The changed files, or null if the push was not checked out or the commit is not part of the clone.
+	 */
+	public TestSelector.Changes findChanges(String baseSha) {
+		if (!checkedOut) {
+			return null;
+		}
+		try (Git git = Git.open(projectDir.toFile());
+			 RevWalk revWalk = new RevWalk(git.getRepository());
+			 TreeWalk treeWalk = new TreeWalk(git.getRepository())) {
+			Repository repository = git.getRepository();
+			ObjectId base = ObjectId.fromString(baseSha);
+			if (!repository.getObjectDatabase().has(base)) {
+				// Beyond the depth of a shallow clone
+				return null;
+			}
+			treeWalk.setRecursive(true);
+			treeWalk.addTree(revWalk.parseCommit(base).getTree());
+			treeWalk.addTree(revWalk.parseCommit(repository.resolve(Constants.HEAD)).getTree());
+			Set<String> changedFiles = new TreeSet<>();
+			Set<String> removedFiles = new TreeSet<>();
+			for (DiffEntry entry : DiffEntry.scan(treeWalk)) {
+				if (entry.getChangeType() == DiffEntry.ChangeType.DELETE) {
+					changedFiles.add(entry.getOldPath());
+					removedFiles.add(entry.getOldPath());
+				} else {
+					changedFiles.add(entry.getNewPath());
+				}
+			}
+			return new TestSelector.Changes(changedFiles, removedFiles);
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the results of the single tests of the last build.
+	 *
+	 * @return The result of each test that was run, empty if the tests did not run.
+	 */
+	public List<TestResult> getTestResults() {
+		return testResults;
+	}
+
+	/**
+	 * Reads which classes each compiled test class of the project references.
+	 * Must be called after {@link Builder#buildAndTest()} and before the builder is closed.
+	 *
+	 * @return Names of the referenced classes of each test class, empty if they cannot be read.
+	 */
+	public Map<String, Set<String>> getTestDependencies() {
+		try {
+			return TestSelector.readTestDependencies(projectDir);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return Map.of();
+		}
+	}
+
+	/**
+	 * Makes {@link Builder#buildAndTest()} compile the project and run the tests in a single
+	 * gradle invocation, instead of configuring the build once for each.
+	 *
+	 * @param singleInvocation true to use a single invocation, false to use one per phase.
+	 */
+	public void setSingleInvocation(boolean singleInvocation) {
+		this.singleInvocation = singleInvocation;
+	}
+
+	/**
+	 * Removes gradle-specific files, and returns the leased daemon and dependency cache.
 	 *
 	 * @throws IOException If it is unable to remove the files.
 	 */
 	@Override
 	public void close() throws IOException {
+		releaseShardDaemons();
+		if (daemon != null) {
+			releaseDaemon();
+		}
+		if (readOnlyDependencyCache != null) {
+			dependencyCache.release(readOnlyDependencyCache);
+			readOnlyDependencyCache = null;
+		}
 		FileUtils.deleteDirectory(projectDir.resolve(".gradle").toFile());
 		FileUtils.deleteDirectory(projectDir.resolve("build").toFile());
+		for (Path shardDir : shardDirs) {
+			FileUtils.deleteDirectory(shardDir.toFile());
+		}
+		shardDirs.clear();
 	}
 
 	/**
@@ -102,39 +672,657 @@ public class Builder implements AutoCloseable {
 	 * {@link CommitStatuses#error} if the build succeeds, but the tests
 	 * fail,
 	 * {@link CommitStatuses#success} otherwise.
+	 * @throws BuildTimeoutException If compiling or testing took longer than its timeout.
 	 */
 	public BuildResults buildAndTest() {
+		BuildResults results;
+		if (singleInvocation && testSelection == null && testShards <= 1 && priorityTests == null) {
+			results = withTimeout("Build", singleInvocationTimeout(buildTimeout, testTimeout), CommitStatuses.failure,
+				() -> phaseTimer.time("assemble and test", this::buildAndTestInOneInvocation));
+		} else {
+			results = buildAndTestPerPhase();
+		}
+		if (results.status() == CommitStatuses.error && flakyRetries > 0) {
+			BuildResults failedResults = results;
+			results = withTimeout("Tests", testTimeout, CommitStatuses.error,
+				() -> phaseTimer.time("test", () -> retryFlakyTests(failedResults)));
+		}
+		// The cache is warmed when the builder is closed, after the result has been reported
+		warmDependencies = dependencyCache != null && results.status() == CommitStatuses.success;
+		return results;
+	}
+
+	/**
+	 * Gets the timeout of a build that compiles and tests the project in a single Gradle invocation.
+	 *
+	 * @param buildTimeout Maximum time to compile the project, or null for no limit.
+	 * @param testTimeout  Maximum time to run the tests, or null for no limit.
+	 * @return The sum of both timeouts, the one that is set if only one is, or null if neither is set.
+	 */
+	static Duration singleInvocationTimeout(Duration buildTimeout, Duration testTimeout) {
+		return buildTimeout == null ? testTimeout : testTimeout == null ? buildTimeout : buildTimeout.plus(testTimeout);
+	}
+
+	/**
+	 * Retries the failed tests that are suspected to be flaky, one at a time.
+	 * Suspected tests that pass on a retry are recorded as flaky, and those that keep failing as quarantined
+	 * if quarantine is enabled. The build passes if no other test failed.
+	 *
+	 * @param results The results of the build, with failed tests.
+	 * @return The results of the build after the retries.
+	 */
+	private BuildResults retryFlakyTests(BuildResults results) {
+		List<TestResult> suspects = testResults.stream()
+			.filter(result -> result.outcome() == TestOutcome.failed)
+			.filter(result -> suspectedFlakyTests.contains(new TestId(result.className(), result.name())))
+			.toList();
+		if (suspects.isEmpty()) {
+			return results;
+		}
+
+		log(testOutput, "Retrying " + suspects.size() + " failed tests suspected to be flaky");
+		Map<TestResult, TestOutcome> retriedOutcomes = new HashMap<>();
+		for (TestResult suspect : suspects) {
+			boolean passed = false;
+			for (int attempt = 1; attempt <= flakyRetries && !passed; attempt++) {
+				passed = retryTest(suspect);
+			}
+			TestOutcome outcome = passed ? TestOutcome.flaky : quarantine ? TestOutcome.quarantined : TestOutcome.failed;
+			retriedOutcomes.put(suspect, outcome);
+			log(testOutput, suspect.className() + " > " + suspect.name() + " " + outcome);
+		}
+		testResults = testResults.stream()
+			.map(result -> retriedOutcomes.containsKey(result)
+				? new TestResult(result.className(), result.name(), result.duration(), retriedOutcomes.get(result),
+				result.failureMessage())
+				: result)
+			.toList();
+
+		int failedTests = countTests(TestOutcome.failed);
+		int quarantinedTests = countTests(TestOutcome.quarantined);
+		CommitStatuses status = failedTests == 0 ? CommitStatuses.success : CommitStatuses.error;
+		return new BuildResults(status, results.totalTests(), results.totalTests() - failedTests - quarantinedTests,
+			countTests(TestOutcome.flaky), quarantinedTests);
+	}
+
+	/**
+	 * Runs a single test again.
+	 * Tests whose name is not that of a method, such as parameterized tests, are retried with their whole class.
+	 *
+	 * @param test The test to run.
+	 * @return true if the test passed, false otherwise
+	 */
+	private boolean retryTest(TestResult test) {
+		var handler = new BlockingResultHandler<>(Void.class);
+		Matcher method = METHOD_NAME_PATTERN.matcher(test.name());
+		try {
+			runTests(launcher -> {
+				if (method.matches()) {
+					launcher.withJvmTestMethods(test.className(), method.group(1));
+				} else {
+					launcher.withJvmTestClasses(test.className());
+				}
+			}, handler, testOutput);
+			handler.getResult();
+			return true;
+		} catch (BuildException | TestExecutionException ignored) {
+			return false;
+		}
+	}
+
+	/**
+	 * Counts the tests of the last build with a given outcome.
+	 *
+	 * @param outcome The outcome.
+	 * @return Number of tests with the outcome.
+	 */
+	private int countTests(TestOutcome outcome) {
+		return (int) testResults.stream().filter(result -> result.outcome() == outcome).count();
+	}
+
+	/**
+	 * Compiles the project and runs the tests in one gradle invocation each.
+	 *
+	 * @return BuildResult object with the same statuses as {@link Builder#buildAndTest()}.
+	 */
+	private BuildResults buildAndTestPerPhase() {
+		var handler = new BlockingResultHandler<>(Void.class);
+		try {
+			withTimeout("Build", buildTimeout, CommitStatuses.failure, () -> phaseTimer.time("assemble", () -> {
+				runTasks(launcher -> launcher.forTasks("assemble"), handler, buildOutput);
+				return handler.getResult();
+			}));
+		} catch (BuildException ignored) {
+			return new BuildResults(CommitStatuses.failure, 0, 0);
+		}
+
+		return withTimeout("Tests", testTimeout, CommitStatuses.error, () -> phaseTimer.time("test", this::runTestPhase));
+	}
+
+	/**
+	 * Runs the tests of a compiled project: all tests, the selected tests, in shards or priority tests first.
+	 *
+	 * @return BuildResult object with the test counts, and {@link CommitStatuses#error} if the tests fail,
+	 * {@link CommitStatuses#success} otherwise.
+	 */
+	private BuildResults runTestPhase() {
 		var handler = new BlockingResultHandler<>(Void.class);
 		int totalTests = 0;
 		int passedTests = 0;
 		CommitStatuses status = null;
 		try {
-			runTasks(launcher -> launcher.forTasks("assemble"), handler, buildOutput);
+			if (testSelection != null && testSelection.isEmpty()) {
+				log(testOutput, "No tests are affected by the push");
+				return new BuildResults(CommitStatuses.success, 0, 0);
+			}
+			if (testShards > 1) {
+				return runTestShards();
+			}
+			if (priorityTests != null) {
+				return runPriorityTestsFirst();
+			}
+			if (testSelection == null) {
+				runTasks(launcher -> launcher.forTasks("test"), handler, testOutput);
+			} else {
+				log(testOutput, "Running " + testSelection.size() + " test classes affected by the push");
+				runTests(launcher -> launcher.withJvmTestClasses(testSelection), handler, testOutput);
+			}
+
+			int[] testCounts = readTestCounts();
+			totalTests = testCounts[0];
+			passedTests = testCounts[1];
+
+			handler.getResult();
+			status = CommitStatuses.success;
+		} catch (BuildException | TestExecutionException ignored) {
+			status = CommitStatuses.error;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return new BuildResults(status, totalTests, passedTests);
+	}
+
+	/**
+	 * Runs a phase of the build, cancelling it if it takes longer than its timeout.
+	 *
+	 * @param phase   Name of the phase, for the logs.
+	 * @param timeout Maximum time the phase may take, or null for no limit.
+	 * @param status  The commit status to report if the phase times out.
+	 * @param action  The phase to run.
+	 * @param <T>     Type of the result of the phase.
+	 * @return The result of the phase.
+	 * @throws BuildTimeoutException If the phase took longer than its timeout.
+	 */
+	private <T> T withTimeout(String phase, Duration timeout, CommitStatuses status, Supplier<T> action) {
+		if (timeout == null) {
+			return action.get();
+		}
+		Object run = new Object();
+		synchronized (timeoutLock) {
+			runningPhase = run;
+			timedOut = false;
+		}
+		ScheduledFuture<?> timer = TIMEOUTS.schedule(() -> timeOut(run, phase, timeout), timeout.toMillis(),
+			TimeUnit.MILLISECONDS);
+		T result;
+		boolean phaseTimedOut;
+		try {
+			result = action.get();
+		} catch (RuntimeException e) {
+			if (finishPhase()) {
+				throw new BuildTimeoutException(phase, timeout, status, e);
+			}
+			throw e;
+		} finally {
+			phaseTimedOut = finishPhase();
+			timer.cancel(false);
+			ScheduledFuture<?> pendingForceStop = forceStop;
+			if (pendingForceStop != null) {
+				pendingForceStop.cancel(false);
+			}
+		}
+		if (phaseTimedOut) {
+			// Gradle may report the cancelled tasks as failed instead of cancelled
+			throw new BuildTimeoutException(phase, timeout, status, null);
+		}
+		return result;
+	}
+
+	/**
+	 * Marks the running phase as finished, so that its timer no longer times it out.
+	 *
+	 * @return true if the phase timed out before it finished.
+	 */
+	private boolean finishPhase() {
+		synchronized (timeoutLock) {
+			runningPhase = null;
+			return timedOut;
+		}
+	}
+
+	/**
+	 * Cancels the build after a phase timed out, and stops the daemons if gradle does not stop in time.
+	 * Does nothing if the phase finished in the meantime.
+	 *
+	 * @param run     Identifies the run of the phase that the timer was started for.
+	 * @param phase   Name of the phase that timed out.
+	 * @param timeout The timeout of the phase.
+	 */
+	private void timeOut(Object run, String phase, Duration timeout) {
+		synchronized (timeoutLock) {
+			if (runningPhase != run) {
+				return;
+			}
+			timedOut = true;
+		}
+		log(phase + " timed out after " + timeout.toMinutes() + " minutes, cancelling");
+		cancel();
+		forceStop = TIMEOUTS.schedule(this::forceStop, FORCE_STOP_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the daemons running the build, after gradle did not stop when it was cancelled.
+	 * Daemons leased from the pool are left to the cancellation token, and are marked so that the pool
+	 * recycles them when they are returned. Only the daemons started by this builder are disconnected.
+	 */
+	private void forceStop() {
+		log("Gradle did not stop within " + FORCE_STOP_DELAY.toSeconds() + " seconds of being cancelled, "
+			+ "stopping its daemons");
+		daemonHealthy = false;
+		shardsHealthy = false;
+		if (daemon == null) {
+			connector.disconnect();
+		}
+		synchronized (shardConnectors) {
+			shardConnectors.forEach(GradleConnector::disconnect);
+		}
+		synchronized (shardDaemons) {
+			unhealthyShardDaemons.addAll(shardDaemons);
+		}
+	}
+
+	/**
+	 * Compiles the project and runs the tests in a single gradle invocation.
+	 * Task progress events are used to write the output of the test task to the test log,
+	 * and to tell failing tests apart from failing compilation.
+	 *
+	 * @return BuildResult object with the same statuses as {@link Builder#buildAndTest()}.
+	 */
+	private BuildResults buildAndTestInOneInvocation() {
+		var handler = new BlockingResultHandler<>(Void.class);
+		var output = new PhaseOutputStream(buildOutput, testOutput);
+		Set<String> failedTasks = ConcurrentHashMap.newKeySet();
+
+		ProgressListener listener = event -> {
+			if (event instanceof TaskStartEvent start && isTestTask(start.getDescriptor().getTaskPath())) {
+				output.switchToTestOutput();
+			} else if (event instanceof TaskFinishEvent finish && finish.getResult() instanceof TaskFailureResult) {
+				failedTasks.add(finish.getDescriptor().getTaskPath());
+			}
+		};
+
+		CommitStatuses status;
+		try {
+			runTasks(launcher -> {
+				launcher.forTasks("assemble", "test");
+				launcher.addProgressListener(listener, OperationType.TASK);
+			}, handler, output);
 			handler.getResult();
+			status = CommitStatuses.success;
+		} catch (BuildException ignored) {
+			boolean onlyTestsFailed = !failedTasks.isEmpty() && failedTasks.stream().allMatch(this::isTestTask);
+			status = onlyTestsFailed ? CommitStatuses.error : CommitStatuses.failure;
+		}
 
+		int totalTests = 0;
+		int passedTests = 0;
+		if (status != CommitStatuses.failure) {
 			try {
-				runTasks(launcher -> launcher.forTasks("test"), handler, testOutput);
+				int[] testCounts = readTestCounts();
+				totalTests = testCounts[0];
+				passedTests = testCounts[1];
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 
-				String testResultFile = Files.readString(projectDir.resolve("build/reports/tests/test/index.html"));
-				Matcher matcher = testResultPattern.matcher(testResultFile);
+		return new BuildResults(status, totalTests, passedTests);
+	}
 
-				matcher.find();
-				totalTests = Integer.parseInt(matcher.group().split(">")[1].split("<")[0]);
-				matcher.find();
-				passedTests = totalTests - Integer.parseInt(matcher.group().split(">")[1].split("<")[0]);
+	/**
+	 * Runs the tests in shards of about equal duration, each in its own gradle invocation and workspace.
+	 * The first shard runs in the workspace of the builder, the others in copies of it.
+	 * The test classes are compiled first, to find the test classes of the project.
+	 *
+	 * @return BuildResult object with the merged test counts, and {@link CommitStatuses#error}
+	 * if the tests fail to compile or any shard fails, {@link CommitStatuses#success} otherwise.
+	 */
+	private BuildResults runTestShards() {
+		var handler = new BlockingResultHandler<>(Void.class);
+		try {
+			runTasks(launcher -> launcher.forTasks("testClasses"), handler, testOutput);
+			handler.getResult();
+		} catch (BuildException ignored) {
+			return new BuildResults(CommitStatuses.error, 0, 0);
+		}
+
+		Set<String> testClasses = testSelection != null ? testSelection : getTestDependencies().keySet();
+		List<Set<String>> shards = TestSharder.shard(testClasses, testDurations, testShards);
+		if (shards.isEmpty()) {
+			log(testOutput, "Running " + testClasses.size() + " test classes in 0 shards");
+			return new BuildResults(CommitStatuses.success, 0, 0);
+		}
 
-				handler.getResult();
-				status = CommitStatuses.success;
-			} catch (BuildException ignored) {
-				status = CommitStatuses.error;
+		List<Path> dirs = new ArrayList<>(List.of(projectDir));
+		for (int i = 1; i < shards.size(); i++) {
+			Path shardDir = projectDir.resolveSibling(projectDir.getFileName() + "-shard" + i);
+			shardDirs.add(shardDir);
+			copyWorkspace(shardDir);
+			if (daemonPool != null && !leaseShardDaemon(shardDir)) {
+				// Every slot of the pool is busy, so the remaining shards are merged into the others
+				break;
+			}
+			dirs.add(shardDir);
+		}
+		if (dirs.size() < shards.size()) {
+			shards = TestSharder.shard(testClasses, testDurations, dirs.size());
+		}
+		List<Set<String>> shardClasses = shards;
+		log(testOutput, "Running " + testClasses.size() + " test classes in " + shards.size() + " shards");
+
+		List<ByteArrayOutputStream> outputs = new ArrayList<>();
+		List<Future<Boolean>> results = new ArrayList<>();
+		boolean passed = true;
+		try {
+			for (int i = 0; i < shards.size(); i++) {
+				int shard = i;
+				var output = new ByteArrayOutputStream();
+				outputs.add(output);
+				results.add(SHARDS.submit(() -> runShard(shard, dirs.get(shard), shardClasses.get(shard), output)));
+			}
+			for (Future<Boolean> result : results) {
+				passed &= result.get();
+			}
+		} catch (InterruptedException e) {
+			cancel();
+			Thread.currentThread().interrupt();
+			throw new BuildCancelledException("Interrupted while waiting for the test shards");
+		} catch (ExecutionException e) {
+			cancel();
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (!awaitShards(results)) {
+				// The daemons may still be running shards, so they are stopped rather than reused
+				unhealthyShardDaemons.addAll(shardDaemons);
+			}
+			releaseShardDaemons();
+		}
+
+		// Shard logs are written one after another, so that they do not interleave
+		for (int i = 0; i < shards.size(); i++) {
+			log(testOutput, "Shard " + (i + 1) + " of " + shards.size() + ": " + shards.get(i).size() + " test classes");
+			try {
+				outputs.get(i).writeTo(testOutput);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+		}
+
+		int totalTests = 0;
+		int passedTests = 0;
+		try {
+			int[] testCounts = readTestCounts();
+			totalTests = testCounts[0];
+			passedTests = testCounts[1];
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return new BuildResults(passed ? CommitStatuses.success : CommitStatuses.error, totalTests, passedTests);
+	}
+
+	/**
+	 * Runs the priority test classes, then the other test classes, each in their own gradle invocation.
+	 * With fail-fast, the other test classes are not run if a priority test fails.
+	 * The test classes are compiled first, to find the test classes of the project.
+	 *
+	 * @return BuildResult object with the test counts of both invocations, and {@link CommitStatuses#error}
+	 * if the tests fail to compile or any test fails, {@link CommitStatuses#success} otherwise.
+	 */
+	private BuildResults runPriorityTestsFirst() {
+		var handler = new BlockingResultHandler<>(Void.class);
+		try {
+			runTasks(launcher -> launcher.forTasks("testClasses"), handler, testOutput);
+			handler.getResult();
 		} catch (BuildException ignored) {
-			status = CommitStatuses.failure;
+			return new BuildResults(CommitStatuses.error, 0, 0);
 		}
 
-		return new BuildResults(status, totalTests, passedTests);
+		Set<String> testClasses = testSelection != null ? testSelection : getTestDependencies().keySet();
+		Set<String> first = new TreeSet<>(testClasses);
+		first.retainAll(priorityTests);
+		Set<String> rest = new TreeSet<>(testClasses);
+		rest.removeAll(first);
+
+		boolean passed = true;
+		List<TestResult> firstResults = List.of();
+		if (!first.isEmpty()) {
+			log(testOutput, "Running " + first.size() + " recently failed or changed test classes first");
+			passed = runTestClasses(first);
+			readTestResultsQuietly();
+			firstResults = testResults;
+		}
+		if (!passed && failFast) {
+			log(testOutput, "Skipping the other " + rest.size() + " test classes after the first failure");
+		} else if (!rest.isEmpty()) {
+			log(testOutput, "Running the other " + rest.size() + " test classes");
+			passed &= runTestClasses(rest);
+			readTestResultsQuietly();
+			// Keep the results of the first invocation, whether or not gradle cleaned them up
+			List<TestResult> results = new ArrayList<>(firstResults);
+			testResults.stream().filter(result -> !first.contains(result.className())).forEach(results::add);
+			testResults = results;
+		}
+
+		int totalTests = testResults.size();
+		int passedTests = totalTests - countTests(TestOutcome.failed);
+		return new BuildResults(passed ? CommitStatuses.success : CommitStatuses.error, totalTests, passedTests);
+	}
+
+	/**
+	 * Runs the given test classes in the workspace of the builder.
+	 *
+	 * @param testClasses Names of the test classes to run.
+	 * @return true if all tests passed, false otherwise
+	 */
+	private boolean runTestClasses(Set<String> testClasses) {
+		return runShard(0, projectDir, testClasses, testOutput);
+	}
+
+	/**
+	 * Reads the test results of the last build, logging instead of failing if they cannot be read.
+	 */
+	private void readTestResultsQuietly() {
+		try {
+			readTestCounts();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs the test classes of one shard.
+	 *
+	 * @param shard        Index of the shard, the first shard runs in the workspace of the builder.
+	 * @param dir          Workspace of the shard.
+	 * @param testClasses  Names of the test classes to run.
+	 * @param outputStream The output stream to output the logs to.
+	 * @return true if all tests passed, false otherwise
+	 */
+	private boolean runShard(int shard, Path dir, Set<String> testClasses, OutputStream outputStream) {
+		var handler = new BlockingResultHandler<>(Void.class);
+		try {
+			if (shard == 0) {
+				runTests(launcher -> launcher.withJvmTestClasses(testClasses), handler, outputStream);
+			} else {
+				DaemonPool.Daemon shardDaemon = daemonPool != null ? shardDaemons.get(shard - 1) : null;
+				GradleConnector shardConnector = shardDaemon != null ? shardDaemon.getConnector()
+					: createShardConnector(dir);
+				if (shardDaemon == null) {
+					shardConnectors.add(shardConnector);
+				}
+				try (var connection = shardConnector.connect()) {
+					var testLauncher = connection.newTestLauncher();
+					configureLauncher(testLauncher, outputStream);
+					testLauncher.withJvmTestClasses(testClasses);
+					testLauncher.run(trackDaemonHealth(handler, () -> {
+						shardsHealthy = false;
+						if (shardDaemon != null) {
+							unhealthyShardDaemons.add(shardDaemon);
+						}
+					}));
+				}
+			}
+			handler.getResult();
+			return true;
+		} catch (BuildException | TestExecutionException ignored) {
+			return false;
+		}
+	}
+
+	/**
+	 * Leases a daemon from the pool to run a test shard in a copy of the workspace, if a slot is free.
+	 * The build already holds a slot, so it does not wait for another one.
+	 *
+	 * @param shardDir Workspace of the shard.
+	 * @return true if a daemon was leased, false if every slot of the pool is busy.
+	 */
+	private boolean leaseShardDaemon(Path shardDir) {
+		DaemonPool.Daemon shardDaemon = daemonPool.tryLease(shardDir);
+		if (shardDaemon == null) {
+			return false;
+		}
+		if (!trustedDependencies) {
+			shardDaemon.markUntrusted();
+		}
+		synchronized (shardDaemons) {
+			shardDaemons.add(shardDaemon);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for the test shards that are still running, after one of them failed or the build was interrupted.
+	 *
+	 * @param results Results of the shards.
+	 * @return true if all shards finished, false if interrupted while waiting.
+	 */
+	private static boolean awaitShards(List<Future<Boolean>> results) {
+		for (Future<Boolean> result : results) {
+			try {
+				result.get();
+			} catch (ExecutionException ignored) {
+				// Already reported by the shard that was waited for first
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the daemons leased for test shards to the pool, recycling those that failed.
+	 */
+	private void releaseShardDaemons() {
+		synchronized (shardDaemons) {
+			for (DaemonPool.Daemon shardDaemon : shardDaemons) {
+				daemonPool.release(shardDaemon, !unhealthyShardDaemons.contains(shardDaemon));
+			}
+			shardDaemons.clear();
+			unhealthyShardDaemons.clear();
+		}
+	}
+
+	/**
+	 * Creates the connector to run a test shard in a copy of the workspace with, if no daemon pool is set.
+	 * With a pool, shards run on daemons leased from it instead.
+	 * This method merely exists to allow mock-testing.
+	 *
+	 * @param shardDir Workspace of the shard.
+	 * @return A connector for the workspace.
+	 */
+	protected GradleConnector createShardConnector(Path shardDir) {
+		GradleConnector shardConnector = GradleConnector.newConnector();
+		shardConnector.forProjectDirectory(shardDir.toFile());
+		return shardConnector;
+	}
+
+	/**
+	 * Copies the sources of the workspace to a new workspace, leaving out the git repository and
+	 * gradle state and outputs, which are specific to the directory of the project.
+	 *
+	 * @param shardDir The directory to copy the workspace to.
+	 */
+	private void copyWorkspace(Path shardDir) {
+		File root = projectDir.toFile().getAbsoluteFile();
+		FileFilter filter = file -> {
+			File parent = file.getAbsoluteFile().getParentFile();
+			boolean buildOutputs = file.getName().equals("build") && (new File(parent, "build.gradle").exists()
+				|| new File(parent, "build.gradle.kts").exists());
+			boolean projectState = parent.equals(root) && (file.getName().equals(".git")
+				|| file.getName().equals(".gradle"));
+			return !buildOutputs && !projectState;
+		};
+		deleteDirectory(shardDir.toFile());
+		try {
+			FileUtils.copyDirectory(root, shardDir.toFile(), filter);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Gets the workspaces the tests ran in: the workspace of the builder and those of its shards.
+	 *
+	 * @return The directories of the workspaces.
+	 */
+	private List<Path> getTestDirs() {
+		List<Path> dirs = new ArrayList<>(List.of(projectDir));
+		dirs.addAll(shardDirs);
+		return dirs;
+	}
+
+	/**
+	 * Checks whether a task runs the tests of the project.
+	 *
+	 * @param taskPath Path of the task
+	 * @return true if it is a test task, false otherwise
+	 */
+	private boolean isTestTask(String taskPath) {
+		return taskPath.equals(":test") || taskPath.endsWith(":test");
+	}
+
+	/**
+	 * Reads the results of the single tests from the test results of the project and its shards,
+	 * and counts the tests and passed tests. Skipped tests count as passed.
+	 *
+	 * @return The total number of tests and the number of passed tests
+	 * @throws IOException If the test results cannot be read
+	 */
+	private int[] readTestCounts() throws IOException {
+		List<TestResult> results = new ArrayList<>();
+		try (PhaseTimer.Phase ignored = phaseTimer.start("result parsing")) {
+			for (Path dir : getTestDirs()) {
+				results.addAll(TestResultParser.readTestResults(dir));
+			}
+		}
+		testResults = results;
+
+		return new int[]{results.size(), results.size() - countTests(TestOutcome.failed)};
 	}
 
 	private boolean deleteAfter = false;
@@ -148,42 +1336,82 @@ public class Builder implements AutoCloseable {
 	 * @param targetBranch  Branch from repository to be checked out
 	 */
 	public void cloneTargetRepo(String targetRepoUrl, String targetBranch) throws GitAPIException {
+		cloneTargetRepo(targetRepoUrl, targetBranch, null);
+	}
+
+	/**
+	 * Clones repository using provided Url into temporary directory
+	 * Checks out the provided commit of the branch in detached mode, or the tip of the branch
+	 * if no commit is given
+	 * Deletes the temporary directory at the end
+	 * The time taken is written to the build log.
+	 *
+	 * @param targetRepoUrl Url to repository to clone
+	 * @param targetBranch  Branch from repository to be checked out
+	 * @param headSha       Commit to be checked out, or null for the tip of the branch
+	 */
+	public void cloneTargetRepo(String targetRepoUrl, String targetBranch, String headSha) throws GitAPIException {
 		Git git;
+		long cloneStart = System.currentTimeMillis();
 
 		File dir = projectDir.toFile();
+		checkedOut = false;
 		// Deletes the temp directory if it already exists, then creates a new temp dir
 		deleteDirectory(dir);
 		if (!dir.exists()) {
 			dir.mkdirs();
 		}
 
-		try {
+		try (PhaseTimer.Phase ignored = phaseTimer.start("clone")) {
 			// Clone
-			System.out.println("Cloning " + targetRepoUrl + " into " + dir);
-			git = Git.cloneRepository()
-				.setURI(targetRepoUrl)
-				.setDirectory(dir)
-				.call();
+			if (mirrorCache != null) {
+				System.out.println("Cloning " + targetRepoUrl + " into " + dir + " from mirror");
+				git = mirrorCache.cloneFromMirror(targetRepoUrl, dir);
+			} else if (cloneDepth > 0) {
+				System.out.println("Cloning branch " + targetBranch + " of " + targetRepoUrl + " into " + dir
+					+ " with depth " + cloneDepth);
+				git = Git.cloneRepository()
+					.setURI(targetRepoUrl)
+					.setDirectory(dir)
+					.setBranchesToClone(List.of(Constants.R_HEADS + targetBranch))
+					.setDepth(cloneDepth)
+					.setNoCheckout(true)
+					.call();
+			} else {
+				System.out.println("Cloning " + targetRepoUrl + " into " + dir);
+				git = Git.cloneRepository()
+					.setURI(targetRepoUrl)
+					.setDirectory(dir)
+					.call();
+			}
 			System.out.println("Completed Cloning");
-		} catch (GitAPIException e) {
+		} catch (GitAPIException | IOException e) {
 			System.out.println("Exception occurred while cloning repository");
 			e.printStackTrace();
 			return;
 		}
 
-		try {
-			// Checkout branch
-			System.out.println("Checking out branch " + targetBranch + " of repo " + targetRepoUrl);
-			git.branchCreate()
-				.setName(targetBranch)
-				.setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
-				.setStartPoint("origin/" + targetBranch)
-				.call();
-			git.checkout()
-				.setName(targetBranch)
-				.call();
-			System.out.println("Completed Branch-Checkout");
-		} catch (GitAPIException e) {
+		try (PhaseTimer.Phase ignored = phaseTimer.start("checkout")) {
+			if (headSha != null) {
+				// Checkout the pushed commit, even if the branch has moved on since
+				System.out.println("Checking out commit " + headSha + " of repo " + targetRepoUrl);
+				checkoutCommit(git, targetBranch, headSha);
+				System.out.println("Completed Commit-Checkout");
+			} else {
+				// Checkout branch
+				System.out.println("Checking out branch " + targetBranch + " of repo " + targetRepoUrl);
+				git.branchCreate()
+					.setName(targetBranch)
+					.setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+					.setStartPoint("origin/" + targetBranch)
+					.call();
+				git.checkout()
+					.setName(targetBranch)
+					.call();
+				System.out.println("Completed Branch-Checkout");
+			}
+			checkedOut = true;
+		} catch (GitAPIException | IOException e) {
 			System.out.println("Exception occurred while checking out branch");
 			e.printStackTrace();
 		} finally {
@@ -193,12 +1421,72 @@ public class Builder implements AutoCloseable {
 			}
 		}
 
+		String mode = mirrorCache != null ? "mirror" : cloneDepth > 0 ? "shallow, depth " + cloneDepth : "full";
+		log("Cloned " + targetRepoUrl + " (" + mode + ") in " + (System.currentTimeMillis() - cloneStart) + " ms");
+
 		// Delete the temp directory if needed
 		if (deleteAfter) {
 			deleteDirectory(dir);
 		}
 	}
 
+	/**
+	 * Checks out a commit in detached mode.
+	 * If a shallow clone does not reach back to the commit, the rest of the history of the branch is fetched first.
+	 *
+	 * @param git          The cloned repository
+	 * @param targetBranch Branch the commit is on
+	 * @param headSha      Commit to check out
+	 * @throws GitAPIException If the commit cannot be fetched or checked out
+	 * @throws IOException     If the repository cannot be read
+	 */
+	private void checkoutCommit(Git git, String targetBranch, String headSha) throws GitAPIException, IOException {
+		ObjectId commit = ObjectId.fromString(headSha);
+		if (cloneDepth > 0 && !git.getRepository().getObjectDatabase().has(commit)) {
+			System.out.println("Commit " + headSha + " is beyond clone depth, fetching history of " + targetBranch);
+			git.fetch()
+				.setRefSpecs(new RefSpec("+" + Constants.R_HEADS + targetBranch + ":"
+					+ Constants.R_REMOTES + "origin/" + targetBranch))
+				.setUnshallow(true)
+				.call();
+		}
+		// The clone has no index or working tree yet, so HEAD is detached at the commit and the
+		// working tree is reset to it, rather than checked out from the branch the clone points at
+		RefUpdate head = git.getRepository().getRefDatabase().newUpdate(Constants.HEAD, true);
+		head.setNewObjectId(commit);
+		RefUpdate.Result result = head.forceUpdate();
+		if (result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NEW
+			&& result != RefUpdate.Result.NO_CHANGE) {
+			throw new IOException("Could not detach HEAD at " + headSha + ": " + result);
+		}
+		git.reset()
+			.setMode(ResetCommand.ResetType.HARD)
+			.call();
+	}
+
+	/**
+	 * Writes a line to the build log.
+	 *
+	 * @param message The line to write.
+	 */
+	private void log(String message) {
+		log(buildOutput, message);
+	}
+
+	/**
+	 * Writes a line to a log.
+	 *
+	 * @param output  The output stream of the log.
+	 * @param message The line to write.
+	 */
+	private static void log(OutputStream output, String message) {
+		try {
+			output.write((message + System.lineSeparator()).getBytes());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Deletes a given directory if it exists
 	 *
@@ -219,10 +1507,64 @@ public class Builder implements AutoCloseable {
 	/**
 	 * Record of the results of a build.
 	 *
-	 * @param status      The status of the build.
-	 * @param totalTests  The total number of tests run.
-	 * @param passedTests The number of tests that passed.
+	 * @param status           The status of the build.
+	 * @param totalTests       The total number of tests run.
+	 * @param passedTests      The number of tests that passed, including flaky tests.
+	 * @param flakyTests       The number of tests that failed, but passed when retried.
+	 * @param quarantinedTests The number of tests that kept failing, but did not fail the build.
 	 */
-	public record BuildResults(CommitStatuses status, int totalTests, int passedTests) {
+	public record BuildResults(CommitStatuses status, int totalTests, int passedTests, int flakyTests,
+							   int quarantinedTests) {
+		/**
+		 * Creates a new record of the results of a build without retried tests.
+		 *
+		 * @param status      The status of the build.
+		 * @param totalTests  The total number of tests run.
+		 * @param passedTests The number of tests that passed.
+		 */
+		public BuildResults(CommitStatuses status, int totalTests, int passedTests) {
+			this(status, totalTests, passedTests, 0, 0);
+		}
+	}
+
+	/**
+	 * Output stream that writes to the build log until the tests start, and to the test log after.
+	 */
+	private static class PhaseOutputStream extends OutputStream {
+		private final OutputStream testOutput;
+		private volatile OutputStream target;
+
+		/**
+		 * Creates a new output stream writing to the build log.
+		 *
+		 * @param buildOutput The output stream of the build log.
+		 * @param testOutput  The output stream of the test log.
+		 */
+		PhaseOutputStream(OutputStream buildOutput, OutputStream testOutput) {
+			this.testOutput = testOutput;
+			this.target = buildOutput;
+		}
+
+		/**
+		 * Makes all further output go to the test log.
+		 */
+		void switchToTestOutput() {
+			target = testOutput;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			target.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			target.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target.flush();
+		}
 	}
 }
@@ -0,0 +1,153 @@
+package ci;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Server configuration, read from a properties file.
+ * Every setting has a default, so the file and any of its keys may be left out.
+ * Settings can be overridden for a single repository by prefixing the key with
+ * {@code repo.<owner>/<name>.}, for example {@code repo.DD2480-Group-4/lab2.checkout.mode}.
+ */
+public class Config {
+	private final Properties properties;
+
+	/**
+	 * Creates a configuration where every setting has its default value.
+	 */
+	public Config() {
+		this(new Properties());
+	}
+
+	/**
+	 * Creates a configuration from already loaded properties.
+	 *
+	 * @param properties The configured properties
+	 */
+	public Config(Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * Loads the configuration from a properties file.
+	 *
+	 * @param path Path to the properties file
+	 * @return The configuration, with only default values if the file does not exist
+	 * @throws IOException If the file exists but cannot be read
+	 */
+	public static Config load(Path path) throws IOException {
+		Properties properties = new Properties();
+		if (Files.exists(path)) {
+			try (Reader reader = Files.newBufferedReader(path)) {
+				properties.load(reader);
+			}
+		}
+		return new Config(properties);
+	}
+
+	/**
+	 * Gets a string setting
+	 *
+	 * @param key          Name of the setting
+	 * @param defaultValue Value used if the setting is missing
+	 * @return Value of the setting
+	 */
+	public String getString(String key, String defaultValue) {
+		return properties.getProperty(key, defaultValue).trim();
+	}
+
+	/**
+	 * Gets an integer setting
+	 *
+	 * @param key          Name of the setting
+	 * @param defaultValue Value used if the setting is missing
+	 * @return Value of the setting
+	 */
+	public int getInt(String key, int defaultValue) {
+		return Integer.parseInt(getString(key, Integer.toString(defaultValue)));
+	}
+
+	/**
+	 * Gets a long setting
+	 *
+	 * @param key          Name of the setting
+	 * @param defaultValue Value used if the setting is missing
+	 * @return Value of the setting
+	 */
+	public long getLong(String key, long defaultValue) {
+		return Long.parseLong(getString(key, Long.toString(defaultValue)));
+	}
+
+	/**
+	 * Gets a boolean setting
+	 *
+	 * @param key          Name of the setting
+	 * @param defaultValue Value used if the setting is missing
+	 * @return Value of the setting
+	 */
+	public boolean getBoolean(String key, boolean defaultValue) {
+		return Boolean.parseBoolean(getString(key, Boolean.toString(defaultValue)));
+	}
+
+	/**
+	 * Gets a string setting of a repository
+	 *
+	 * @param repo         Full name of the repository (owner + repo)
+	 * @param key          Name of the setting
+	 * @param defaultValue Value used if the setting is missing both for the repository and globally
+	 * @return Value of the setting
+	 */
+	public String getString(String repo, String key, String defaultValue) {
+		return getString(repoKey(repo, key), getString(key, defaultValue));
+	}
+
+	/**
+	 * Gets an integer setting of a repository
+	 *
+	 * @param repo         Full name of the repository (owner + repo)
+	 * @param key          Name of the setting
+	 * @param defaultValue Value used if the setting is missing both for the repository and globally
+	 * @return Value of the setting
+	 */
+	public int getInt(String repo, String key, int defaultValue) {
+		return getInt(repoKey(repo, key), getInt(key, defaultValue));
+	}
+
+	/**
+	 * Gets a long setting of a repository
+	 *
+	 * @param repo         Full name of the repository (owner + repo)
+	 * @param key          Name of the setting
+	 * @param defaultValue Value used if the setting is missing both for the repository and globally
+	 * @return Value of the setting
+	 */
+	public long getLong(String repo, String key, long defaultValue) {
+		return getLong(repoKey(repo, key), getLong(key, defaultValue));
+	}
+
+	/**
+	 * Gets a boolean setting of a repository
+	 *
+	 * @param repo         Full name of the repository (owner + repo)
+	 * @param key          Name of the setting
+	 * @param defaultValue Value used if the setting is missing both for the repository and globally
+	 * @return Value of the setting
+	 */
+	public boolean getBoolean(String repo, String key, boolean defaultValue) {
+		return getBoolean(repoKey(repo, key), getBoolean(key, defaultValue));
+	}
+
+	/**
+	 * Gets the key overriding a setting for a single repository
+	 *
+	 * @param repo Full name of the repository (owner + repo)
+	 * @param key  Name of the setting
+	 * @return Key of the repository-specific setting
+	 */
+	private static String repoKey(String repo, String key) {
+		return "repo." + repo + "." + key;
+	}
+}
@@ -0,0 +1,350 @@
+package ci;
+
+import com.sun.management.OperatingSystemMXBean;
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.internal.consumer.DefaultGradleConnector;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of warm Gradle daemons shared by all builds.
+ * Every slot of the pool has its own Gradle user home and a long-lived connector, so the daemons
+ * it starts are only reused by builds leased to that slot.
+ * Slots are leased by compatibility: a build gets a slot that last ran the same Gradle distribution
+ * on the same JDK whenever one is free.
+ * A slot is recycled, stopping its daemons, after a number of builds, after an infrastructure failure,
+ * or when the host runs low on memory.
+ */
+public class DaemonPool {
+	private final Path baseDir;
+	private final int size;
+	private final List<String> jvmArguments;
+	private final int idleTimeoutSeconds;
+	private final int maxBuilds;
+	private final long minFreeMemoryMb;
+	private final List<Daemon> idle = new ArrayList<>();
+	private int created = 0;
+
+	/**
+	 * Creates a new daemon pool.
+	 *
+	 * @param baseDir            Directory the Gradle user homes of the slots are created in.
+	 * @param size               Maximum number of slots, and so of builds using the pool at once.
+	 * @param jvmArguments       JVM arguments of the daemons, for example the maximum heap size.
+	 * @param idleTimeoutSeconds Time after which an unused daemon stops by itself.
+	 * @param maxBuilds          Number of builds after which a slot is recycled.
+	 * @param minFreeMemoryMb    Available host memory below which a slot is recycled after its build.
+	 */
+	public DaemonPool(Path baseDir, int size, List<String> jvmArguments, int idleTimeoutSeconds, int maxBuilds,
+					  long minFreeMemoryMb) {
+		this.baseDir = baseDir;
+		this.size = size;
+		this.jvmArguments = List.copyOf(jvmArguments);
+		this.idleTimeoutSeconds = idleTimeoutSeconds;
+		this.maxBuilds = maxBuilds;
+		this.minFreeMemoryMb = minFreeMemoryMb;
+	}
+
+	/**
+	 * Leases a daemon slot for building a project, waiting until one is free.
+	 * A free slot compatible with the project is preferred, then a new slot,
+	 * and otherwise the least recently used slot is recycled for the project.
+	 *
+	 * @param projectDir The directory of the project to build.
+	 * @return The leased slot, its connector points at the project.
+	 * @throws InterruptedException If interrupted while waiting for a free slot.
+	 */
+	public synchronized Daemon lease(Path projectDir) throws InterruptedException {
+		while (idle.isEmpty() && created >= size) {
+			wait();
+		}
+		return take(projectDir);
+	}
+
+	/**
+	 * Leases a daemon slot for building a project if one is free, without waiting.
+	 * Used for the additional slots of a build, which must not wait for slots that other builds hold
+	 * while holding one themselves.
+	 *
+	 * @param projectDir The directory of the project to build.
+	 * @return The leased slot, its connector points at the project, or null if no slot is free.
+	 */
+	public synchronized Daemon tryLease(Path projectDir) {
+		if (idle.isEmpty() && created >= size) {
+			return null;
+		}
+		return take(projectDir);
+	}
+
+	/**
+	 * Takes a free slot for building a project.
+	 * A free slot compatible with the project is preferred, then a new slot,
+	 * and otherwise the least recently used slot is recycled for the project.
+	 *
+	 * @param projectDir The directory of the project to build.
+	 * @return The leased slot, its connector points at the project.
+	 */
+	private Daemon take(Path projectDir) {
+		String key = compatibilityKey(projectDir);
+		Daemon daemon = idle.stream().filter(d -> d.key.equals(key)).findFirst().orElse(null);
+		if (daemon != null) {
+			idle.remove(daemon);
+		} else if (created < size) {
+			int index = created++;
+			daemon = new Daemon(index, baseDir.resolve("daemon-" + index), jvmArguments);
+			daemon.connector = createConnector(daemon);
+		} else {
+			daemon = idle.remove(0);
+			recycle(daemon);
+		}
+		daemon.key = key;
+		daemon.connector.forProjectDirectory(projectDir.toFile());
+		return daemon;
+	}
+
+	/**
+	 * Returns a leased slot to the pool, recycling it if needed.
+	 *
+	 * @param daemon  The leased slot.
+	 * @param healthy false if the build failed because of Gradle itself rather than the project.
+	 */
+	public synchronized void release(Daemon daemon, boolean healthy) {
+		daemon.builds++;
+		if (!healthy || daemon.builds >= maxBuilds || freeMemoryMb() < minFreeMemoryMb) {
+			recycle(daemon);
+		}
+		idle.add(daemon);
+		notifyAll();
+	}
+
+	/**
+	 * Stops the daemons of a slot and gives it a new connector.
+	 *
+	 * @param daemon The slot to recycle.
+	 */
+	private void recycle(Daemon daemon) {
+		try {
+			daemon.connector.disconnect();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		if (daemon.tainted) {
+			// Drop what untrusted builds downloaded, so it is never used to warm the shared cache
+			Builder.deleteDirectory(daemon.userHome.resolve("caches").resolve("modules-2").toFile());
+			daemon.tainted = false;
+		}
+		daemon.builds = 0;
+		daemon.generation++;
+		daemon.connector = createConnector(daemon);
+	}
+
+	/**
+	 * Creates the connector of a slot.
+	 * This function merely exists to allow mock-testing.
+	 *
+	 * @param daemon The slot.
+	 * @return A connector using the Gradle user home of the slot.
+	 */
+	protected GradleConnector createConnector(Daemon daemon) {
+		var connector = GradleConnector.newConnector();
+		connector.useGradleUserHomeDir(daemon.userHome.toFile());
+		if (connector instanceof DefaultGradleConnector defaultConnector) {
+			defaultConnector.daemonMaxIdleTime(idleTimeoutSeconds, TimeUnit.SECONDS);
+		}
+		return connector;
+	}
+
+	/**
+	 * Gets the key deciding which daemons a project can run on: the Gradle distribution of its
+	 * wrapper and the JDK it requests.
+	 *
+	 * @param projectDir The directory of the project.
+	 * @return Key of the project, equal for projects that can share daemons.
+	 */
+	static String compatibilityKey(Path projectDir) {
+		String distribution = readProperties(projectDir.resolve("gradle/wrapper/gradle-wrapper.properties"))
+			.getProperty("distributionUrl", "");
+		String javaHome = readProperties(projectDir.resolve("gradle.properties"))
+			.getProperty("org.gradle.java.home", "");
+		return distribution.trim() + "|" + javaHome.trim();
+	}
+
+	/**
+	 * Reads a properties file.
+	 *
+	 * @param path Path to the file
+	 * @return The properties, empty if the file does not exist or cannot be read
+	 */
+	private static Properties readProperties(Path path) {
+		Properties properties = new Properties();
+		if (Files.exists(path)) {
+			try (Reader reader = Files.newBufferedReader(path)) {
+				properties.load(reader);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Gets the physical memory of the host that is available for starting new processes.
+	 * This is MemAvailable from /proc/meminfo, which unlike the free memory also counts the page cache
+	 * that the kernel can reclaim. Hosts without /proc/meminfo fall back to the free memory.
+	 *
+	 * @return Available memory in MB, or Long.MAX_VALUE if it cannot be read
+	 */
+	private static long freeMemoryMb() {
+		Path meminfo = Path.of("/proc/meminfo");
+		if (Files.isReadable(meminfo)) {
+			try {
+				long availableMb = parseAvailableMemoryMb(Files.readAllLines(meminfo));
+				if (availableMb >= 0) {
+					return availableMb;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (ManagementFactory.getOperatingSystemMXBean() instanceof OperatingSystemMXBean os) {
+			return os.getFreeMemorySize() / (1024 * 1024);
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Reads the available memory from the lines of /proc/meminfo.
+	 *
+	 * @param meminfo Lines of /proc/meminfo, such as "MemAvailable:    8016404 kB"
+	 * @return Available memory in MB, or -1 if the lines do not contain it
+	 */
+	static long parseAvailableMemoryMb(List<String> meminfo) {
+		for (String line : meminfo) {
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length >= 2 && fields[0].equals("MemAvailable:")) {
+				try {
+					return Long.parseLong(fields[1]) / 1024;
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Stops all daemons of the pool and deletes their Gradle user homes.
+	 */
+	public synchronized void shutdown() {
+		for (Daemon daemon : idle) {
+			daemon.connector.disconnect();
+		}
+		idle.clear();
+		Builder.deleteDirectory(baseDir.toFile());
+	}
+
+	/**
+	 * A slot of the pool, owning a Gradle user home and the daemons started in it.
+	 */
+	public static class Daemon {
+		private final int index;
+		private final Path userHome;
+		private final List<String> jvmArguments;
+		private GradleConnector connector;
+		private String key;
+		private int builds = 0;
+		private int generation = 0;
+		private volatile boolean tainted = false;
+
+		/**
+		 * Creates a new slot.
+		 *
+		 * @param index        Index of the slot in the pool.
+		 * @param userHome     Gradle user home of the slot.
+		 * @param jvmArguments JVM arguments of the daemons of the slot.
+		 */
+		Daemon(int index, Path userHome, List<String> jvmArguments) {
+			this.index = index;
+			this.userHome = userHome;
+			this.jvmArguments = jvmArguments;
+		}
+
+		/**
+		 * Gets index of the slot
+		 *
+		 * @return Index of the slot in the pool
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets Gradle user home
+		 *
+		 * @return Gradle user home of the slot
+		 */
+		public Path getUserHome() {
+			return userHome;
+		}
+
+		/**
+		 * Gets JVM arguments
+		 *
+		 * @return JVM arguments the daemons of the slot are started with
+		 */
+		public List<String> getJvmArguments() {
+			return jvmArguments;
+		}
+
+		/**
+		 * Gets connector
+		 *
+		 * @return Connector of the slot, pointing at the project it is leased for
+		 */
+		public GradleConnector getConnector() {
+			return connector;
+		}
+
+		/**
+		 * Gets number of builds run since the slot was last recycled
+		 *
+		 * @return Number of builds
+		 */
+		public int getBuilds() {
+			return builds;
+		}
+
+		/**
+		 * Marks the Gradle user home of the slot as written to by an untrusted build, until the slot is recycled.
+		 */
+		public void markUntrusted() {
+			tainted = true;
+		}
+
+		/**
+		 * Checks whether only trusted builds wrote to the Gradle user home of the slot since it was last recycled
+		 *
+		 * @return true if the user home can be used to warm the shared dependency cache, false otherwise
+		 */
+		public boolean isTrusted() {
+			return !tainted;
+		}
+
+		/**
+		 * Gets number of times the slot was recycled
+		 *
+		 * @return Number of times the slot was recycled
+		 */
+		public int getGeneration() {
+			return generation;
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package ci;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Shared dependency cache, used by every build as a read-only Gradle dependency cache
+ * (see {@code GRADLE_RO_DEP_CACHE}). Builds only read from it, anything they download goes to the
+ * writable cache of their own Gradle user home.
+ * The cache is kept as immutable generations. Warming it from a build that downloaded new dependencies
+ * creates a new generation from the previous one and those dependencies; older generations are deleted
+ * once no build uses them anymore. Generations are kept below a size limit by evicting the least
+ * recently downloaded modules.
+ * Builds see the cache through a symbolic link that is swapped to each new generation, so that pooled
+ * daemons, which keep the path they were started with, always read the current one.
+ */
+public class DependencyCache {
+	private static final String MODULES = "modules-2";
+	private static final String FILES = "files-2.1";
+	private static final String GENERATION = "generation-";
+	private static final String CURRENT = "current";
+
+	private final Path baseDir;
+	private final long maxSizeBytes;
+	private final Map<Path, Integer> users = new HashMap<>();
+	private final Object warmLock = new Object();
+	private final ExecutorService warmer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "dependency-cache-warmer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private Path current;
+
+	/**
+	 * Creates a new dependency cache, keeping only the newest generation found in the directory,
+	 * or starting with an empty one.
+	 *
+	 * @param baseDir   Directory the generations are kept in.
+	 * @param maxSizeMb Maximum size of a generation in MB.
+	 * @throws IOException If the directory cannot be read.
+	 */
+	public DependencyCache(Path baseDir, long maxSizeMb) throws IOException {
+		this.baseDir = baseDir;
+		this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+		Files.createDirectories(baseDir);
+		try (Stream<Path> generations = Files.list(baseDir)) {
+			List<Path> sorted = generations
+				.filter(generation -> generation.getFileName().toString().startsWith(GENERATION))
+				.sorted()
+				.toList();
+			for (int i = 0; i < sorted.size() - 1; i++) {
+				Builder.deleteDirectory(sorted.get(i).toFile());
+			}
+			current = sorted.isEmpty() ? null : sorted.get(sorted.size() - 1);
+		}
+		if (current == null) {
+			current = newGeneration();
+			Files.createDirectories(current.resolve(MODULES));
+		}
+		link(current);
+	}
+
+	/**
+	 * Gets the path builds should use as read-only dependency cache.
+	 * It stays the same across generations, as it links to the current one.
+	 *
+	 * @return Absolute path of the link to the current generation
+	 */
+	public Path getPath() {
+		return baseDir.resolve(CURRENT).toAbsolutePath();
+	}
+
+	/**
+	 * Gets the current generation for a build, which must release it with
+	 * {@link DependencyCache#release(Path)} once it is done.
+	 * The generation is kept until then, even if a newer one is created in the meantime.
+	 *
+	 * @return Directory of the current generation.
+	 */
+	public synchronized Path acquire() {
+		users.merge(current, 1, Integer::sum);
+		return current;
+	}
+
+	/**
+	 * Releases a generation acquired by a build, deleting it if it is no longer current and unused.
+	 *
+	 * @param generation The acquired generation.
+	 */
+	public synchronized void release(Path generation) {
+		if (generation == null) {
+			return;
+		}
+		int remaining = users.merge(generation, -1, Integer::sum);
+		if (remaining <= 0) {
+			users.remove(generation);
+			if (!generation.equals(current)) {
+				Builder.deleteDirectory(generation.toFile());
+			}
+		}
+	}
+
+	/**
+	 * Warms the cache from a Gradle user home on a background thread, one user home at a time.
+	 * The user home must not be written to until the warming is done.
+	 *
+	 * @param gradleUserHome The Gradle user home of a successful build.
+	 * @param done           Run once the cache is warmed, or warming failed.
+	 */
+	public void warmInBackground(Path gradleUserHome, Runnable done) {
+		warmer.execute(() -> {
+			try {
+				long start = System.currentTimeMillis();
+				if (warm(gradleUserHome)) {
+					System.out.println("Warmed dependency cache from " + gradleUserHome + " in "
+						+ (System.currentTimeMillis() - start) + " ms");
+				}
+			} catch (IOException | UncheckedIOException e) {
+				e.printStackTrace();
+			} finally {
+				done.run();
+			}
+		});
+	}
+
+	/**
+	 * Creates a new generation holding the current generation and the dependencies in the writable
+	 * cache of a Gradle user home that the current generation does not have yet.
+	 * Only user homes of trusted builds should be used, as everything in them is served to every later build.
+	 *
+	 * @param gradleUserHome The Gradle user home of a successful build.
+	 * @return true if a new generation was created, false if the user home had no new dependencies.
+	 * @throws IOException If the generation cannot be created.
+	 */
+	public boolean warm(Path gradleUserHome) throws IOException {
+		Path source = gradleUserHome.resolve("caches").resolve(MODULES);
+		if (!Files.isDirectory(source)) {
+			return false;
+		}
+		synchronized (warmLock) {
+			Path previous = acquire();
+			Path generation = newGeneration();
+			try {
+				List<Path> added = missingFiles(source, previous.resolve(MODULES));
+				if (added.isEmpty()) {
+					// Most builds only use dependencies that are already cached
+					release(previous);
+					return false;
+				}
+				linkTree(previous.resolve(MODULES), generation.resolve(MODULES));
+				for (Path file : added) {
+					Path copy = generation.resolve(MODULES).resolve(source.relativize(file).toString());
+					Files.createDirectories(copy.getParent());
+					Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+				}
+				evict(generation.resolve(MODULES));
+				link(generation);
+			} catch (IOException | UncheckedIOException e) {
+				Builder.deleteDirectory(generation.toFile());
+				release(previous);
+				throw e;
+			}
+
+			synchronized (this) {
+				current = generation;
+			}
+			release(previous);
+			return true;
+		}
+	}
+
+	/**
+	 * Shuts down the background warming, waiting for the warming already started.
+	 *
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void shutdown() throws InterruptedException {
+		warmer.shutdown();
+		warmer.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Gets the directory for a new generation, named by its creation time so that generations sort by age.
+	 *
+	 * @return Directory of the new generation, which does not exist yet
+	 */
+	private Path newGeneration() {
+		long time = System.currentTimeMillis();
+		while (Files.exists(baseDir.resolve(GENERATION + time))) {
+			time++;
+		}
+		return baseDir.resolve(GENERATION + time);
+	}
+
+	/**
+	 * Points the link builds use at a generation, replacing the link atomically.
+	 *
+	 * @param generation The generation to link to.
+	 * @throws IOException If the link cannot be created.
+	 */
+	private void link(Path generation) throws IOException {
+		Path link = baseDir.resolve(CURRENT);
+		Path newLink = baseDir.resolve(CURRENT + ".tmp");
+		Files.deleteIfExists(newLink);
+		Files.createSymbolicLink(newLink, generation.getFileName());
+		Files.move(newLink, link, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Gets the cache files of a directory tree that a generation does not have,
+	 * skipping the lock files Gradle keeps next to them.
+	 *
+	 * @param source  The modules directory of a Gradle user home.
+	 * @param modules The modules directory of the generation.
+	 * @return The missing files
+	 * @throws IOException If a directory cannot be read.
+	 */
+	private static List<Path> missingFiles(Path source, Path modules) throws IOException {
+		try (Stream<Path> files = Files.walk(source)) {
+			return files.filter(file -> !isLockFile(file) && Files.isRegularFile(file))
+				.filter(file -> !Files.exists(modules.resolve(source.relativize(file).toString())))
+				.toList();
+		}
+	}
+
+	/**
+	 * Links the cache files of a directory tree into another, copying them where they cannot be
+	 * linked, for example when the trees are on different devices.
+	 *
+	 * @param source The directory to link.
+	 * @param target The directory to link into.
+	 * @throws IOException If a file cannot be linked or copied.
+	 */
+	private static void linkTree(Path source, Path target) throws IOException {
+		try (Stream<Path> files = Files.walk(source)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (isLockFile(file)) {
+					continue;
+				}
+				Path copy = target.resolve(source.relativize(file).toString());
+				if (Files.isDirectory(file)) {
+					Files.createDirectories(copy);
+				} else if (!Files.exists(copy)) {
+					try {
+						Files.createLink(copy, file);
+					} catch (FileAlreadyExistsException ignored) {
+						// Written by a concurrent build, the file is the same
+					} catch (IOException | UnsupportedOperationException e) {
+						Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a file is one of the lock files Gradle keeps next to the cache files.
+	 *
+	 * @param file The file.
+	 * @return true if the file should not be put in a generation, false otherwise
+	 */
+	private static boolean isLockFile(Path file) {
+		String name = file.getFileName().toString();
+		return name.endsWith(".lock") || name.equals("gc.properties");
+	}
+
+	/**
+	 * Deletes the least recently downloaded modules of a generation until it fits the size limit.
+	 * Metadata of evicted modules is kept, Gradle downloads the missing files into the writable cache.
+	 *
+	 * @param modules The modules directory of the generation.
+	 * @throws IOException If the generation cannot be read.
+	 */
+	private void evict(Path modules) throws IOException {
+		long size = sizeOf(modules);
+		if (size <= maxSizeBytes || !Files.isDirectory(modules.resolve(FILES))) {
+			return;
+		}
+		List<Path> moduleDirs;
+		try (Stream<Path> dirs = Files.walk(modules.resolve(FILES), 2)) {
+			moduleDirs = dirs.filter(dir -> modules.resolve(FILES).relativize(dir).getNameCount() == 2)
+				.sorted(Comparator.comparingLong(DependencyCache::lastModified))
+				.toList();
+		}
+		for (Path moduleDir : moduleDirs) {
+			if (size <= maxSizeBytes) {
+				break;
+			}
+			size -= sizeOf(moduleDir);
+			Builder.deleteDirectory(moduleDir.toFile());
+		}
+	}
+
+	/**
+	 * Gets the newest modification time of the files of a module.
+	 *
+	 * @param moduleDir The directory of the module.
+	 * @return Modification time in milliseconds since the epoch
+	 */
+	private static long lastModified(Path moduleDir) {
+		try (Stream<Path> files = Files.walk(moduleDir)) {
+			return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().lastModified()).max().orElse(0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Gets the size of the files in a directory tree.
+	 *
+	 * @param dir The directory.
+	 * @return Size in bytes
+	 * @throws IOException If the directory cannot be read.
+	 */
+	static long sizeOf(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+		}
+	}
+}
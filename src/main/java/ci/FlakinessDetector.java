@@ -0,0 +1,76 @@
+package ci;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds tests that are suspected to be flaky from their outcomes in recent builds.
+ * A test is suspected when its outcome flips between passing and failing often enough,
+ * or when it already passed on a retry in one of the builds.
+ */
+public class FlakinessDetector {
+	private final int flipPercent;
+
+	/**
+	 * Creates a new flakiness detector.
+	 *
+	 * @param flipPercent Percentage of consecutive builds in which the outcome of a test must flip
+	 *                    for it to be suspected.
+	 */
+	public FlakinessDetector(int flipPercent) {
+		this.flipPercent = flipPercent;
+	}
+
+	/**
+	 * Identifies a test.
+	 *
+	 * @param className Fully qualified name of the test class
+	 * @param name      Name of the test within its class
+	 */
+	public record TestId(String className, String name) {
+	}
+
+	/**
+	 * Finds the tests suspected to be flaky.
+	 *
+	 * @param testOutcomes Outcomes of each test in recent builds, oldest first
+	 * @return The suspected tests
+	 */
+	public Set<TestId> findSuspects(Map<TestId, List<TestOutcome>> testOutcomes) {
+		Set<TestId> suspects = new HashSet<>();
+		for (Map.Entry<TestId, List<TestOutcome>> entry : testOutcomes.entrySet()) {
+			List<TestOutcome> outcomes = entry.getValue();
+			double flipRate = flipRate(outcomes);
+			if (outcomes.contains(TestOutcome.flaky) || flipRate > 0 && flipRate * 100 >= flipPercent) {
+				suspects.add(entry.getKey());
+			}
+		}
+		return suspects;
+	}
+
+	/**
+	 * Computes how often the outcome of a test flips between passing and failing from one build to the next.
+	 * Skipped runs are left out, quarantined runs count as failures.
+	 *
+	 * @param outcomes Outcomes of the test in recent builds, oldest first
+	 * @return Number of flips divided by the number of consecutive pairs of runs, 0 if there are fewer than two runs
+	 */
+	public static double flipRate(List<TestOutcome> outcomes) {
+		List<Boolean> passed = outcomes.stream()
+			.filter(outcome -> outcome != TestOutcome.skipped)
+			.map(outcome -> outcome == TestOutcome.passed || outcome == TestOutcome.flaky)
+			.toList();
+		if (passed.size() < 2) {
+			return 0;
+		}
+		int flips = 0;
+		for (int i = 1; i < passed.size(); i++) {
+			if (!passed.get(i).equals(passed.get(i - 1))) {
+				flips++;
+			}
+		}
+		return (double) flips / (passed.size() - 1);
+	}
+}
@@ -3,65 +3,208 @@ package ci;
 import java.io.File;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import ci.PushPayload.Commit;
 import ci.PushPayload.Author;
 import ci.PushPayload.Sender;
+import ci.BuildInfo.BuildSummary;
+import ci.BuildInfo.PhaseTiming;
+import ci.BuildInfo.TaskTiming;
+import ci.BuildInfo.TestResult;
+import ci.FlakinessDetector.TestId;
 
 /**
  * Data Access Object for build history data
  */
 public class HistoryDAO {
 
+	private static final String HISTORY_COMMITS_INDEX =
+		"CREATE INDEX IF NOT EXISTS \"historyCommitsHistoryId\" ON \"historyCommits\" (\"historyId\")";
+	private static final String HISTORY_QUERY =
+		"SELECT history.*, senders.id AS senderRowId, senders.login, senders.url AS senderUrl, senders.avatarUrl FROM history LEFT JOIN senders ON senders.id = history.senderId";
+	private static final String COMMITS_QUERY =
+		"SELECT historyCommits.historyId, commits.sha, commits.message, commits.url, commits.modifiedFiles, authors.id AS authorRowId, authors.name, authors.username, authors.email FROM historyCommits JOIN commits ON commits.id = historyCommits.commitId LEFT JOIN authors ON authors.id = commits.authorId";
+	private static final String SUMMARY_QUERY =
+		"SELECT id, branch, buildResult, outcome, buildDate FROM history";
+	private static final String[] HISTORY_FILTER_INDEXES = {
+		"CREATE INDEX IF NOT EXISTS \"historyBranch\" ON \"history\" (\"branch\")",
+		"CREATE INDEX IF NOT EXISTS \"historyOutcome\" ON \"history\" (\"outcome\")",
+		"CREATE INDEX IF NOT EXISTS \"historySenderId\" ON \"history\" (\"senderId\")",
+		"CREATE INDEX IF NOT EXISTS \"historyBuildDate\" ON \"history\" (\"buildDate\")",
+		"CREATE INDEX IF NOT EXISTS \"sendersLogin\" ON \"senders\" (\"login\")"
+	};
+
+	private static final String TEST_DEPENDENCIES_TABLE =
+		"CREATE TABLE IF NOT EXISTS \"testDependencies\" (\"repo\" TEXT NOT NULL, \"testClass\" TEXT NOT NULL, \"dependency\" TEXT NOT NULL)";
+	private static final String TEST_DEPENDENCIES_INDEX =
+		"CREATE INDEX IF NOT EXISTS \"testDependenciesRepo\" ON \"testDependencies\" (\"repo\", \"testClass\")";
+	private static final String TEST_SELECTIONS_TABLE =
+		"CREATE TABLE IF NOT EXISTS \"testSelections\" (\"repo\" TEXT NOT NULL, \"buildsSinceFullSuite\" INTEGER NOT NULL, PRIMARY KEY(\"repo\"))";
+
+	private static final String TEST_DURATIONS_TABLE =
+		"CREATE TABLE IF NOT EXISTS \"testDurations\" (\"repo\" TEXT NOT NULL, \"testClass\" TEXT NOT NULL, \"duration\" REAL NOT NULL, PRIMARY KEY(\"repo\", \"testClass\"))";
+	private static final String TEST_RESULTS_TABLE =
+		"CREATE TABLE IF NOT EXISTS \"testResults\" (\"historyId\" INTEGER NOT NULL, \"className\" TEXT NOT NULL, \"name\" TEXT NOT NULL, \"duration\" REAL NOT NULL, \"outcome\" TEXT NOT NULL, \"failureMessage\" TEXT, FOREIGN KEY(\"historyId\") REFERENCES \"history\"(\"id\"))";
+	private static final String TEST_RESULTS_INDEX =
+		"CREATE INDEX IF NOT EXISTS \"testResultsHistoryId\" ON \"testResults\" (\"historyId\")";
+
+	private static final String PHASE_TIMINGS_TABLE =
+		"CREATE TABLE IF NOT EXISTS \"phaseTimings\" (\"historyId\" INTEGER NOT NULL, \"phase\" TEXT NOT NULL, \"wallMillis\" INTEGER NOT NULL, \"cpuMillis\" INTEGER NOT NULL, FOREIGN KEY(\"historyId\") REFERENCES \"history\"(\"id\"))";
+	private static final String PHASE_TIMINGS_INDEX =
+		"CREATE INDEX IF NOT EXISTS \"phaseTimingsHistoryId\" ON \"phaseTimings\" (\"historyId\")";
+	private static final String TASK_TIMINGS_TABLE =
+		"CREATE TABLE IF NOT EXISTS \"taskTimings\" (\"historyId\" INTEGER NOT NULL, \"taskPath\" TEXT NOT NULL, \"outcome\" TEXT NOT NULL, \"durationMillis\" INTEGER NOT NULL, FOREIGN KEY(\"historyId\") REFERENCES \"history\"(\"id\"))";
+	private static final String TASK_TIMINGS_INDEX =
+		"CREATE INDEX IF NOT EXISTS \"taskTimingsHistoryId\" ON \"taskTimings\" (\"historyId\")";
+
+	private static final int DEFAULT_READERS = 4;
+
 	private final String databaseName;
-	private Connection connection;
+	private final CachedConnection writer;
+	private final BlockingQueue<CachedConnection> readers;
+	private volatile boolean closed = false;
 
 	/**
-	 * Creates a new HistoryDAO object
+	 * Creates a new HistoryDAO object with the default number of read connections
 	 *
 	 * @param databaseName Name of the database file
 	 * @throws SQLException If an error occurs while connecting to the database
 	 */
 	public HistoryDAO(String databaseName) throws SQLException {
+		this(databaseName, DEFAULT_READERS);
+	}
+
+	/**
+	 * Creates a new HistoryDAO object, meant to be shared for as long as the application runs.
+	 * All writes go through a single connection, one at a time, as SQLite only allows one writer.
+	 * Reads are spread over a pool of read connections, which see every committed write
+	 * and do not wait for the writer since the database is kept in write-ahead log mode.
+	 * Each connection keeps its prepared statements for reuse until the DAO is closed.
+	 *
+	 * @param databaseName Name of the database file
+	 * @param readerCount  Number of read connections, at least one is opened
+	 * @throws SQLException If an error occurs while connecting to the database
+	 */
+	public HistoryDAO(String databaseName, int readerCount) throws SQLException {
 		this.databaseName = databaseName;
 
 		// Build the database if it does not exist
 		File databaseFile = new File(databaseName);
-		if (!databaseFile.exists()) {
-
-			connection = getConnection();
-			Statement statement = connection.createStatement();
-
-			statement.addBatch(
-				"CREATE TABLE \"authors\" (\"id\" INTEGER, \"name\" TEXT, \"username\" TEXT, \"email\" TEXT, PRIMARY KEY(\"id\" AUTOINCREMENT))");
-			statement.addBatch(
-				"CREATE TABLE \"commits\" (\"id\" INTEGER, \"sha\" TEXT NOT NULL, \"message\" TEXT, \"authorId\" INTEGER NOT NULL, \"url\" TEXT, \"modifiedFiles\" TEXT, FOREIGN KEY(\"authorId\") REFERENCES \"authors\"(\"id\"), PRIMARY KEY(\"id\" AUTOINCREMENT))");
-			statement.addBatch(
-				"CREATE TABLE \"senders\" (\"id\" INTEGER, \"login\" TEXT, \"url\" TEXT, \"avatarUrl\" TEXT, PRIMARY KEY(\"id\" AUTOINCREMENT))");
-			statement.addBatch(
-				"CREATE TABLE \"history\" (\"id\" INTEGER, \"senderId\" INTEGER NOT NULL, \"buildResult\" INTEGER, \"buildLog\" TEXT, \"totalTests\" INTEGER, \"numOfPassedTests\" INTEGER, \"testLog\" TEXT, \"buildDate\" TEXT, \"branch\" TEXT, PRIMARY KEY(\"id\" AUTOINCREMENT), FOREIGN KEY(\"senderId\") REFERENCES \"senders\"(\"id\"))");
-			statement.addBatch(
-				"CREATE TABLE \"historyCommits\" (\"historyId\" INTEGER NOT NULL, \"commitId\" INTEGER NOT NULL, FOREIGN KEY(\"historyId\") REFERENCES \"history\"(\"id\"), FOREIGN KEY(\"commitId\") REFERENCES \"commits\"(\"id\"))");
-
-			statement.executeBatch();
-		} else {
-			connection = getConnection();
+		boolean exists = databaseFile.exists();
+		writer = new CachedConnection(openConnection());
+		try (Statement statement = writer.connection.createStatement()) {
+			statement.execute("PRAGMA journal_mode=WAL");
+		}
+
+		try (Statement statement = writer.connection.createStatement()) {
+			if (!exists) {
+				statement.addBatch(
+					"CREATE TABLE \"authors\" (\"id\" INTEGER, \"name\" TEXT, \"username\" TEXT, \"email\" TEXT, PRIMARY KEY(\"id\" AUTOINCREMENT))");
+				statement.addBatch(
+					"CREATE TABLE \"commits\" (\"id\" INTEGER, \"sha\" TEXT NOT NULL, \"message\" TEXT, \"authorId\" INTEGER NOT NULL, \"url\" TEXT, \"modifiedFiles\" TEXT, FOREIGN KEY(\"authorId\") REFERENCES \"authors\"(\"id\"), PRIMARY KEY(\"id\" AUTOINCREMENT))");
+				statement.addBatch(
+					"CREATE TABLE \"senders\" (\"id\" INTEGER, \"login\" TEXT, \"url\" TEXT, \"avatarUrl\" TEXT, PRIMARY KEY(\"id\" AUTOINCREMENT))");
+				statement.addBatch(
+					"CREATE TABLE \"history\" (\"id\" INTEGER, \"senderId\" INTEGER NOT NULL, \"buildResult\" INTEGER, \"buildLog\" TEXT, \"totalTests\" INTEGER, \"numOfPassedTests\" INTEGER, \"testLog\" TEXT, \"buildDate\" TEXT, \"branch\" TEXT, \"outcome\" TEXT, \"treeHash\" TEXT, \"repo\" TEXT, PRIMARY KEY(\"id\" AUTOINCREMENT), FOREIGN KEY(\"senderId\") REFERENCES \"senders\"(\"id\"))");
+				statement.addBatch(
+					"CREATE TABLE \"historyCommits\" (\"historyId\" INTEGER NOT NULL, \"commitId\" INTEGER NOT NULL, FOREIGN KEY(\"historyId\") REFERENCES \"history\"(\"id\"), FOREIGN KEY(\"commitId\") REFERENCES \"commits\"(\"id\"))");
+
+				statement.addBatch(
+					"CREATE INDEX \"historyTreeHash\" ON \"history\" (\"treeHash\")");
+				statement.addBatch(HISTORY_COMMITS_INDEX);
+				for (String index : HISTORY_FILTER_INDEXES) {
+					statement.addBatch(index);
+				}
+				statement.addBatch(TEST_DEPENDENCIES_TABLE);
+				statement.addBatch(TEST_DEPENDENCIES_INDEX);
+				statement.addBatch(TEST_SELECTIONS_TABLE);
+				statement.addBatch(TEST_DURATIONS_TABLE);
+				statement.addBatch(TEST_RESULTS_TABLE);
+				statement.addBatch(TEST_RESULTS_INDEX);
+				statement.addBatch(PHASE_TIMINGS_TABLE);
+				statement.addBatch(PHASE_TIMINGS_INDEX);
+				statement.addBatch(TASK_TIMINGS_TABLE);
+				statement.addBatch(TASK_TIMINGS_INDEX);
+
+				statement.executeBatch();
+			} else {
+				// Databases created by older versions lack the columns added since
+				addMissingColumn("history", "outcome", "TEXT");
+				addMissingColumn("history", "treeHash", "TEXT");
+				addMissingColumn("history", "repo", "TEXT");
+				statement.execute(
+					"CREATE INDEX IF NOT EXISTS \"historyTreeHash\" ON \"history\" (\"treeHash\")");
+				statement.execute(HISTORY_COMMITS_INDEX);
+				for (String index : HISTORY_FILTER_INDEXES) {
+					statement.execute(index);
+				}
+				addMissingTable(TEST_DEPENDENCIES_TABLE, TEST_DEPENDENCIES_INDEX);
+				addMissingTable(TEST_SELECTIONS_TABLE);
+				addMissingTable(TEST_DURATIONS_TABLE);
+				addMissingTable(TEST_RESULTS_TABLE, TEST_RESULTS_INDEX);
+				addMissingTable(PHASE_TIMINGS_TABLE, PHASE_TIMINGS_INDEX);
+				addMissingTable(TASK_TIMINGS_TABLE, TASK_TIMINGS_INDEX);
+			}
 		}
 
+		readers = new ArrayBlockingQueue<>(Math.max(readerCount, 1));
+		for (int i = 0; i < Math.max(readerCount, 1); i++) {
+			readers.add(new CachedConnection(openConnection()));
+		}
 	}
 
 	/**
-	 * Gets a connection to the database
+	 * Adds a column to a table unless the table already has it
 	 *
-	 * @return Connection to the database
-	 * @throws SQLException If an error occurs while connecting to the database
+	 * @param table  Name of the table
+	 * @param column Name of the column
+	 * @param type   SQL type of the column
+	 * @throws SQLException If an error occurs while altering the table
 	 */
-	public Connection getConnection() throws SQLException {
+	private void addMissingColumn(String table, String column, String type) throws SQLException {
+		try (Statement statement = writer.connection.createStatement()) {
+			try (ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+				while (resultSet.next()) {
+					if (resultSet.getString("name").equals(column)) {
+						return;
+					}
+				}
+			}
+			statement.execute("ALTER TABLE \"" + table + "\" ADD COLUMN \"" + column + "\" " + type);
+		}
+	}
 
-		if (connection != null && !connection.isClosed())
-			return connection;
+	/**
+	 * Adds a table to the database unless it already exists
+	 *
+	 * @param statements Statements creating the table and its indexes, all using IF NOT EXISTS
+	 * @throws SQLException If an error occurs while creating the table
+	 */
+	private void addMissingTable(String... statements) throws SQLException {
+		try (Statement statement = writer.connection.createStatement()) {
+			for (String sql : statements) {
+				statement.execute(sql);
+			}
+		}
+	}
 
+	/**
+	 * Opens a new connection to the database.
+	 * This function merely exists to allow mock-testing.
+	 *
+	 * @return Connection to the database
+	 * @throws SQLException If an error occurs while connecting to the database
+	 */
+	protected Connection openConnection() throws SQLException {
 		try {
 			Class.forName("org.sqlite.JDBC");
 			return DriverManager.getConnection("jdbc:sqlite:" + databaseName);
@@ -72,12 +215,102 @@ public class HistoryDAO {
 	}
 
 	/**
-	 * Closes the connection to the database
+	 * Gets the connection the database is written through, for tests to set up and inspect the database.
+	 * It is used without taking the write lock, so it must not be used while other threads use the DAO.
 	 *
-	 * @throws SQLException If an error occurs while closing the connection
+	 * @return Connection to the database
+	 */
+	Connection getConnection() {
+		return writer.connection;
+	}
+
+	/**
+	 * Closes the connections to the database and their prepared statements.
+	 * Meant to be called once, when the application stops. Reads and writes started afterwards fail,
+	 * and read connections still in use are closed when their read finishes.
+	 *
+	 * @throws SQLException If an error occurs while closing the connections
 	 */
 	public void closeConnection() throws SQLException {
-		connection.close();
+		closed = true;
+		closeIdleReaders();
+		synchronized (writer) {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Closes the read connections that are not in use
+	 *
+	 * @throws SQLException If an error occurs while closing the connections
+	 */
+	private void closeIdleReaders() throws SQLException {
+		List<CachedConnection> idleReaders = new ArrayList<>();
+		readers.drainTo(idleReaders);
+		for (CachedConnection reader : idleReaders) {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Runs a query on one of the read connections, waiting for one to be free
+	 *
+	 * @param query The query
+	 * @param <T>   Type of the result of the query
+	 * @return The result of the query
+	 * @throws SQLException If an error occurs while running the query
+	 */
+	private <T> T read(Query<T> query) throws SQLException {
+		CachedConnection reader = null;
+		try {
+			// Connections returned after the DAO is closed are not put back, so the wait must end on close
+			while (reader == null) {
+				if (closed) {
+					throw new SQLException("The history database is closed");
+				}
+				reader = readers.poll(100, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", e);
+		}
+		try {
+			return query.run(reader);
+		} finally {
+			readers.add(reader);
+			if (closed) {
+				closeIdleReaders();
+			}
+		}
+	}
+
+	/**
+	 * Runs an update on the write connection in a single transaction, which is rolled back if the update fails
+	 *
+	 * @param update The update
+	 * @param <T>    Type of the result of the update
+	 * @return The result of the update
+	 * @throws SQLException If an error occurs while running the update
+	 */
+	private <T> T write(Query<T> update) throws SQLException {
+		synchronized (writer) {
+			if (closed) {
+				throw new SQLException("The history database is closed");
+			}
+			Connection connection = writer.connection;
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try {
+				T result = update.run(writer);
+				connection.commit();
+				return result;
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
 	}
 
 	/**
@@ -88,27 +321,36 @@ public class HistoryDAO {
 	 * @throws SQLException If an error occurs while adding the author
 	 */
 	public int addAuthor(Author author) throws SQLException {
+		return write(connection -> addAuthor(connection, author));
+	}
+
+	/**
+	 * Adds an author to the database unless it already exists
+	 *
+	 * @param connection The write connection
+	 * @param author     Author to add
+	 * @return ID of the author
+	 * @throws SQLException If an error occurs while adding the author
+	 */
+	private int addAuthor(CachedConnection connection, Author author) throws SQLException {
 		// Check if the author already exists
-		PreparedStatement getStatement = connection.prepareStatement("SELECT id FROM authors WHERE email = ?");
+		PreparedStatement getStatement = connection.prepare("SELECT id FROM authors WHERE email = ?");
 		getStatement.setString(1, author.email());
-		ResultSet resultSet = getStatement.executeQuery();
-		if (resultSet.next()) {
-			;
-			return resultSet.getInt("id");
+		try (ResultSet resultSet = getStatement.executeQuery()) {
+			if (resultSet.next()) {
+				return resultSet.getInt("id");
+			}
 		}
 
 		// Insert the author
 		PreparedStatement insertStatement = connection
-			.prepareStatement("INSERT INTO authors (name, username, email) VALUES (?, ?, ?)");
+			.prepare("INSERT INTO authors (name, username, email) VALUES (?, ?, ?)");
 		insertStatement.setString(1, author.name());
 		insertStatement.setString(2, author.userName());
 		insertStatement.setString(3, author.email());
 		insertStatement.execute();
 
-		resultSet = insertStatement.getGeneratedKeys();
-		int id = resultSet.getInt(1);
-		;
-		return id;
+		return getGeneratedId(insertStatement);
 	}
 
 	/**
@@ -119,28 +361,36 @@ public class HistoryDAO {
 	 * @throws SQLException If an error occurs while adding the sender
 	 */
 	public int addSender(Sender sender) throws SQLException {
+		return write(connection -> addSender(connection, sender));
+	}
 
+	/**
+	 * Adds a sender to the database unless it already exists
+	 *
+	 * @param connection The write connection
+	 * @param sender     Sender to add
+	 * @return ID of the sender
+	 * @throws SQLException If an error occurs while adding the sender
+	 */
+	private int addSender(CachedConnection connection, Sender sender) throws SQLException {
 		// Check if the sender already exists
-		PreparedStatement getStatement = connection.prepareStatement("SELECT id FROM senders WHERE login = ?");
+		PreparedStatement getStatement = connection.prepare("SELECT id FROM senders WHERE login = ?");
 		getStatement.setString(1, sender.name());
-		ResultSet resultSet = getStatement.executeQuery();
-		if (resultSet.next()) {
-			;
-			return resultSet.getInt("id");
+		try (ResultSet resultSet = getStatement.executeQuery()) {
+			if (resultSet.next()) {
+				return resultSet.getInt("id");
+			}
 		}
 
 		// Insert the sender
 		PreparedStatement insertStatement = connection
-			.prepareStatement("INSERT INTO senders (login, url, avatarUrl) VALUES (?, ?, ?)");
+			.prepare("INSERT INTO senders (login, url, avatarUrl) VALUES (?, ?, ?)");
 		insertStatement.setString(1, sender.name());
 		insertStatement.setString(2, sender.url());
 		insertStatement.setString(3, sender.avatarUrl());
 		insertStatement.execute();
 
-		resultSet = insertStatement.getGeneratedKeys();
-		int id = resultSet.getInt(1);
-		;
-		return id;
+		return getGeneratedId(insertStatement);
 	}
 
 	/**
@@ -151,21 +401,32 @@ public class HistoryDAO {
 	 * @throws SQLException If an error occurs while adding the commit
 	 */
 	public int addCommit(Commit commit) throws SQLException {
+		return write(connection -> addCommit(connection, commit));
+	}
 
+	/**
+	 * Adds a commit and its author to the database unless it already exists
+	 *
+	 * @param connection The write connection
+	 * @param commit     Commit to add
+	 * @return ID of the commit
+	 * @throws SQLException If an error occurs while adding the commit
+	 */
+	private int addCommit(CachedConnection connection, Commit commit) throws SQLException {
 		// Check if the commit already exists
-		PreparedStatement getStatement = connection.prepareStatement("SELECT id FROM commits WHERE sha = ?");
+		PreparedStatement getStatement = connection.prepare("SELECT id FROM commits WHERE sha = ?");
 		getStatement.setString(1, commit.sha());
-		ResultSet resultSet = getStatement.executeQuery();
-		if (resultSet.next()) {
-			;
-			return resultSet.getInt("id");
+		try (ResultSet resultSet = getStatement.executeQuery()) {
+			if (resultSet.next()) {
+				return resultSet.getInt("id");
+			}
 		}
 
 		// Insert the commit
-		int authorId = addAuthor(commit.author());
+		int authorId = addAuthor(connection, commit.author());
 		String modifiedFiles = String.join(",", commit.modifiedFiles());
 
-		PreparedStatement insertStatement = connection.prepareStatement(
+		PreparedStatement insertStatement = connection.prepare(
 			"INSERT INTO commits (sha, message, authorId, url, modifiedFiles) VALUES (?, ?, ?, ?, ?)");
 		insertStatement.setString(1, commit.sha());
 		insertStatement.setString(2, commit.message());
@@ -174,54 +435,67 @@ public class HistoryDAO {
 		insertStatement.setString(5, modifiedFiles);
 		insertStatement.execute();
 
-		resultSet = insertStatement.getGeneratedKeys();
-		int id = resultSet.getInt(1);
-		;
-		return id;
+		return getGeneratedId(insertStatement);
 	}
 
 	/**
-	 * Adds a history to the database
+	 * Adds a history to the database, with its sender and commits, in a single transaction
 	 *
 	 * @param buildInfo Build information to add
 	 * @return ID of the history
 	 * @throws SQLException If an error occurs while adding the history
 	 */
 	public int addHistory(BuildInfo buildInfo) throws SQLException {
+		return write(connection -> {
+			// Add sender and commits to the database
+			int senderId = addSender(connection, buildInfo.getSender());
+			List<Integer> commitIds = new ArrayList<>();
+			for (Commit commit : buildInfo.getCommitList()) {
+				commitIds.add(addCommit(connection, commit));
+			}
 
-		// Add sender and commits to the database
-		int senderId = addSender(buildInfo.getSender());
-		List<Integer> commitIds = new ArrayList<>();
-		for (Commit commit : buildInfo.getCommitList()) {
-			commitIds.add(addCommit(commit));
-		}
+			// Insert the history
+			PreparedStatement insertStatement = connection.prepare(
+				"INSERT INTO history (senderId, buildResult, buildLog, totalTests, numOfPassedTests, testLog, buildDate, branch, outcome, treeHash, repo) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			insertStatement.setInt(1, senderId);
+			insertStatement.setInt(2, buildInfo.getBuildDetails().buildResult());
+			insertStatement.setString(3, buildInfo.getBuildDetails().buildLog());
+			insertStatement.setInt(4, buildInfo.getTestDetails().totalTests());
+			insertStatement.setInt(5, buildInfo.getTestDetails().numOfPassedTests());
+			insertStatement.setString(6, buildInfo.getTestDetails().testLog());
+			insertStatement.setString(7, buildInfo.getBuildDate());
+			insertStatement.setString(8, buildInfo.getBranch());
+			insertStatement.setString(9, buildInfo.getOutcome().name());
+			insertStatement.setString(10, buildInfo.getTreeHash());
+			insertStatement.setString(11, buildInfo.getRepo());
+			insertStatement.execute();
+			int historyId = getGeneratedId(insertStatement);
 
-		// Insert the history
-		PreparedStatement insertStatement = connection.prepareStatement(
-			"INSERT INTO history (senderId, buildResult, buildLog, totalTests, numOfPassedTests, testLog, buildDate, branch) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
-		insertStatement.setInt(1, senderId);
-		insertStatement.setInt(2, buildInfo.getBuildDetails().buildResult());
-		insertStatement.setString(3, buildInfo.getBuildDetails().buildLog());
-		insertStatement.setInt(4, buildInfo.getTestDetails().totalTests());
-		insertStatement.setInt(5, buildInfo.getTestDetails().numOfPassedTests());
-		insertStatement.setString(6, buildInfo.getTestDetails().testLog());
-		insertStatement.setString(7, buildInfo.getBuildDate());
-		insertStatement.setString(8, buildInfo.getBranch());
-		insertStatement.execute();
+			// Connect the history and commits
+			PreparedStatement insertHistoryCommits = connection
+				.prepare("INSERT INTO historyCommits (historyId, commitId) VALUES (?, ?)");
+			for (int commitId : commitIds) {
+				insertHistoryCommits.setInt(1, historyId);
+				insertHistoryCommits.setInt(2, commitId);
+				insertHistoryCommits.addBatch();
+			}
+			insertHistoryCommits.executeBatch();
 
-		ResultSet resultSet = insertStatement.getGeneratedKeys();
-		int historyId = resultSet.getInt(1);
+			return historyId;
+		});
+	}
 
-		// Connect the history and commits
-		for (int commitId : commitIds) {
-			PreparedStatement insertHistoryCommits = connection
-				.prepareStatement("INSERT INTO historyCommits (historyId, commitId) VALUES (?, ?)");
-			insertHistoryCommits.setInt(1, historyId);
-			insertHistoryCommits.setInt(2, commitId);
-			insertHistoryCommits.execute();
+	/**
+	 * Gets the ID of the row inserted by a statement
+	 *
+	 * @param insertStatement The statement that inserted the row
+	 * @return ID of the row
+	 * @throws SQLException If an error occurs while getting the ID
+	 */
+	private static int getGeneratedId(PreparedStatement insertStatement) throws SQLException {
+		try (ResultSet resultSet = insertStatement.getGeneratedKeys()) {
+			return resultSet.getInt(1);
 		}
-
-		return historyId;
 	}
 
 	/**
@@ -232,17 +506,19 @@ public class HistoryDAO {
 	 * @throws SQLException If an error occurs while getting the author
 	 */
 	public Author getAuthor(int id) throws SQLException {
-		PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM authors WHERE id=?");
-		preparedStatement.setInt(1, id);
-		ResultSet resultSet = preparedStatement.executeQuery();
-
-		if (resultSet.next()) {
-			return new Author(resultSet.getString("name"),
-				resultSet.getString("username"),
-				resultSet.getString("email"));
-		}
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare("SELECT * FROM authors WHERE id=?");
+			preparedStatement.setInt(1, id);
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				if (resultSet.next()) {
+					return new Author(resultSet.getString("name"),
+						resultSet.getString("username"),
+						resultSet.getString("email"));
+				}
+			}
 
-		return null;
+			return null;
+		});
 	}
 
 	/**
@@ -253,24 +529,50 @@ public class HistoryDAO {
 	 * @throws SQLException If an error occurs while getting the commits
 	 */
 	public List<Commit> getCommitsForHistory(int historyId) throws SQLException {
-		PreparedStatement preparedStatement = connection.prepareStatement(
-			"SELECT id, sha, message, authorId, url, modifiedFiles FROM commits JOIN historyCommits ON id = commitId WHERE historyId = ?");
+		return read(connection -> getCommitsForHistory(connection, historyId));
+	}
+
+	/**
+	 * Gets the commits associated with a history, with their authors, in one query
+	 *
+	 * @param connection The read connection
+	 * @param historyId  ID of the history
+	 * @return List of commits associated to the history
+	 * @throws SQLException If an error occurs while getting the commits
+	 */
+	private List<Commit> getCommitsForHistory(CachedConnection connection, int historyId) throws SQLException {
+		PreparedStatement preparedStatement = connection.prepare(
+			COMMITS_QUERY + " WHERE historyCommits.historyId = ? ORDER BY historyCommits.rowid");
 		preparedStatement.setInt(1, historyId);
-		ResultSet resultSet = preparedStatement.executeQuery();
 
-		List<Commit> commits = new ArrayList<Commit>();
+		try (ResultSet resultSet = preparedStatement.executeQuery()) {
+			return readCommits(resultSet).getOrDefault(historyId, new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Reads the commits of a query on {@link HistoryDAO#COMMITS_QUERY}
+	 *
+	 * @param resultSet Result of the query
+	 * @return List of commits of each history, in the order of the result
+	 * @throws SQLException If an error occurs while reading the result
+	 */
+	private Map<Integer, List<Commit>> readCommits(ResultSet resultSet) throws SQLException {
+		Map<Integer, List<Commit>> commits = new HashMap<>();
 		while (resultSet.next()) {
-			Author author = getAuthor(resultSet.getInt("authorId"));
+			Author author = resultSet.getObject("authorRowId") == null ? null
+				: new Author(resultSet.getString("name"),
+				resultSet.getString("username"),
+				resultSet.getString("email"));
 			String[] modifiedFiles = resultSet.getString("modifiedFiles").split(",");
 
-			commits.add(new Commit(resultSet.getString("sha"),
-				resultSet.getString("message"),
-				author,
-				resultSet.getString("url"),
-				modifiedFiles));
-
+			commits.computeIfAbsent(resultSet.getInt("historyId"), id -> new ArrayList<>())
+				.add(new Commit(resultSet.getString("sha"),
+					resultSet.getString("message"),
+					author,
+					resultSet.getString("url"),
+					modifiedFiles));
 		}
-
 		return commits;
 	}
 
@@ -282,54 +584,137 @@ public class HistoryDAO {
 	 * @throws SQLException If an error occurs while getting the sender
 	 */
 	public Sender getSender(int id) throws SQLException {
-		PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM senders WHERE id=?");
-		preparedStatement.setInt(1, id);
-		ResultSet resultSet = preparedStatement.executeQuery();
-
-		if (resultSet.next()) {
-			return new Sender(resultSet.getString("login"),
-				resultSet.getString("url"),
-				resultSet.getString("avatarUrl"));
-		}
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare("SELECT * FROM senders WHERE id=?");
+			preparedStatement.setInt(1, id);
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				if (resultSet.next()) {
+					return new Sender(resultSet.getString("login"),
+						resultSet.getString("url"),
+						resultSet.getString("avatarUrl"));
+				}
+			}
 
-		return null;
+			return null;
+		});
 	}
 
 	/**
-	 * Gets all history from the database
+	 * Gets a page of summaries of the builds matching a filter, without reading senders, commits or logs.
+	 * The page holds the newest builds older than a given build, so that each page is found through
+	 * the primary key and the filter indexes, however many builds there are.
 	 *
-	 * @return List of BuildInfo objects
-	 * @throws SQLException If an error occurs while getting the history
+	 * @param filter   Filter on the builds
+	 * @param beforeId ID of the build to start after, {@link Integer#MAX_VALUE} for the newest builds
+	 * @param limit    Maximum number of builds on the page
+	 * @return Summary of each build, newest first
+	 * @throws SQLException If an error occurs while getting the summaries
 	 */
-	public List<BuildInfo> getAllHistory() throws SQLException {
+	public List<BuildSummary> getBuildSummaries(BuildFilter filter, int beforeId, int limit) throws SQLException {
+		return getBuildSummaries(filter, "id < ?", beforeId, "DESC", limit);
+	}
 
-		List<BuildInfo> history = new ArrayList<>();
+	/**
+	 * Gets a page of summaries of the builds matching a filter that are newer than a given build,
+	 * the page before the one starting at that build.
+	 *
+	 * @param filter  Filter on the builds
+	 * @param afterId ID of the build to start after
+	 * @param limit   Maximum number of builds on the page
+	 * @return Summary of the oldest builds newer than the given build, newest first
+	 * @throws SQLException If an error occurs while getting the summaries
+	 */
+	public List<BuildSummary> getNewerBuildSummaries(BuildFilter filter, int afterId, int limit) throws SQLException {
+		List<BuildSummary> summaries = getBuildSummaries(filter, "id > ?", afterId, "ASC", limit);
+		Collections.reverse(summaries);
+		return summaries;
+	}
+
+	/**
+	 * Gets summaries of the builds matching a filter and a condition on their IDs, in the order of their IDs
+	 *
+	 * @param filter      Filter on the builds
+	 * @param idCondition Condition on the ID of the builds, with one parameter
+	 * @param id          Value of the parameter of the condition
+	 * @param order       ASC or DESC
+	 * @param limit       Maximum number of builds
+	 * @return Summary of each build
+	 * @throws SQLException If an error occurs while getting the summaries
+	 */
+	private List<BuildSummary> getBuildSummaries(BuildFilter filter, String idCondition, int id, String order,
+			int limit) throws SQLException {
+		StringBuilder query = new StringBuilder(SUMMARY_QUERY + " WHERE " + idCondition);
+		List<Object> parameters = new ArrayList<>();
+		parameters.add(id);
+		if (filter.branch() != null) {
+			query.append(" AND branch = ?");
+			parameters.add(filter.branch());
+		}
+		if (filter.outcome() != null) {
+			// Rows stored before outcomes were recorded are builds
+			query.append(filter.outcome() == BuildOutcome.built
+				? " AND (outcome = ? OR outcome IS NULL)"
+				: " AND outcome = ?");
+			parameters.add(filter.outcome().name());
+		}
+		if (filter.sender() != null) {
+			query.append(" AND senderId IN (SELECT id FROM senders WHERE login = ?)");
+			parameters.add(filter.sender());
+		}
+		if (filter.fromDate() != null) {
+			query.append(" AND buildDate >= ?");
+			parameters.add(filter.fromDate());
+		}
+		if (filter.toDate() != null) {
+			query.append(" AND buildDate < ?");
+			parameters.add(filter.toDate());
+		}
+		query.append(" ORDER BY id ").append(order).append(" LIMIT ?");
+		parameters.add(limit);
 
-		Statement statement = connection.createStatement();
-		ResultSet resultSet = statement.executeQuery(
-			"SELECT * FROM history");
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(query.toString());
+			for (int i = 0; i < parameters.size(); i++) {
+				preparedStatement.setObject(i + 1, parameters.get(i));
+			}
 
-		while (resultSet.next()) {
-			int historyId = resultSet.getInt("id");
-			int senderId = resultSet.getInt("senderId");
-			int buildResult = resultSet.getInt("buildResult");
-			String buildLog = resultSet.getString("buildLog");
-			int totalTests = resultSet.getInt("totalTests");
-			int numOfPassedTests = resultSet.getInt("numOfPassedTests");
-			String testLog = resultSet.getString("testLog");
-			String buildDate = resultSet.getString("buildDate");
-			String branch = resultSet.getString("branch");
-			Sender sender = getSender(senderId);
-			List<Commit> commits = getCommitsForHistory(historyId);
-
-			history.add(new BuildInfo(historyId, sender, commits,
-				new BuildInfo.BuildDetails(buildResult, buildLog),
-				new BuildInfo.TestDetails(totalTests, numOfPassedTests, testLog),
-				buildDate, branch));
+			List<BuildSummary> summaries = new ArrayList<>();
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					summaries.add(new BuildSummary(resultSet.getInt("id"),
+						resultSet.getString("branch"),
+						resultSet.getInt("buildResult"),
+						getOutcome(resultSet),
+						resultSet.getString("buildDate")));
+				}
+			}
+			return summaries;
+		});
+	}
 
-		}
+	/**
+	 * Reads a build from a query on {@link HistoryDAO#HISTORY_QUERY}
+	 *
+	 * @param resultSet Result of the query, at the row of the build
+	 * @param commits   Commits of the build
+	 * @return BuildInfo object
+	 * @throws SQLException If an error occurs while reading the result
+	 */
+	private BuildInfo readHistory(ResultSet resultSet, List<Commit> commits) throws SQLException {
+		Sender sender = resultSet.getObject("senderRowId") == null ? null
+			: new Sender(resultSet.getString("login"),
+			resultSet.getString("senderUrl"),
+			resultSet.getString("avatarUrl"));
 
-		return history;
+		BuildInfo buildInfo = new BuildInfo(resultSet.getInt("id"), sender, commits,
+			new BuildInfo.BuildDetails(resultSet.getInt("buildResult"), resultSet.getString("buildLog")),
+			new BuildInfo.TestDetails(resultSet.getInt("totalTests"), resultSet.getInt("numOfPassedTests"),
+				resultSet.getString("testLog")),
+			resultSet.getString("buildDate"), resultSet.getString("branch"));
+		buildInfo.setOutcome(getOutcome(resultSet));
+		buildInfo.setTreeHash(resultSet.getString("treeHash"));
+		buildInfo.setRepo(resultSet.getString("repo"));
+		return buildInfo;
 	}
 
 	/**
@@ -340,31 +725,487 @@ public class HistoryDAO {
 	 * @throws SQLException If an error occurs while getting the history
 	 */
 	public BuildInfo getHistory(int id) throws SQLException {
-		PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM history WHERE id=?");
-		preparedStatement.setInt(1, id);
-		ResultSet resultSet = preparedStatement.executeQuery();
-
-		if (resultSet.next()) {
-			int historyId = resultSet.getInt("id");
-			int senderId = resultSet.getInt("senderId");
-			int buildResult = resultSet.getInt("buildResult");
-			String buildLog = resultSet.getString("buildLog");
-			int totalTests = resultSet.getInt("totalTests");
-			int numOfPassedTests = resultSet.getInt("numOfPassedTests");
-			String testLog = resultSet.getString("testLog");
-			String buildDate = resultSet.getString("buildDate");
-			String branch = resultSet.getString("branch");
-
-			Sender sender = getSender(senderId);
-			List<Commit> commits = getCommitsForHistory(historyId);
-
-			return new BuildInfo(historyId, sender, commits,
-				new BuildInfo.BuildDetails(buildResult, buildLog),
-				new BuildInfo.TestDetails(totalTests, numOfPassedTests, testLog),
-				buildDate, branch);
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(HISTORY_QUERY + " WHERE history.id = ?");
+			preparedStatement.setInt(1, id);
+
+			BuildInfo buildInfo;
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				if (!resultSet.next()) {
+					return null;
+				}
+				buildInfo = readHistory(resultSet, getCommitsForHistory(connection, id));
+			}
+			buildInfo.setPhaseTimings(getPhaseTimings(connection, id));
+			buildInfo.setTaskTimings(getTaskTimings(connection, id));
+			return buildInfo;
+		});
+	}
+
+	/**
+	 * Gets the classes each test class of a repository referenced when it was last built
+	 *
+	 * @param repo Full name of the repository (owner + repo)
+	 * @return Names of the referenced classes of each test class
+	 * @throws SQLException If an error occurs while getting the dependencies
+	 */
+	public Map<String, Set<String>> getTestDependencies(String repo) throws SQLException {
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"SELECT testClass, dependency FROM testDependencies WHERE repo = ?");
+			preparedStatement.setString(1, repo);
+
+			Map<String, Set<String>> testDependencies = new HashMap<>();
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					testDependencies.computeIfAbsent(resultSet.getString("testClass"), key -> new HashSet<>())
+						.add(resultSet.getString("dependency"));
+				}
+			}
+			return testDependencies;
+		});
+	}
+
+	/**
+	 * Gets the number of builds of a repository that ran a selection of the tests since the full suite last ran
+	 *
+	 * @param repo Full name of the repository (owner + repo)
+	 * @return Number of builds, 0 if no build of the repository was recorded
+	 * @throws SQLException If an error occurs while getting the number
+	 */
+	public int getBuildsSinceFullSuite(String repo) throws SQLException {
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"SELECT buildsSinceFullSuite FROM testSelections WHERE repo = ?");
+			preparedStatement.setString(1, repo);
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				return resultSet.next() ? resultSet.getInt("buildsSinceFullSuite") : 0;
+			}
+		});
+	}
+
+	/**
+	 * Records the dependencies of the test classes of a build of a repository.
+	 * After a full suite run they replace all recorded dependencies of the repository, so that test classes
+	 * deleted since are dropped, and the count of builds since the full suite ran is reset.
+	 * Otherwise they replace those of the given test classes only, and the build is counted.
+	 *
+	 * @param repo             Full name of the repository (owner + repo)
+	 * @param testDependencies Names of the referenced classes of each test class
+	 * @param fullSuite        true if the build ran the full suite, false if it ran a selection of the tests
+	 * @throws SQLException If an error occurs while storing the dependencies
+	 */
+	public void setTestDependencies(String repo, Map<String, Set<String>> testDependencies, boolean fullSuite)
+		throws SQLException {
+		write(connection -> {
+			if (fullSuite) {
+				PreparedStatement deleteStatement = connection.prepare(
+					"DELETE FROM testDependencies WHERE repo = ?");
+				deleteStatement.setString(1, repo);
+				deleteStatement.executeUpdate();
+			} else {
+				PreparedStatement deleteStatement = connection.prepare(
+					"DELETE FROM testDependencies WHERE repo = ? AND testClass = ?");
+				for (String testClass : testDependencies.keySet()) {
+					deleteStatement.setString(1, repo);
+					deleteStatement.setString(2, testClass);
+					deleteStatement.addBatch();
+				}
+				deleteStatement.executeBatch();
+			}
+			PreparedStatement insertStatement = connection.prepare(
+				"INSERT INTO testDependencies (repo, testClass, dependency) VALUES (?, ?, ?)");
+			for (Map.Entry<String, Set<String>> entry : testDependencies.entrySet()) {
+				for (String dependency : entry.getValue()) {
+					insertStatement.setString(1, repo);
+					insertStatement.setString(2, entry.getKey());
+					insertStatement.setString(3, dependency);
+					insertStatement.addBatch();
+				}
+			}
+			insertStatement.executeBatch();
+
+			PreparedStatement countStatement = connection.prepare(
+				"INSERT INTO testSelections (repo, buildsSinceFullSuite) VALUES (?, ?) ON CONFLICT (repo) DO UPDATE SET "
+					+ "buildsSinceFullSuite = CASE WHEN excluded.buildsSinceFullSuite = 0 THEN 0 ELSE buildsSinceFullSuite + 1 END");
+			countStatement.setString(1, repo);
+			countStatement.setInt(2, fullSuite ? 0 : 1);
+			countStatement.executeUpdate();
+			return null;
+		});
+	}
+
+	/**
+	 * Stores the results of the single tests of a build
+	 *
+	 * @param historyId   ID of the history of the build
+	 * @param testResults Results of the tests that were run
+	 * @throws SQLException If an error occurs while storing the results
+	 */
+	public void addTestResults(int historyId, List<TestResult> testResults) throws SQLException {
+		write(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"INSERT INTO testResults (historyId, className, name, duration, outcome, failureMessage) VALUES (?, ?, ?, ?, ?, ?)");
+			for (TestResult testResult : testResults) {
+				preparedStatement.setInt(1, historyId);
+				preparedStatement.setString(2, testResult.className());
+				preparedStatement.setString(3, testResult.name());
+				preparedStatement.setDouble(4, testResult.duration());
+				preparedStatement.setString(5, testResult.outcome().name());
+				preparedStatement.setString(6, testResult.failureMessage());
+				preparedStatement.addBatch();
+			}
+			preparedStatement.executeBatch();
+			return null;
+		});
+	}
+
+	/**
+	 * Gets the results of the single tests of a build
+	 *
+	 * @param historyId ID of the history of the build
+	 * @return Results of the tests that were run, empty if none were recorded
+	 * @throws SQLException If an error occurs while getting the results
+	 */
+	public List<TestResult> getTestResults(int historyId) throws SQLException {
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"SELECT className, name, duration, outcome, failureMessage FROM testResults WHERE historyId = ? ORDER BY rowid");
+			preparedStatement.setInt(1, historyId);
+
+			List<TestResult> testResults = new ArrayList<>();
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					testResults.add(new TestResult(resultSet.getString("className"),
+						resultSet.getString("name"),
+						resultSet.getDouble("duration"),
+						TestOutcome.valueOf(resultSet.getString("outcome")),
+						resultSet.getString("failureMessage")));
+				}
+			}
+			return testResults;
+		});
+	}
+
+	/**
+	 * Stores the time spent in each phase of a build
+	 *
+	 * @param historyId    ID of the history of the build
+	 * @param phaseTimings Time spent in each phase, in the order the phases started
+	 * @throws SQLException If an error occurs while storing the timings
+	 */
+	public void addPhaseTimings(int historyId, List<PhaseTiming> phaseTimings) throws SQLException {
+		write(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"INSERT INTO phaseTimings (historyId, phase, wallMillis, cpuMillis) VALUES (?, ?, ?, ?)");
+			for (PhaseTiming phaseTiming : phaseTimings) {
+				preparedStatement.setInt(1, historyId);
+				preparedStatement.setString(2, phaseTiming.phase());
+				preparedStatement.setLong(3, phaseTiming.wallMillis());
+				preparedStatement.setLong(4, phaseTiming.cpuMillis());
+				preparedStatement.addBatch();
+			}
+			preparedStatement.executeBatch();
+			return null;
+		});
+	}
+
+	/**
+	 * Gets the time spent in each phase of a build
+	 *
+	 * @param historyId ID of the history of the build
+	 * @return Time spent in each phase, in the order the phases started, empty if none were recorded
+	 * @throws SQLException If an error occurs while getting the timings
+	 */
+	public List<PhaseTiming> getPhaseTimings(int historyId) throws SQLException {
+		return read(connection -> getPhaseTimings(connection, historyId));
+	}
+
+	/**
+	 * Gets the time spent in each phase of a build
+	 *
+	 * @param connection The read connection
+	 * @param historyId  ID of the history of the build
+	 * @return Time spent in each phase, in the order the phases started
+	 * @throws SQLException If an error occurs while getting the timings
+	 */
+	private List<PhaseTiming> getPhaseTimings(CachedConnection connection, int historyId) throws SQLException {
+		PreparedStatement preparedStatement = connection.prepare(
+			"SELECT phase, wallMillis, cpuMillis FROM phaseTimings WHERE historyId = ? ORDER BY rowid");
+		preparedStatement.setInt(1, historyId);
+
+		List<PhaseTiming> phaseTimings = new ArrayList<>();
+		try (ResultSet resultSet = preparedStatement.executeQuery()) {
+			while (resultSet.next()) {
+				phaseTimings.add(new PhaseTiming(resultSet.getString("phase"),
+					resultSet.getLong("wallMillis"),
+					resultSet.getLong("cpuMillis")));
+			}
 		}
+		return phaseTimings;
+	}
 
-		return null;
+	/**
+	 * Stores the outcome and duration of the gradle tasks of a build
+	 *
+	 * @param historyId   ID of the history of the build
+	 * @param taskTimings Time spent in each task, in the order the tasks finished
+	 * @throws SQLException If an error occurs while storing the timings
+	 */
+	public void addTaskTimings(int historyId, List<TaskTiming> taskTimings) throws SQLException {
+		write(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"INSERT INTO taskTimings (historyId, taskPath, outcome, durationMillis) VALUES (?, ?, ?, ?)");
+			for (TaskTiming taskTiming : taskTimings) {
+				preparedStatement.setInt(1, historyId);
+				preparedStatement.setString(2, taskTiming.taskPath());
+				preparedStatement.setString(3, taskTiming.outcome().name());
+				preparedStatement.setLong(4, taskTiming.durationMillis());
+				preparedStatement.addBatch();
+			}
+			preparedStatement.executeBatch();
+			return null;
+		});
+	}
+
+	/**
+	 * Gets the outcome and duration of the gradle tasks of a build
+	 *
+	 * @param historyId ID of the history of the build
+	 * @return Time spent in each task, in the order the tasks finished, empty if none were recorded
+	 * @throws SQLException If an error occurs while getting the timings
+	 */
+	public List<TaskTiming> getTaskTimings(int historyId) throws SQLException {
+		return read(connection -> getTaskTimings(connection, historyId));
+	}
+
+	/**
+	 * Gets the outcome and duration of the gradle tasks of a build
+	 *
+	 * @param connection The read connection
+	 * @param historyId  ID of the history of the build
+	 * @return Time spent in each task, in the order the tasks finished
+	 * @throws SQLException If an error occurs while getting the timings
+	 */
+	private List<TaskTiming> getTaskTimings(CachedConnection connection, int historyId) throws SQLException {
+		PreparedStatement preparedStatement = connection.prepare(
+			"SELECT taskPath, outcome, durationMillis FROM taskTimings WHERE historyId = ? ORDER BY rowid");
+		preparedStatement.setInt(1, historyId);
+
+		List<TaskTiming> taskTimings = new ArrayList<>();
+		try (ResultSet resultSet = preparedStatement.executeQuery()) {
+			while (resultSet.next()) {
+				taskTimings.add(new TaskTiming(resultSet.getString("taskPath"),
+					TaskOutcome.valueOf(resultSet.getString("outcome")),
+					resultSet.getLong("durationMillis")));
+			}
+		}
+		return taskTimings;
+	}
+
+	/**
+	 * Gets the outcomes of each test in the latest builds of a branch or git tree of a repository.
+	 * Only builds that ran the tests count, not those that were superseded, cached, timed out or failed
+	 * because of the infrastructure.
+	 *
+	 * @param repo     Full name of the repository (owner + repo)
+	 * @param branch   Branch of the builds
+	 * @param treeHash Hash of the git tree of the builds, or null to only use the branch
+	 * @param builds   Number of latest builds to get the outcomes of
+	 * @return Outcomes of each test, oldest first
+	 * @throws SQLException If an error occurs while getting the outcomes
+	 */
+	public Map<TestId, List<TestOutcome>> getTestOutcomes(String repo, String branch, String treeHash, int builds)
+		throws SQLException {
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"SELECT className, name, outcome FROM testResults WHERE historyId IN "
+					+ "(SELECT id FROM history WHERE repo = ? AND (branch = ? OR treeHash = ?) "
+					+ "AND (outcome IS NULL OR outcome = ?) ORDER BY id DESC LIMIT ?) "
+					+ "ORDER BY historyId, rowid");
+			preparedStatement.setString(1, repo);
+			preparedStatement.setString(2, branch);
+			preparedStatement.setString(3, treeHash);
+			preparedStatement.setString(4, BuildOutcome.built.name());
+			preparedStatement.setInt(5, builds);
+
+			Map<TestId, List<TestOutcome>> testOutcomes = new HashMap<>();
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					testOutcomes.computeIfAbsent(new TestId(resultSet.getString("className"), resultSet.getString("name")),
+							key -> new ArrayList<>())
+						.add(TestOutcome.valueOf(resultSet.getString("outcome")));
+				}
+			}
+			return testOutcomes;
+		});
+	}
+
+	/**
+	 * Gets how long each test class of a repository takes to run
+	 *
+	 * @param repo Full name of the repository (owner + repo)
+	 * @return Duration in seconds of each test class
+	 * @throws SQLException If an error occurs while getting the durations
+	 */
+	public Map<String, Double> getTestDurations(String repo) throws SQLException {
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"SELECT testClass, duration FROM testDurations WHERE repo = ?");
+			preparedStatement.setString(1, repo);
+
+			Map<String, Double> testDurations = new HashMap<>();
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					testDurations.put(resultSet.getString("testClass"), resultSet.getDouble("duration"));
+				}
+			}
+			return testDurations;
+		});
+	}
+
+	/**
+	 * Records how long the given test classes of a repository took to run.
+	 * The stored duration is averaged with the previous one, to even out noisy runs.
+	 *
+	 * @param repo          Full name of the repository (owner + repo)
+	 * @param testDurations Duration in seconds of each test class
+	 * @throws SQLException If an error occurs while storing the durations
+	 */
+	public void setTestDurations(String repo, Map<String, Double> testDurations) throws SQLException {
+		write(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"INSERT INTO testDurations (repo, testClass, duration) VALUES (?, ?, ?) "
+					+ "ON CONFLICT (repo, testClass) DO UPDATE SET duration = (duration + excluded.duration) / 2");
+			for (Map.Entry<String, Double> entry : testDurations.entrySet()) {
+				preparedStatement.setString(1, repo);
+				preparedStatement.setString(2, entry.getKey());
+				preparedStatement.setDouble(3, entry.getValue());
+				preparedStatement.addBatch();
+			}
+			preparedStatement.executeBatch();
+			return null;
+		});
+	}
+
+	/**
+	 * Gets the id of the latest build of a git tree of a repository that has a conclusive result,
+	 * that is a build that ran to completion or reused the result of one that did.
+	 * Builds that failed because of the checkout or Gradle itself are not conclusive.
+	 *
+	 * @param repo     Full name of the repository
+	 * @param treeHash Hash of the git tree
+	 * @return ID of the history, or -1 if the tree has no conclusive result
+	 * @throws SQLException If an error occurs while searching the history
+	 */
+	public int findConclusiveBuild(String repo, String treeHash) throws SQLException {
+		return read(connection -> {
+			PreparedStatement preparedStatement = connection.prepare(
+				"SELECT id FROM history WHERE treeHash = ? AND repo = ? AND (outcome IS NULL OR outcome IN (?, ?)) AND buildResult <> ? ORDER BY id DESC LIMIT 1");
+			preparedStatement.setString(1, treeHash);
+			preparedStatement.setString(2, repo);
+			preparedStatement.setString(3, BuildOutcome.built.name());
+			preparedStatement.setString(4, BuildOutcome.cached.name());
+			preparedStatement.setInt(5, CommitStatuses.pending.ordinal());
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				return resultSet.next() ? resultSet.getInt("id") : -1;
+			}
+		});
+	}
+
+	/**
+	 * Filter on the builds in the history, fields that are null match every build
+	 *
+	 * @param branch   Branch of the builds
+	 * @param outcome  Outcome of the builds
+	 * @param sender   Login of the sender of the pushes
+	 * @param fromDate Earliest build date, inclusive, as an ISO date or date and time
+	 * @param toDate   Latest build date, exclusive, as an ISO date or date and time
+	 */
+	public record BuildFilter(String branch, BuildOutcome outcome, String sender, String fromDate, String toDate) {
+		/**
+		 * Filter matching every build
+		 */
+		public static final BuildFilter NONE = new BuildFilter(null, null, null, null, null);
+	}
+
+	/**
+	 * Reads the outcome of the current history row
+	 *
+	 * @param resultSet Result set positioned on a history row
+	 * @return Outcome of the build, {@link BuildOutcome#built} for rows stored before outcomes were recorded
+	 * @throws SQLException If an error occurs while reading the row
+	 */
+	private BuildOutcome getOutcome(ResultSet resultSet) throws SQLException {
+		String outcome = resultSet.getString("outcome");
+		return outcome == null ? BuildOutcome.built : BuildOutcome.valueOf(outcome);
+	}
+
+	/**
+	 * A query or update run on a connection of the DAO
+	 *
+	 * @param <T> Type of the result
+	 */
+	@FunctionalInterface
+	private interface Query<T> {
+		/**
+		 * Runs the query or update
+		 *
+		 * @param connection The connection to run it on, used by one thread at a time
+		 * @return The result
+		 * @throws SQLException If an error occurs while running it
+		 */
+		T run(CachedConnection connection) throws SQLException;
+	}
+
+	/**
+	 * A connection with the prepared statements used on it, which are kept open until the connection is closed
+	 */
+	private static class CachedConnection {
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+		/**
+		 * Creates a new cached connection
+		 *
+		 * @param connection The connection
+		 */
+		CachedConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * Gets the prepared statement of an SQL statement, preparing it on first use
+		 *
+		 * @param sql The SQL statement
+		 * @return The prepared statement, without parameters or batched updates
+		 * @throws SQLException If an error occurs while preparing the statement
+		 */
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			} else {
+				statement.clearParameters();
+				statement.clearBatch();
+			}
+			return statement;
+		}
+
+		/**
+		 * Closes the prepared statements and the connection
+		 *
+		 * @throws SQLException If an error occurs while closing the connection
+		 */
+		void close() throws SQLException {
+			for (PreparedStatement statement : statements.values()) {
+				statement.close();
+			}
+			statements.clear();
+			connection.close();
+		}
 	}
 
 }
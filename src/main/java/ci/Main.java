@@ -1,7 +1,10 @@
 package ci;
 
 import ci.BuildInfo.BuildDetails;
+import ci.BuildInfo.BuildSummary;
+import ci.BuildInfo.PhaseTiming;
 import ci.BuildInfo.TestDetails;
+import ci.HistoryDAO.BuildFilter;
 import ci.PushPayload.Commit;
 
 import org.apache.commons.io.output.TeeOutputStream;
@@ -9,6 +12,7 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.gradle.tooling.BuildCancelledException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -20,13 +24,27 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.io.OutputStream;
 import java.net.http.HttpClient;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
@@ -35,6 +53,109 @@ import java.util.stream.Stream;
  * Main executable for Continuous-Integration handler
  */
 public class Main extends AbstractHandler {
+	private static final Pattern BUILD_PATH = Pattern.compile("/build_(\\d{1,9})/?");
+
+	private final BuildQueue buildQueue;
+	private final Config config;
+	private final MirrorCache mirrorCache;
+	private final DaemonPool daemonPool;
+	private final DependencyCache dependencyCache;
+	private final BuildCache buildCache;
+	private final TestSelector testSelector;
+	private final Metrics metrics = new Metrics();
+	private final String cacheReadPassword = newCachePassword();
+	private final String cacheWritePassword = newCachePassword();
+	private HistoryDAO sharedHistoryDAO;
+
+	/**
+	 * Creates a new CI handler with the default configuration.
+	 */
+	public Main() {
+		this(new Config());
+	}
+
+	/**
+	 * Creates a new CI handler that runs builds on a fixed pool of workers,
+	 * sized by the configuration or by the CPU and memory of the host.
+	 *
+	 * @param config The server configuration.
+	 */
+	public Main(Config config) {
+		this(config, workerCount(config));
+	}
+
+	/**
+	 * Creates a new CI handler that runs builds on a fixed pool of workers.
+	 *
+	 * @param config  The server configuration.
+	 * @param workers The number of workers.
+	 */
+	private Main(Config config, int workers) {
+		this(Executors.newFixedThreadPool(workers), workers, config);
+	}
+
+	/**
+	 * Creates a new CI handler with the default configuration.
+	 *
+	 * @param buildExecutor The executor that queued builds are run on.
+	 */
+	public Main(Executor buildExecutor) {
+		this(buildExecutor, 1, new Config());
+	}
+
+	/**
+	 * Creates a new CI handler.
+	 *
+	 * @param buildExecutor The executor that queued builds are run on.
+	 * @param workers       The number of threads of the executor.
+	 * @param config        The server configuration.
+	 * @throws IllegalArgumentException If the shared dependency cache is enabled without the daemon pool.
+	 */
+	public Main(Executor buildExecutor, int workers, Config config) {
+		this.config = config;
+		if (config.getBoolean("deps.cache", false) && !config.getBoolean("daemon.pool", false)) {
+			// Only the Gradle user homes of pooled daemons are known to hold downloads of trusted builds alone
+			throw new IllegalArgumentException("deps.cache requires daemon.pool, the cache is warmed from pooled daemons");
+		}
+		mirrorCache = new MirrorCache(Path.of(config.getString("mirror.dir", "mirrors")));
+		daemonPool = !config.getBoolean("daemon.pool", false) ? null : new DaemonPool(
+			Path.of(config.getString("daemon.dir", "daemons")), workers,
+			Arrays.asList(config.getString("daemon.jvmArgs", "-Xmx1g").split("\\s+")),
+			config.getInt("daemon.idleTimeoutSeconds", 1800),
+			config.getInt("daemon.maxBuilds", 50),
+			config.getLong("daemon.minFreeMemoryMb", 512));
+		try {
+			dependencyCache = !config.getBoolean("deps.cache", false) ? null : new DependencyCache(
+				Path.of(config.getString("deps.dir", "dependencies")),
+				config.getLong("deps.maxSizeMb", 10240));
+			buildCache = !config.getBoolean("cache.enabled", false) ? null : new BuildCache(
+				Path.of(config.getString("cache.dir", "build-cache")),
+				config.getLong("cache.maxSizeMb", 5120),
+				config.getLong("cache.maxEntryMb", 100));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		testSelector = new TestSelector(config.getInt("tests.fullSuiteEvery", 20));
+		int capacity = config.getInt("queue.capacity", workers * 4);
+		buildQueue = new BuildQueue(buildExecutor, workers, capacity,
+			config.getBoolean("queue.coalesce", false),
+			config.getBoolean("queue.cancelRunning", false),
+			this::runBuild);
+		metrics.addGauge("ci_queue_depth", "Build jobs waiting for a worker", buildQueue::getQueueDepth);
+		metrics.addGauge("ci_active_builds", "Workers currently running a build", buildQueue::getActiveWorkers);
+		metrics.addGauge("ci_workers", "Build workers", buildQueue::getWorkers);
+	}
+
+	/**
+	 * Gets the number of build workers from the configuration.
+	 *
+	 * @param config The server configuration.
+	 * @return The configured number of workers, or one per free CPU/memory slot if not configured.
+	 */
+	private static int workerCount(Config config) {
+		long memoryPerWorkerMb = config.getLong("queue.memoryPerWorkerMb", 2048);
+		return config.getInt("queue.workers", BuildQueue.defaultWorkerCount(memoryPerWorkerMb));
+	}
 
 	@Override
 	public void handle(
@@ -42,110 +163,678 @@ public class Main extends AbstractHandler {
 		Request baseRequest,
 		HttpServletRequest request,
 		HttpServletResponse response) throws IOException, ServletException {
+		baseRequest.setHandled(true);
+
+		if (buildCache != null && target.startsWith("/cache/")) {
+			handleBuildCache(target.substring("/cache/".length()), request, response);
+			return;
+		}
+
+		if (request.getMethod().equals("POST")) {
+			// Incoming webhook payload from GitHub, the build itself is run by the build queue
+			final String accessUrl = request.getRequestURL().toString();
+			response.setContentType("text/plain;charset=utf-8");
+
+			var webhookEvent = new BuildEvents.Webhook();
+			webhookEvent.begin();
+			PushPayload payload;
+			try {
+				payload = new PushPayload(request.getReader().readLine());
+			} catch (IOException | RuntimeException e) {
+				webhookEvent.commit();
+				metrics.countWebhook("invalid");
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				response.getWriter().println("Invalid push payload");
+				return;
+			}
+			webhookEvent.end();
+			if (webhookEvent.shouldCommit()) {
+				webhookEvent.setPush(payload);
+				webhookEvent.parsed = true;
+				webhookEvent.commit();
+			}
+			if (payload.isDeleted()) {
+				// The branch no longer exists, so there is no commit to build
+				metrics.countWebhook("ignored");
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.getWriter().println("Branch deleted, nothing to build");
+				return;
+			}
+
+			try {
+				int jobId = buildQueue.submit(payload, accessUrl);
+				metrics.countWebhook("accepted");
+				response.setStatus(HttpServletResponse.SC_ACCEPTED);
+				response.getWriter().println("Build job " + jobId + " queued");
+			} catch (RejectedExecutionException e) {
+				// Shed load, GitHub redelivers the webhook later
+				metrics.countWebhook("rejected");
+				response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				response.setHeader("Retry-After", config.getString("queue.retryAfterSeconds", "30"));
+				response.getWriter().println(e.getMessage());
+			}
+			return;
+		}
+
+		if (target.equals("/metrics")) {
+			response.setContentType("text/plain;version=0.0.4;charset=utf-8");
+			response.setStatus(HttpServletResponse.SC_OK);
+			metrics.writeTo(response.getWriter());
+			return;
+		}
+
+		if (target.equals("/queue")) {
+			// Queue statistics, used to size build hosts
+			response.setContentType("application/json;charset=utf-8");
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.getWriter().println("{\"queueDepth\": " + buildQueue.getQueueDepth()
+				+ ", \"activeWorkers\": " + buildQueue.getActiveWorkers()
+				+ ", \"workers\": " + buildQueue.getWorkers()
+				+ ", \"capacity\": " + buildQueue.getCapacity() + "}");
+			return;
+		}
+
 		response.setContentType("text/html;charset=utf-8");
 		response.setStatus(HttpServletResponse.SC_OK);
-		baseRequest.setHandled(true);
 
 		HistoryDAO historyDAO;
 		try {
-			historyDAO = createHistoryDAO("builds.db");
+			historyDAO = getHistoryDAO();
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 
-		if (request.getMethod().equals("POST")) {
-			// Incoming webhook payload from GitHub
-			final String accessUrl = request.getRequestURL().toString();
+		// GET request from web interface
+		try {
+			if (!target.startsWith("/build_")) {
+				listBuilds(request, response, historyDAO);
+			} else {
+				// Display build info for specific build if link is clicked, reading only that build
+				response.getWriter().println("<br><a href=\"/\">Home</a><br></br>");
+				BuildInfo build = null;
+				Matcher buildPath = BUILD_PATH.matcher(target);
+				if (buildPath.matches()) {
+					long loadStart = System.nanoTime();
+					build = historyDAO.getHistory(Integer.parseInt(buildPath.group(1)));
+					metrics.observeHistoryQuery("get", System.nanoTime() - loadStart);
+				}
 
-			PushPayload payload = new PushPayload(request.getReader().readLine());
-			var notifier = createNotifier(payload);
-			try {
-				notifier.setCommitStatus(CommitStatuses.pending, "Working", accessUrl);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
+				if (build == null) {
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+					response.getWriter().println("<strong>Build not found</strong>");
+				} else {
+					response.getWriter().println(WebHandler.buildInfoToHtmlString(build));
+				}
 			}
 
-			var rootDir = Path.of(".");
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
-			var buildPath = rootDir.resolve(UUID.randomUUID().toString());
-			while (buildPath.toFile().exists()) {
-				buildPath = rootDir.resolve(UUID.randomUUID().toString());
-			}
+	/**
+	 * Displays a page of links to the builds in the history, newest first, with a form to filter them
+	 * and links to the pages of newer and older builds. Only the columns the links show are read.
+	 *
+	 * @param request    The request, with the filter and the build the page starts after as parameters
+	 * @param response   The response to write the page to
+	 * @param historyDAO The history to read the builds from
+	 * @throws IOException  If the page could not be written
+	 * @throws SQLException If the builds could not be read
+	 */
+	private void listBuilds(HttpServletRequest request, HttpServletResponse response, HistoryDAO historyDAO)
+		throws IOException, SQLException {
+		BuildFilter filter;
+		int before;
+		int after;
+		try {
+			filter = getBuildFilter(request);
+			before = getIdParameter(request, "before");
+			after = getIdParameter(request, "after");
+		} catch (RuntimeException e) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			response.getWriter().println("<strong>Invalid build filter.</strong>");
+			return;
+		}
 
-			OutputStream buildOutput = new ByteArrayOutputStream();
-			OutputStream testOutput = new ByteArrayOutputStream();
-			TeeOutputStream buildAndStdOut = new TeeOutputStream(buildOutput, System.out);
-			TeeOutputStream testAndStdOut = new TeeOutputStream(testOutput, System.out);
+		// One more build than is shown tells whether there is another page
+		int pageSize = config.getInt("history.pageSize", 50);
+		long loadStart = System.nanoTime();
+		List<BuildSummary> builds = after != -1
+			? historyDAO.getNewerBuildSummaries(filter, after, pageSize + 1)
+			: historyDAO.getBuildSummaries(filter, before != -1 ? before : Integer.MAX_VALUE, pageSize + 1);
+		metrics.observeHistoryQuery("summaries", System.nanoTime() - loadStart);
 
-			try (var builder = createBuilder(buildPath, buildAndStdOut, testAndStdOut)) {
-				builder.cloneTargetRepo(payload.getCloneUrl(), payload.getBranch());
-				var result = builder.buildAndTest();
-				var desc = switch (result.status()) {
-					case error -> "Tests failed";
-					case failure -> "Build failed";
-					case pending -> "Wait what happened here????????????????";
-					case success -> "Build successful!";
-				};
-				notifier.setCommitStatus(result.status(), desc, accessUrl);
+		boolean hasNewer;
+		boolean hasOlder;
+		if (after != -1) {
+			hasNewer = builds.size() > pageSize;
+			hasOlder = true;
+			builds = hasNewer ? builds.subList(1, builds.size()) : builds;
+		} else {
+			hasNewer = before != -1;
+			hasOlder = builds.size() > pageSize;
+			builds = hasOlder ? builds.subList(0, pageSize) : builds;
+		}
 
-				BuildDetails buildDetails = new BuildDetails(result.status().ordinal(), buildOutput.toString());
+		response.getWriter().println(WebHandler.buildFilterToHtmlString(filter));
+		if (builds.isEmpty()) {
+			response.getWriter().println("<strong>No builds found in database.</strong>");
+			return;
+		}
+		for (BuildSummary build : builds) {
+			response.getWriter().println(WebHandler.buildSummaryToHtmlString(build));
+		}
+		response.getWriter().println(WebHandler.pageLinksToHtmlString(filter,
+			hasNewer ? builds.get(0).id() : -1,
+			hasOlder ? builds.get(builds.size() - 1).id() : -1));
+	}
 
-				TestDetails testDetails = new TestDetails(result.totalTests(), result.passedTests(), testOutput.toString());
-				BuildInfo buildInfo = new BuildInfo(payload.getSender(),
-					Arrays.asList(payload.getCommits()),
-					buildDetails, testDetails, payload.getPushedAt(), payload.getBranch());
+	/**
+	 * Reads the filter on the listed builds from the parameters of a request.
+	 * Empty parameters, as sent by the filter form, match every build.
+	 *
+	 * @param request The request
+	 * @return The filter
+	 * @throws IllegalArgumentException If the outcome or a date is not valid
+	 */
+	private static BuildFilter getBuildFilter(HttpServletRequest request) {
+		String outcome = getParameter(request, "outcome");
+		String fromDate = getParameter(request, "from");
+		String toDate = getParameter(request, "to");
+		return new BuildFilter(getParameter(request, "branch"),
+			outcome == null ? null : BuildOutcome.valueOf(outcome),
+			getParameter(request, "sender"),
+			fromDate == null ? null : LocalDate.parse(fromDate).toString(),
+			toDate == null ? null : LocalDate.parse(toDate).toString());
+	}
 
-				historyDAO.addHistory(buildInfo);
-			} catch (GitAPIException err) {
-				try {
-					notifier.setCommitStatus(CommitStatuses.failure, err.getLocalizedMessage(), accessUrl);
-				} catch (InterruptedException e) {
-					throw new RuntimeException(e);
+	/**
+	 * Reads a build ID from the parameters of a request.
+	 *
+	 * @param request The request
+	 * @param name    Name of the parameter
+	 * @return The build ID, or -1 if the parameter is missing
+	 * @throws NumberFormatException If the parameter is not a number
+	 */
+	private static int getIdParameter(HttpServletRequest request, String name) {
+		String id = getParameter(request, name);
+		return id == null ? -1 : Integer.parseInt(id);
+	}
+
+	/**
+	 * Reads a parameter of a request.
+	 *
+	 * @param request The request
+	 * @param name    Name of the parameter
+	 * @return The value of the parameter, or null if it is missing or empty
+	 */
+	private static String getParameter(HttpServletRequest request, String name) {
+		String value = request.getParameter(name);
+		return value == null || value.isBlank() ? null : value;
+	}
+
+	/**
+	 * Serves the Gradle HTTP build cache: GET loads an entry, PUT stores one.
+	 * Requests must authenticate with the password the server gave the build: builds that may push
+	 * get the write password, all other builds the read password, which is only allowed to GET.
+	 *
+	 * @param key      The cache key from the request path.
+	 * @param request  The request.
+	 * @param response The response.
+	 * @throws IOException If the entry cannot be read or written.
+	 */
+	private void handleBuildCache(String key, HttpServletRequest request, HttpServletResponse response)
+		throws IOException {
+		String password = getBasicAuthPassword(request);
+		boolean canWrite = password != null && MessageDigest.isEqual(password.getBytes(), cacheWritePassword.getBytes());
+		boolean canRead = canWrite
+			|| password != null && MessageDigest.isEqual(password.getBytes(), cacheReadPassword.getBytes());
+		if (!canRead) {
+			response.setHeader("WWW-Authenticate", "Basic realm=\"build-cache\"");
+			response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		if (!BuildCache.isValidKey(key)) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		switch (request.getMethod()) {
+			case "GET" -> {
+				try (FileChannel entry = buildCache.open(key)) {
+					if (entry == null) {
+						response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+						return;
+					}
+					response.setContentType("application/vnd.gradle.build-cache-artifact.v1");
+					response.setContentLength((int) entry.size());
+					response.setStatus(HttpServletResponse.SC_OK);
+					entry.transferTo(0, entry.size(), Channels.newChannel(response.getOutputStream()));
 				}
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			} catch (SQLException e) {
+			}
+			case "PUT" -> {
+				if (!canWrite) {
+					response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+					return;
+				}
+				response.setStatus(buildCache.store(key, request.getInputStream(), request.getContentLength())
+					? HttpServletResponse.SC_CREATED
+					: HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			}
+			default -> response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+		}
+	}
+
+	/**
+	 * Gets the password of the HTTP basic authentication of a request.
+	 *
+	 * @param request The request.
+	 * @return The password, or null if the request does not use basic authentication.
+	 */
+	private static String getBasicAuthPassword(HttpServletRequest request) {
+		String authorization = request.getHeader("Authorization");
+		if (authorization == null || !authorization.startsWith("Basic ")) {
+			return null;
+		}
+		try {
+			String credentials = new String(Base64.getDecoder().decode(authorization.substring("Basic ".length()).trim()));
+			int separator = credentials.indexOf(':');
+			return separator == -1 ? null : credentials.substring(separator + 1);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a random password for the build cache, valid until the server is restarted.
+	 *
+	 * @return The password, as hexadecimal string.
+	 */
+	private static String newCachePassword() {
+		byte[] bytes = new byte[32];
+		new SecureRandom().nextBytes(bytes);
+		return HexFormat.of().formatHex(bytes);
+	}
+
+	/**
+	 * Clones, builds and tests the push of a queued job, then reports the result to GitHub
+	 * and stores it in the history database.
+	 * Called on a build queue thread, not on the thread handling the webhook request.
+	 *
+	 * @param job The job to run.
+	 */
+	protected void runBuild(BuildQueue.BuildJob job) {
+		PushPayload payload = job.getPayload();
+		String accessUrl = job.getAccessUrl();
+		var timer = new PhaseTimer(payload);
+		timer.record("queue", System.currentTimeMillis() - job.getQueuedAt(), 0);
+
+		HistoryDAO historyDAO;
+		try {
+			historyDAO = getHistoryDAO();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+
+		var notifier = createNotifier(payload);
+
+		if (job.isSuperseded()) {
+			// A newer push to the same branch came in while this one was queued
+			try {
+				recordSuperseded(job, notifier, historyDAO, "", "");
+			} catch (IOException | InterruptedException | SQLException e) {
 				throw new RuntimeException(e);
-			} finally {
-				Builder.deleteDirectory(buildPath.toFile());
 			}
-		} else {
-			// GET request from web interface
+			return;
+		}
+
+		String treeHash = payload.getTreeHash();
+		if (treeHash != null && config.getBoolean(payload.getRepo(), "memoize.enabled", false)) {
+			// A tree that was already built gives the same result, no matter which commit it is in
 			try {
-				// Fetch history of builds from database
-				List<BuildInfo> history = historyDAO.getAllHistory();
-				WebHandler webHandler = new WebHandler(history);
+				long lookupStart = System.nanoTime();
+				int previousId = historyDAO.findConclusiveBuild(payload.getRepo(), treeHash);
+				metrics.observeHistoryQuery("lookup", System.nanoTime() - lookupStart);
+				if (previousId != -1) {
+					recordCached(job, notifier, historyDAO, historyDAO.getHistory(previousId));
+					return;
+				}
+			} catch (IOException | InterruptedException | SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
 
-				if (history.isEmpty()) {
-					response.getWriter().println("<strong>No builds found in database.</strong>");
-				} else {
-					// Display links to all builds from history
-					if (!target.startsWith("/build_")) {
-						for (BuildInfo build : history) {
-							response.getWriter().println("<a href=\"/build_" + build.getId() + "/\">Build Info "
-								+ build.getId() + " - Branch: " + build.getBranch() + "</a><br>");
-						}
-					}
-					// Display build info for specific build if link is clicked
-					if (target.startsWith("/build_")) {
-						response.getWriter().println("<br><a href=\"/\">Home</a><br></br>");
-						int buildId = Integer.parseInt(target.substring(7, target.length() - 1));
-						response.getWriter().println(webHandler.buildInfoToHtmlString(buildId));
+		try (PhaseTimer.Phase ignored = timer.start("notify")) {
+			notifier.setCommitStatus(CommitStatuses.pending, "Working", accessUrl);
+		} catch (IOException | InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+
+		var rootDir = Path.of(".");
+
+		var buildPath = rootDir.resolve(UUID.randomUUID().toString());
+		while (buildPath.toFile().exists()) {
+			buildPath = rootDir.resolve(UUID.randomUUID().toString());
+		}
+
+		OutputStream buildOutput = new ByteArrayOutputStream();
+		OutputStream testOutput = new ByteArrayOutputStream();
+		TeeOutputStream buildAndStdOut = new TeeOutputStream(buildOutput, System.out);
+		TeeOutputStream testAndStdOut = new TeeOutputStream(testOutput, System.out);
+
+		boolean incrementalTests = config.getBoolean(payload.getRepo(), "tests.incremental", false);
+		int testShards = config.getInt(payload.getRepo(), "tests.shards", 1);
+		try (var builder = createBuilder(buildPath, payload, buildAndStdOut, testAndStdOut)) {
+			job.onCancel(builder::cancel);
+			builder.setPhaseTimer(timer);
+			if (testShards > 1) {
+				builder.setTestShards(testShards, historyDAO.getTestDurations(payload.getRepo()));
+			}
+			if (config.getBoolean(payload.getRepo(), "tests.retryFlaky", false)) {
+				var detector = new FlakinessDetector(config.getInt(payload.getRepo(), "tests.flakyFlipPercent", 20));
+				var testOutcomes = historyDAO.getTestOutcomes(payload.getRepo(), payload.getBranch(), treeHash,
+					config.getInt(payload.getRepo(), "tests.flakyWindow", 20));
+				builder.setFlakyTests(detector.findSuspects(testOutcomes),
+					config.getInt(payload.getRepo(), "tests.flakyRetries", 2),
+					config.getBoolean(payload.getRepo(), "tests.quarantine", false));
+			}
+			if (config.getBoolean(payload.getRepo(), "tests.failFirst", false)) {
+				builder.setPriorityTests(findPriorityTests(payload, historyDAO, treeHash));
+			}
+			if (config.getBoolean(payload.getRepo(), "tests.failFast", false)) {
+				builder.setFailFast(true);
+			}
+			builder.cloneTargetRepo(payload.getCloneUrl(), payload.getBranch(), payload.getHeadSha());
+			if (!builder.isCheckedOut()) {
+				// Whatever was checked out instead is not the commit the status is reported on
+				recordCheckoutFailed(job, notifier, historyDAO, timer, buildOutput.toString());
+				return;
+			}
+			boolean fullSuite = true;
+			if (incrementalTests) {
+				// The payload lists at most 20 commits, so the changes are taken from the checkout
+				TestSelector.Changes changes = TestSelector.isComparable(payload, job.isCoalesced())
+					? builder.findChanges(payload.getBefore()) : null;
+				Set<String> testSelection = testSelector.select(changes,
+					historyDAO.getBuildsSinceFullSuite(payload.getRepo()), historyDAO.getTestDependencies(payload.getRepo()));
+				builder.setTestSelection(testSelection);
+				fullSuite = testSelection == null;
+			}
+
+			Builder.BuildResults result = null;
+			if (!job.isSuperseded()) {
+				try {
+					result = builder.buildAndTest();
+				} catch (BuildTimeoutException e) {
+					recordTimedOut(job, notifier, historyDAO, timer, e, buildOutput.toString(), testOutput.toString());
+					return;
+				} catch (BuildCancelledException e) {
+					if (!job.isSuperseded()) {
+						throw e;
 					}
 				}
+			}
+			if (job.isSuperseded()) {
+				// A newer push to the same branch cancelled this build
+				recordSuperseded(job, notifier, historyDAO, buildOutput.toString(), testOutput.toString());
+				return;
+			}
+
+			try (PhaseTimer.Phase ignored = timer.start("persist")) {
+				if (incrementalTests) {
+					historyDAO.setTestDependencies(payload.getRepo(), builder.getTestDependencies(), fullSuite);
+				}
+				if (testShards > 1) {
+					historyDAO.setTestDurations(payload.getRepo(), builder.getTestDurations());
+				}
+			}
+			try (PhaseTimer.Phase ignored = timer.start("notify")) {
+				notifier.setCommitStatus(result.status(), describe(result), accessUrl);
+			}
+
+			BuildDetails buildDetails = new BuildDetails(result.status().ordinal(), buildOutput.toString());
+
+			TestDetails testDetails = new TestDetails(result.totalTests(), result.passedTests(), testOutput.toString());
+			BuildInfo buildInfo = new BuildInfo(payload.getSender(),
+				Arrays.asList(payload.getCommits()),
+				buildDetails, testDetails, payload.getPushedAt(), payload.getBranch());
+			buildInfo.setTreeHash(treeHash);
+			buildInfo.setRepo(payload.getRepo());
+			if (!builder.isConclusive()) {
+				// Not memoized and not used to detect flaky tests, as the push may build fine on a retry
+				buildInfo.setOutcome(BuildOutcome.infrastructureFailure);
+			}
 
-			} catch (SQLException e) {
+			int historyId;
+			long storeStart = System.nanoTime();
+			try (PhaseTimer.Phase ignored = timer.start("persist")) {
+				historyId = historyDAO.addHistory(buildInfo);
+				historyDAO.addTestResults(historyId, builder.getTestResults());
+				historyDAO.addTaskTimings(historyId, builder.getTaskTimings());
+			}
+			historyDAO.addPhaseTimings(historyId, timer.getTimings());
+			metrics.observeHistoryQuery("store", System.nanoTime() - storeStart);
+			recordMetrics(result.status().name(), timer);
+		} catch (GitAPIException err) {
+			metrics.countBuild(CommitStatuses.failure.name());
+			try {
+				notifier.setCommitStatus(CommitStatuses.failure, err.getLocalizedMessage(), accessUrl);
+			} catch (IOException | InterruptedException e) {
 				throw new RuntimeException(e);
 			}
+		} catch (IOException | InterruptedException | SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Builder.deleteDirectory(buildPath.toFile());
 		}
+	}
 
-		try {
-			historyDAO.closeConnection();
-		} catch (SQLException e) {
-			throw new RuntimeException(e);
+	/**
+	 * Reports a job that was superseded by a newer push to the same branch,
+	 * and stores it in the history database.
+	 * The commit was not verified, so it gets an error status naming the newer job, whether the job
+	 * was still queued or its build was cancelled.
+	 *
+	 * @param job        The superseded job.
+	 * @param notifier   The notifier of the job.
+	 * @param historyDAO The history database.
+	 * @param buildLog   Build log written before the job was superseded.
+	 * @param testLog    Test log written before the job was superseded.
+	 * @throws IOException          If the commit status cannot be sent.
+	 * @throws InterruptedException If sending the commit status is interrupted.
+	 * @throws SQLException         If the history cannot be stored.
+	 */
+	private void recordSuperseded(BuildQueue.BuildJob job, Notifier notifier, HistoryDAO historyDAO, String buildLog,
+								  String testLog) throws IOException, InterruptedException, SQLException {
+		PushPayload payload = job.getPayload();
+		notifier.setCommitStatus(CommitStatuses.error,
+			"Superseded by build job " + job.getSupersededBy().getId(), job.getAccessUrl());
+
+		BuildInfo buildInfo = new BuildInfo(payload.getSender(),
+			Arrays.asList(payload.getCommits()),
+			new BuildDetails(CommitStatuses.error.ordinal(), buildLog),
+			new TestDetails(0, 0, testLog), payload.getPushedAt(), payload.getBranch());
+		buildInfo.setOutcome(BuildOutcome.superseded);
+		buildInfo.setRepo(payload.getRepo());
+		historyDAO.addHistory(buildInfo);
+		metrics.countBuild(BuildOutcome.superseded.name());
+	}
+
+	/**
+	 * Reports a job whose pushed commit could not be cloned or checked out, without building it,
+	 * and stores it in the history database.
+	 *
+	 * @param job        The job that was not built.
+	 * @param notifier   The notifier of the job.
+	 * @param historyDAO The history database.
+	 * @param timer      The timer of the build.
+	 * @param buildLog   Build log written while cloning.
+	 * @throws IOException          If the commit status cannot be sent.
+	 * @throws InterruptedException If sending the commit status is interrupted.
+	 * @throws SQLException         If the history cannot be stored.
+	 */
+	private void recordCheckoutFailed(BuildQueue.BuildJob job, Notifier notifier, HistoryDAO historyDAO,
+									  PhaseTimer timer, String buildLog)
+		throws IOException, InterruptedException, SQLException {
+		PushPayload payload = job.getPayload();
+		try (PhaseTimer.Phase ignored = timer.start("notify")) {
+			notifier.setCommitStatus(CommitStatuses.error, "Checkout failed", job.getAccessUrl());
+		}
+
+		BuildInfo buildInfo = new BuildInfo(payload.getSender(),
+			Arrays.asList(payload.getCommits()),
+			new BuildDetails(CommitStatuses.error.ordinal(), buildLog),
+			new TestDetails(0, 0, ""), payload.getPushedAt(), payload.getBranch());
+		buildInfo.setOutcome(BuildOutcome.infrastructureFailure);
+		buildInfo.setRepo(payload.getRepo());
+		int historyId;
+		try (PhaseTimer.Phase ignored = timer.start("persist")) {
+			historyId = historyDAO.addHistory(buildInfo);
+		}
+		historyDAO.addPhaseTimings(historyId, timer.getTimings());
+		recordMetrics(BuildOutcome.infrastructureFailure.name(), timer);
+	}
+
+	/**
+	 * Reports a job whose build was cancelled because it took too long, and stores it in the history database.
+	 *
+	 * @param job        The timed out job.
+	 * @param notifier   The notifier of the job.
+	 * @param historyDAO The history database.
+	 * @param timer      The timer of the build.
+	 * @param timeout    The timeout of the build.
+	 * @param buildLog   Build log written before the build was cancelled.
+	 * @param testLog    Test log written before the build was cancelled.
+	 * @throws IOException          If the commit status cannot be sent.
+	 * @throws InterruptedException If sending the commit status is interrupted.
+	 * @throws SQLException         If the history cannot be stored.
+	 */
+	private void recordTimedOut(BuildQueue.BuildJob job, Notifier notifier, HistoryDAO historyDAO, PhaseTimer timer,
+								BuildTimeoutException timeout, String buildLog, String testLog)
+		throws IOException, InterruptedException, SQLException {
+		PushPayload payload = job.getPayload();
+		try (PhaseTimer.Phase ignored = timer.start("notify")) {
+			notifier.setCommitStatus(timeout.getStatus(), timeout.getMessage(), job.getAccessUrl());
+		}
+
+		BuildInfo buildInfo = new BuildInfo(payload.getSender(),
+			Arrays.asList(payload.getCommits()),
+			new BuildDetails(timeout.getStatus().ordinal(), buildLog),
+			new TestDetails(0, 0, testLog), payload.getPushedAt(), payload.getBranch());
+		buildInfo.setOutcome(BuildOutcome.timedOut);
+		buildInfo.setTreeHash(payload.getTreeHash());
+		buildInfo.setRepo(payload.getRepo());
+		int historyId;
+		try (PhaseTimer.Phase ignored = timer.start("persist")) {
+			historyId = historyDAO.addHistory(buildInfo);
+		}
+		historyDAO.addPhaseTimings(historyId, timer.getTimings());
+		recordMetrics(BuildOutcome.timedOut.name(), timer);
+	}
+
+	/**
+	 * Reports the result of an earlier build of the same git tree for a job, without building it,
+	 * and stores it in the history database.
+	 *
+	 * @param job        The job whose tree was already built.
+	 * @param notifier   The notifier of the job.
+	 * @param historyDAO The history database.
+	 * @param previous   The earlier build of the tree.
+	 * @throws IOException          If the commit status cannot be sent.
+	 * @throws InterruptedException If sending the commit status is interrupted.
+	 * @throws SQLException         If the history cannot be stored.
+	 */
+	private void recordCached(BuildQueue.BuildJob job, Notifier notifier, HistoryDAO historyDAO, BuildInfo previous)
+		throws IOException, InterruptedException, SQLException {
+		PushPayload payload = job.getPayload();
+		CommitStatuses status = CommitStatuses.values()[previous.getBuildDetails().buildResult()];
+		notifier.setCommitStatus(status,
+			describe(status) + " (same tree as build " + previous.getId() + ")", job.getAccessUrl());
+
+		BuildInfo buildInfo = new BuildInfo(payload.getSender(),
+			Arrays.asList(payload.getCommits()),
+			new BuildDetails(status.ordinal(), "Reused the result of build " + previous.getId()
+				+ ", which built the same tree " + payload.getTreeHash()),
+			new TestDetails(previous.getTestDetails().totalTests(), previous.getTestDetails().numOfPassedTests(), ""),
+			payload.getPushedAt(), payload.getBranch());
+		buildInfo.setOutcome(BuildOutcome.cached);
+		buildInfo.setTreeHash(payload.getTreeHash());
+		buildInfo.setRepo(payload.getRepo());
+		historyDAO.addHistory(buildInfo);
+		metrics.countBuild(BuildOutcome.cached.name());
+	}
+
+	/**
+	 * Counts a finished build by its outcome and records the time spent in each of its phases.
+	 *
+	 * @param outcome The commit status of the build, or why it did not finish.
+	 * @param timer   The timer of the build.
+	 */
+	private void recordMetrics(String outcome, PhaseTimer timer) {
+		metrics.countBuild(outcome);
+		for (PhaseTiming timing : timer.getTimings()) {
+			metrics.observePhase(timing.phase(), timing.wallMillis());
 		}
 	}
 
+	/**
+	 * Finds the test classes to run first: those that failed in recent builds of the branch or tree,
+	 * and those changed by the push or that reference a class changed by it.
+	 *
+	 * @param payload    The payload of the push.
+	 * @param historyDAO The history of the builds.
+	 * @param treeHash   Hash of the git tree of the push, or null if unknown.
+	 * @return Names of the test classes to run first.
+	 * @throws SQLException If the history cannot be read.
+	 */
+	private Set<String> findPriorityTests(PushPayload payload, HistoryDAO historyDAO, String treeHash)
+		throws SQLException {
+		Set<String> priorityTests = new TreeSet<>(TestSelector.changedTests(payload.getChangedFiles(),
+			historyDAO.getTestDependencies(payload.getRepo())));
+		var testOutcomes = historyDAO.getTestOutcomes(payload.getRepo(), payload.getBranch(), treeHash,
+			config.getInt(payload.getRepo(), "tests.failFirstWindow", 5));
+		testOutcomes.forEach((test, outcomes) -> {
+			if (outcomes.stream().anyMatch(outcome -> outcome != TestOutcome.passed && outcome != TestOutcome.skipped)) {
+				priorityTests.add(test.className());
+			}
+		});
+		return priorityTests;
+	}
+
+	/**
+	 * Gets the description sent with a commit status, with the number of tests that only passed when retried
+	 * and that were quarantined.
+	 *
+	 * @param result The results of the build.
+	 * @return Description of the results.
+	 */
+	private static String describe(Builder.BuildResults result) {
+		List<String> retried = new ArrayList<>();
+		if (result.flakyTests() > 0) {
+			retried.add(result.flakyTests() + " flaky");
+		}
+		if (result.quarantinedTests() > 0) {
+			retried.add(result.quarantinedTests() + " quarantined");
+		}
+		String description = describe(result.status());
+		return retried.isEmpty() ? description : description + " (" + String.join(", ", retried) + ")";
+	}
+
+	/**
+	 * Gets the description sent with a commit status.
+	 *
+	 * @param status The commit status.
+	 * @return Description of the status.
+	 */
+	private static String describe(CommitStatuses status) {
+		return switch (status) {
+			case error -> "Tests failed";
+			case failure -> "Build failed";
+			case pending -> "Wait what happened here????????????????";
+			case success -> "Build successful!";
+		};
+	}
+
 	/**
 	 * Creates a new notifier from a PushPayload.
 	 * This function merely exists to allow mock-testing.
@@ -154,20 +843,52 @@ public class Main extends AbstractHandler {
 	 * @return The notifier.
 	 */
 	protected Notifier createNotifier(PushPayload payload) {
-		return new Notifier(payload, HttpClient.newHttpClient());
+		return new Notifier(payload, HttpClient.newHttpClient(), metrics);
 	}
 
 	/**
-	 * Creates a new builder from a path and an outputstream.
+	 * Creates a new builder for a push, configured for the repository of the push.
 	 * This function merely exists to allow mock-testing.
 	 *
 	 * @param path       The file path to build the project at.
+	 * @param payload    The push to build.
 	 * @param output     The outputstream to write build logs to.
 	 * @param testOutput The outputstream to write test logs to.
 	 * @return The builder.
 	 */
-	protected Builder createBuilder(Path path, OutputStream output, OutputStream testOutput) {
-		return new Builder(path, output, testOutput);
+	protected Builder createBuilder(Path path, PushPayload payload, OutputStream output, OutputStream testOutput) {
+		var builder = new Builder(path, output, testOutput);
+		String repo = payload.getRepo();
+		switch (config.getString(repo, "checkout.mode", "full")) {
+			case "mirror" -> builder.setMirrorCache(mirrorCache);
+			case "shallow" -> builder.setCloneDepth(config.getInt(repo, "checkout.depth", 1));
+			default -> {
+			}
+		}
+		builder.setSingleInvocation(config.getBoolean(repo, "build.singleInvocation", false));
+		builder.setTimeouts(timeoutOf(config.getInt(repo, "build.timeoutMinutes", 30)),
+			timeoutOf(config.getInt(repo, "tests.timeoutMinutes", 60)));
+		builder.setDaemonPool(daemonPool);
+		builder.setDependencyCache(dependencyCache, config.getBoolean(repo, "deps.trusted", false));
+		if (buildCache != null) {
+			// Only trusted branches may push, as anything they store is reused by every other build
+			boolean push = config.getBoolean(repo, "cache.push", false)
+				&& Arrays.asList(config.getString(repo, "cache.pushBranches", "main,master").split(","))
+				.contains(payload.getBranch());
+			builder.setBuildCache(config.getString("cache.url", "http://localhost:8080/cache/"),
+				push ? cacheWritePassword : cacheReadPassword, push);
+		}
+		return builder;
+	}
+
+	/**
+	 * Gets a timeout from a number of minutes in the config.
+	 *
+	 * @param minutes The number of minutes, 0 or less for no timeout.
+	 * @return The timeout, or null for no timeout.
+	 */
+	private static Duration timeoutOf(int minutes) {
+		return minutes > 0 ? Duration.ofMinutes(minutes) : null;
 	}
 
 	/**
@@ -179,7 +900,49 @@ public class Main extends AbstractHandler {
 	 * @throws SQLException If the database cannot be opened.
 	 */
 	protected HistoryDAO createHistoryDAO(String dbPath) throws SQLException {
-		return new HistoryDAO(dbPath);
+		return new HistoryDAO(dbPath, config.getInt("history.readers", 4));
+	}
+
+	/**
+	 * Gets the history database, which is opened on first use and shared by all requests and builds.
+	 *
+	 * @return The HistoryDAO.
+	 * @throws SQLException If the database cannot be opened.
+	 */
+	private synchronized HistoryDAO getHistoryDAO() throws SQLException {
+		if (sharedHistoryDAO == null) {
+			sharedHistoryDAO = createHistoryDAO("builds.db");
+		}
+		return sharedHistoryDAO;
+	}
+
+	/**
+	 * Stops the build queue, waiting for the running builds, then stops the pooled Gradle daemons
+	 * and closes the history database when the server stops.
+	 */
+	@Override
+	protected void doStop() throws Exception {
+		try {
+			// Running builds use the daemon pool and the history, so they are stopped first
+			if (!buildQueue.shutdown(config.getInt("queue.shutdownTimeoutSeconds", 60))) {
+				System.out.println("Build workers did not stop within the shutdown timeout");
+			}
+		} finally {
+			if (dependencyCache != null) {
+				// Warming returns the daemons it uses to the pool
+				dependencyCache.shutdown();
+			}
+			if (daemonPool != null) {
+				daemonPool.shutdown();
+			}
+			synchronized (this) {
+				// Kept, so that requests still being handled fail instead of reopening the database
+				if (sharedHistoryDAO != null) {
+					sharedHistoryDAO.closeConnection();
+				}
+			}
+		}
+		super.doStop();
 	}
 
 	/**
@@ -211,7 +974,7 @@ public class Main extends AbstractHandler {
 	 */
 	public static void main(String[] args) throws Exception {
 		Server server = new Server(8080);
-		server.setHandler(new Main());
+		server.setHandler(new Main(Config.load(Path.of("ci.properties"))));
 		server.start();
 		server.join();
 	}
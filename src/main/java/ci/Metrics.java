@@ -0,0 +1,294 @@
+package ci;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and histograms of the CI server, served in the Prometheus text format on /metrics.
+ * Recording only adds to striped counters, so it does not allocate or contend between threads
+ * once a label value has been seen.
+ */
+public class Metrics {
+	private static final double[] DURATION_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30,
+		60, 120, 300, 600, 1800, 3600};
+
+	private final Counter webhooks = new Counter("ci_webhooks_total",
+		"Webhook requests by response", "response");
+	private final Counter builds = new Counter("ci_builds_total",
+		"Finished build jobs by commit status or outcome", "outcome");
+	private final Histogram phaseSeconds = new Histogram("ci_build_phase_seconds",
+		"Wall time of the phases of builds", "phase");
+	private final Histogram notifierSeconds = new Histogram("ci_notifier_request_seconds",
+		"Latency of commit status requests to GitHub", "code");
+	private final Histogram historyQuerySeconds = new Histogram("ci_history_query_seconds",
+		"Latency of history database operations", "operation");
+	private final List<Gauge> gauges = new ArrayList<>();
+
+	/**
+	 * Counts a webhook request.
+	 *
+	 * @param response How the request was answered, such as accepted or rejected.
+	 */
+	public void countWebhook(String response) {
+		webhooks.inc(response);
+	}
+
+	/**
+	 * Counts a finished build job.
+	 *
+	 * @param outcome The commit status of the build, or why it was not built.
+	 */
+	public void countBuild(String outcome) {
+		builds.inc(outcome);
+	}
+
+	/**
+	 * Records the wall time of a phase of a build.
+	 *
+	 * @param phase      Name of the phase.
+	 * @param wallMillis Wall time of the phase in milliseconds.
+	 */
+	public void observePhase(String phase, long wallMillis) {
+		phaseSeconds.observe(phase, wallMillis / 1000.0);
+	}
+
+	/**
+	 * Records a commit status request to GitHub.
+	 *
+	 * @param code  HTTP status code of the response, or "exception" if no response was received.
+	 * @param nanos Latency of the request in nanoseconds.
+	 */
+	public void observeNotifier(String code, long nanos) {
+		notifierSeconds.observe(code, nanos / 1e9);
+	}
+
+	/**
+	 * Records an operation on the history database.
+	 *
+	 * @param operation Name of the operation.
+	 * @param nanos     Latency of the operation in nanoseconds.
+	 */
+	public void observeHistoryQuery(String operation, long nanos) {
+		historyQuerySeconds.observe(operation, nanos / 1e9);
+	}
+
+	/**
+	 * Adds a gauge whose value is read when the metrics are served.
+	 *
+	 * @param name  Name of the gauge.
+	 * @param help  Description of the gauge.
+	 * @param value Supplies the current value.
+	 */
+	public void addGauge(String name, String help, LongSupplier value) {
+		synchronized (gauges) {
+			gauges.add(new Gauge(name, help, value));
+		}
+	}
+
+	/**
+	 * Writes all metrics and the heap and garbage collection statistics of the JVM in the Prometheus text format.
+	 *
+	 * @param writer The writer to write the metrics to.
+	 */
+	public void writeTo(PrintWriter writer) {
+		webhooks.writeTo(writer);
+		builds.writeTo(writer);
+		phaseSeconds.writeTo(writer);
+		notifierSeconds.writeTo(writer);
+		historyQuerySeconds.writeTo(writer);
+		synchronized (gauges) {
+			for (Gauge gauge : gauges) {
+				writeHeader(writer, gauge.name(), gauge.help(), "gauge");
+				writer.println(gauge.name() + " " + gauge.value().getAsLong());
+			}
+		}
+
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		writeHeader(writer, "jvm_memory_heap_used_bytes", "Used heap memory", "gauge");
+		writer.println("jvm_memory_heap_used_bytes " + heap.getUsed());
+		writeHeader(writer, "jvm_memory_heap_committed_bytes", "Committed heap memory", "gauge");
+		writer.println("jvm_memory_heap_committed_bytes " + heap.getCommitted());
+		writeHeader(writer, "jvm_memory_heap_max_bytes", "Maximum heap memory, -1 if unlimited", "gauge");
+		writer.println("jvm_memory_heap_max_bytes " + heap.getMax());
+
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		writeHeader(writer, "jvm_gc_collections_total", "Garbage collections by collector", "counter");
+		for (GarbageCollectorMXBean collector : collectors) {
+			writer.println("jvm_gc_collections_total{gc=\"" + escape(collector.getName()) + "\"} "
+				+ collector.getCollectionCount());
+		}
+		writeHeader(writer, "jvm_gc_collection_seconds_total", "Time spent in garbage collection by collector",
+			"counter");
+		for (GarbageCollectorMXBean collector : collectors) {
+			writer.println("jvm_gc_collection_seconds_total{gc=\"" + escape(collector.getName()) + "\"} "
+				+ collector.getCollectionTime() / 1000.0);
+		}
+	}
+
+	/**
+	 * Writes the help and type lines of a metric.
+	 *
+	 * @param writer The writer to write the lines to.
+	 * @param name   Name of the metric.
+	 * @param help   Description of the metric.
+	 * @param type   Prometheus type of the metric.
+	 */
+	private static void writeHeader(PrintWriter writer, String name, String help, String type) {
+		writer.println("# HELP " + name + " " + help);
+		writer.println("# TYPE " + name + " " + type);
+	}
+
+	/**
+	 * Escapes a label value.
+	 *
+	 * @param value The label value.
+	 * @return The value with backslashes, quotes and line breaks escaped.
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * A gauge read when the metrics are served.
+	 *
+	 * @param name  Name of the gauge.
+	 * @param help  Description of the gauge.
+	 * @param value Supplies the current value.
+	 */
+	private record Gauge(String name, String help, LongSupplier value) {
+	}
+
+	/**
+	 * A counter with one label.
+	 */
+	static class Counter {
+		private final String name;
+		private final String help;
+		private final String label;
+		private final Map<String, LongAdder> values = new ConcurrentHashMap<>();
+
+		/**
+		 * Creates a new counter.
+		 *
+		 * @param name  Name of the counter.
+		 * @param help  Description of the counter.
+		 * @param label Name of the label.
+		 */
+		Counter(String name, String help, String label) {
+			this.name = name;
+			this.help = help;
+			this.label = label;
+		}
+
+		/**
+		 * Adds one to the counter.
+		 *
+		 * @param labelValue Value of the label.
+		 */
+		void inc(String labelValue) {
+			LongAdder value = values.get(labelValue);
+			if (value == null) {
+				value = values.computeIfAbsent(labelValue, key -> new LongAdder());
+			}
+			value.increment();
+		}
+
+		/**
+		 * Writes the counter in the Prometheus text format.
+		 *
+		 * @param writer The writer to write the counter to.
+		 */
+		void writeTo(PrintWriter writer) {
+			writeHeader(writer, name, help, "counter");
+			new TreeMap<>(values).forEach((labelValue, value) ->
+				writer.println(name + "{" + label + "=\"" + escape(labelValue) + "\"} " + value.sum()));
+		}
+	}
+
+	/**
+	 * A histogram of durations with one label and fixed buckets, from 5 ms to an hour.
+	 */
+	static class Histogram {
+		private final String name;
+		private final String help;
+		private final String label;
+		private final Map<String, Buckets> values = new ConcurrentHashMap<>();
+
+		/**
+		 * Creates a new histogram.
+		 *
+		 * @param name  Name of the histogram.
+		 * @param help  Description of the histogram.
+		 * @param label Name of the label.
+		 */
+		Histogram(String name, String help, String label) {
+			this.name = name;
+			this.help = help;
+			this.label = label;
+		}
+
+		/**
+		 * Records a duration.
+		 *
+		 * @param labelValue Value of the label.
+		 * @param seconds    The duration in seconds.
+		 */
+		void observe(String labelValue, double seconds) {
+			Buckets buckets = values.get(labelValue);
+			if (buckets == null) {
+				buckets = values.computeIfAbsent(labelValue, key -> new Buckets());
+			}
+			int bucket = 0;
+			while (bucket < DURATION_BUCKETS.length && seconds > DURATION_BUCKETS[bucket]) {
+				bucket++;
+			}
+			buckets.counts[bucket].increment();
+			buckets.sum.add(seconds);
+		}
+
+		/**
+		 * Writes the histogram in the Prometheus text format, with cumulative buckets.
+		 *
+		 * @param writer The writer to write the histogram to.
+		 */
+		void writeTo(PrintWriter writer) {
+			writeHeader(writer, name, help, "histogram");
+			new TreeMap<>(values).forEach((labelValue, buckets) -> {
+				String labels = label + "=\"" + escape(labelValue) + "\"";
+				long count = 0;
+				for (int i = 0; i < DURATION_BUCKETS.length; i++) {
+					count += buckets.counts[i].sum();
+					writer.println(name + "_bucket{" + labels + ",le=\"" + DURATION_BUCKETS[i] + "\"} " + count);
+				}
+				count += buckets.counts[DURATION_BUCKETS.length].sum();
+				writer.println(name + "_bucket{" + labels + ",le=\"+Inf\"} " + count);
+				writer.println(name + "_sum{" + labels + "} " + buckets.sum.sum());
+				writer.println(name + "_count{" + labels + "} " + count);
+			});
+		}
+
+		/**
+		 * Counts of one label value, with one more bucket for durations above the largest bound.
+		 */
+		private static class Buckets {
+			private final LongAdder[] counts = new LongAdder[DURATION_BUCKETS.length + 1];
+			private final DoubleAdder sum = new DoubleAdder();
+
+			Buckets() {
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] = new LongAdder();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package ci;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.transport.RefSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of bare mirror repositories, keyed by clone URL.
+ * Each push only fetches the new objects into the mirror, and build workspaces
+ * share the objects of the mirror instead of cloning the whole history again.
+ */
+public class MirrorCache {
+	private final Path cacheDir;
+	private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new mirror cache.
+	 *
+	 * @param cacheDir Directory the mirror repositories are kept in.
+	 */
+	public MirrorCache(Path cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Gets the directory of the mirror of a repository
+	 *
+	 * @param cloneUrl Url of the repository
+	 * @return Directory of the bare mirror repository
+	 */
+	public Path getMirrorPath(String cloneUrl) {
+		String name = cloneUrl.replaceAll("[^A-Za-z0-9._-]", "_");
+		return cacheDir.resolve(name + "-" + Integer.toHexString(cloneUrl.hashCode()));
+	}
+
+	/**
+	 * Updates the mirror of a repository and creates a workspace repository from it.
+	 * The branches of the repository are available as {@code origin/<branch>} in the workspace.
+	 * Nothing is checked out.
+	 *
+	 * @param cloneUrl  Url of the repository
+	 * @param directory Directory to create the workspace repository in
+	 * @return The workspace repository
+	 * @throws GitAPIException If fetching into the mirror or the workspace fails
+	 * @throws IOException     If the mirror or the workspace cannot be written
+	 */
+	public Git cloneFromMirror(String cloneUrl, File directory) throws GitAPIException, IOException {
+		ReentrantLock lock = locks.computeIfAbsent(cloneUrl, url -> new ReentrantLock());
+		lock.lock();
+		try {
+			File mirror = updateMirror(cloneUrl);
+
+			Git.init().setDirectory(directory).call().getRepository().close();
+			// Share the objects of the mirror instead of copying them into the workspace
+			Path alternates = directory.toPath().resolve(".git/objects/info/alternates");
+			Files.createDirectories(alternates.getParent());
+			Files.writeString(alternates, mirror.toPath().resolve("objects").toAbsolutePath() + "\n");
+
+			Git git = Git.open(directory);
+			// All objects are found through the alternates, so this only creates the refs
+			git.fetch()
+				.setRemote(mirror.getAbsoluteFile().toURI().toString())
+				.setRefSpecs(new RefSpec("+refs/heads/*:refs/remotes/origin/*"))
+				.call();
+			return git;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Creates the mirror of a repository if it does not exist yet, and fetches new commits into it.
+	 * Must be called with the lock of the repository held.
+	 *
+	 * @param cloneUrl Url of the repository
+	 * @return Directory of the mirror
+	 * @throws GitAPIException If the fetch fails
+	 * @throws IOException     If the mirror cannot be opened
+	 */
+	private File updateMirror(String cloneUrl) throws GitAPIException, IOException {
+		File mirror = getMirrorPath(cloneUrl).toFile();
+		if (!new File(mirror, "objects").exists()) {
+			System.out.println("Creating mirror of " + cloneUrl + " in " + mirror);
+			Git.init().setBare(true).setDirectory(mirror).call().getRepository().close();
+		}
+
+		Git mirrorGit = Git.open(mirror);
+		try {
+			System.out.println("Fetching " + cloneUrl + " into mirror");
+			mirrorGit.fetch()
+				.setRemote(cloneUrl)
+				.setRefSpecs(new RefSpec("+refs/heads/*:refs/heads/*"))
+				.setRemoveDeletedRefs(true)
+				.call();
+		} finally {
+			mirrorGit.getRepository().close();
+		}
+		return mirror;
+	}
+}
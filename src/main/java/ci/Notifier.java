@@ -12,6 +12,7 @@ import java.net.http.HttpResponse;
 public class Notifier {
 	private final PushPayload payload;
 	private final HttpClient client;
+	private final Metrics metrics;
 
 	/**
 	 * Creates a notifier object with push payload-specific details
@@ -20,8 +21,21 @@ public class Notifier {
 	 * @param client  The HTTP client
 	 */
 	public Notifier(PushPayload payload, HttpClient client) {
+		this(payload, client, new Metrics());
+	}
+
+	/**
+	 * Creates a notifier object with push payload-specific details, recording the latency and
+	 * response code of every request
+	 *
+	 * @param payload The push payload
+	 * @param client  The HTTP client
+	 * @param metrics The metrics of the server
+	 */
+	public Notifier(PushPayload payload, HttpClient client, Metrics metrics) {
 		this.payload = payload;
 		this.client = client;
+		this.metrics = metrics;
 	}
 
 	/**
@@ -52,7 +66,19 @@ public class Notifier {
 			.POST(HttpRequest.BodyPublishers.ofString(jsonData))
 			.build();
 
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		var event = new BuildEvents.StatusPosted();
+		event.begin();
+		long start = System.nanoTime();
+		HttpResponse<String> response;
+		try {
+			response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		} catch (IOException | InterruptedException e) {
+			metrics.observeNotifier("exception", System.nanoTime() - start);
+			commitStatusEvent(event, state, 0);
+			throw e;
+		}
+		metrics.observeNotifier(Integer.toString(response.statusCode()), System.nanoTime() - start);
+		commitStatusEvent(event, state, response.statusCode());
 
 		// Verify if commit status update was successful
 		if (response.statusCode() != 201) {
@@ -65,6 +91,23 @@ public class Notifier {
 		}
 	}
 
+	/**
+	 * Commits the flight recorder event of a commit status request, if it is being recorded.
+	 *
+	 * @param event        The event, begun before the request was sent.
+	 * @param state        The state of the commit status.
+	 * @param responseCode HTTP status code of the response, 0 if no response was received.
+	 */
+	private void commitStatusEvent(BuildEvents.StatusPosted event, CommitStatuses state, int responseCode) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.setPush(payload);
+			event.state = state.name();
+			event.responseCode = responseCode;
+			event.commit();
+		}
+	}
+
 	/**
 	 * Function that generates API Url to interact with GitHub API to generate commit status.
 	 *
@@ -0,0 +1,139 @@
+package ci;
+
+import ci.BuildInfo.PhaseTiming;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Measures the wall time and CPU time of the phases of a build.
+ * The CPU time is that of the thread running the phase, so work done by gradle daemons
+ * and other threads is only counted as wall time.
+ * A phase that runs several times, such as notifying GitHub, is measured as the sum of its runs.
+ * Every run of a phase is also emitted as a flight recorder event.
+ */
+public class PhaseTimer {
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final PushPayload payload;
+	private final Map<String, long[]> timings = new LinkedHashMap<>();
+
+	/**
+	 * Creates a new timer for a build without a known push.
+	 */
+	public PhaseTimer() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new timer for the build of a push.
+	 *
+	 * @param payload The push payload, added to the flight recorder events of the phases.
+	 */
+	public PhaseTimer(PushPayload payload) {
+		this.payload = payload;
+	}
+
+	/**
+	 * Starts measuring a phase on the current thread.
+	 * Phases may be nested, the time of the inner phase is then also counted in the outer one.
+	 *
+	 * @param phase Name of the phase.
+	 * @return The running phase, which is measured until it is closed.
+	 */
+	public Phase start(String phase) {
+		synchronized (timings) {
+			timings.putIfAbsent(phase, new long[2]);
+		}
+		var event = new BuildEvents.BuildPhase();
+		event.begin();
+		return new Phase(phase, System.nanoTime(), cpuTime(), event);
+	}
+
+	/**
+	 * Runs a phase on the current thread and measures it.
+	 *
+	 * @param phase  Name of the phase.
+	 * @param action The phase to run.
+	 * @param <T>    Type of the result of the phase.
+	 * @return The result of the phase.
+	 */
+	public <T> T time(String phase, Supplier<T> action) {
+		try (Phase ignored = start(phase)) {
+			return action.get();
+		}
+	}
+
+	/**
+	 * Records time spent in a phase that was not measured by the timer, such as waiting in the build queue.
+	 *
+	 * @param phase      Name of the phase.
+	 * @param wallMillis Wall time of the phase in milliseconds.
+	 * @param cpuMillis  CPU time of the phase in milliseconds.
+	 */
+	public void record(String phase, long wallMillis, long cpuMillis) {
+		synchronized (timings) {
+			long[] timing = timings.computeIfAbsent(phase, key -> new long[2]);
+			timing[0] += wallMillis;
+			timing[1] += cpuMillis;
+		}
+	}
+
+	/**
+	 * Gets the timings of the phases, in the order the phases were first started.
+	 *
+	 * @return Timing of each phase.
+	 */
+	public List<PhaseTiming> getTimings() {
+		List<PhaseTiming> result = new ArrayList<>();
+		synchronized (timings) {
+			timings.forEach((phase, timing) -> result.add(new PhaseTiming(phase, timing[0], timing[1])));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the CPU time of the current thread.
+	 *
+	 * @return CPU time in nanoseconds, 0 if the JVM does not measure it.
+	 */
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * A phase being measured, to be closed on the thread that started it.
+	 */
+	public class Phase implements AutoCloseable {
+		private final String name;
+		private final long wallStart;
+		private final long cpuStart;
+		private final BuildEvents.BuildPhase event;
+
+		private Phase(String name, long wallStart, long cpuStart, BuildEvents.BuildPhase event) {
+			this.name = name;
+			this.wallStart = wallStart;
+			this.cpuStart = cpuStart;
+			this.event = event;
+		}
+
+		/**
+		 * Stops measuring the phase and adds its time to the timings.
+		 */
+		@Override
+		public void close() {
+			record(name, (System.nanoTime() - wallStart) / 1_000_000, (cpuTime() - cpuStart) / 1_000_000);
+			event.end();
+			if (event.shouldCommit()) {
+				event.setPush(payload);
+				event.phase = name;
+				event.commit();
+			}
+		}
+	}
+}
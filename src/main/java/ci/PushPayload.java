@@ -5,7 +5,9 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -18,8 +20,16 @@ public class PushPayload {
 	private final String repo;
 	private final String cloneUrl;
 	private final String branch;
+	private final String headSha;
+	private final String before;
+	private final boolean created;
+	private final boolean forced;
+	private final boolean deleted;
+	private final String treeHash;
 	private final LocalDateTime pushedAt;
 	private final Commit[] commits;
+	private final Set<String> changedFiles = new LinkedHashSet<>();
+	private final Set<String> removedFiles = new LinkedHashSet<>();
 	private final Sender sender;
 
 	/**
@@ -35,6 +45,14 @@ public class PushPayload {
 		repo = payloadNode.get("repository").get("full_name").asText();
 		cloneUrl = payloadNode.get("repository").get("clone_url").asText();
 		branch = payloadNode.get("ref").asText().replace("refs/heads/", "");
+		headSha = payloadNode.get("after").asText();
+		String beforeSha = payloadNode.path("before").asText();
+		before = beforeSha.isEmpty() || beforeSha.matches("0+") ? null : beforeSha;
+		created = payloadNode.path("created").asBoolean();
+		forced = payloadNode.path("forced").asBoolean();
+		deleted = payloadNode.path("deleted").asBoolean();
+		String treeId = payloadNode.path("head_commit").path("tree_id").asText();
+		treeHash = treeId.isEmpty() ? null : treeId;
 
 		long pushedAtUnixTimestamp = payloadNode.get("repository").get("pushed_at").asLong();
 		pushedAt = LocalDateTime.ofInstant(Instant.ofEpochSecond(pushedAtUnixTimestamp), ZoneId.systemDefault());
@@ -58,6 +76,15 @@ public class PushPayload {
 			for (JsonNode modifiedFileNode : commitNode.get("modified")) {
 				modifiedFilesList.add(modifiedFileNode.asText());
 			}
+			changedFiles.addAll(modifiedFilesList);
+			for (JsonNode addedFileNode : commitNode.path("added")) {
+				changedFiles.add(addedFileNode.asText());
+				removedFiles.remove(addedFileNode.asText());
+			}
+			for (JsonNode removedFileNode : commitNode.path("removed")) {
+				changedFiles.add(removedFileNode.asText());
+				removedFiles.add(removedFileNode.asText());
+			}
 			String[] modifiedFiles = modifiedFilesList.toArray(new String[0]);
 			commits[commitIndex++] = new Commit(sha, message, author, url, modifiedFiles);
 		}
@@ -87,6 +114,60 @@ public class PushPayload {
 		return branch;
 	}
 
+	/**
+	 * Gets head commit
+	 *
+	 * @return Hash of the commit the branch points to after the push
+	 */
+	public String getHeadSha() {
+		return headSha;
+	}
+
+	/**
+	 * Gets previous commit
+	 *
+	 * @return Hash of the commit the branch pointed to before the push, or null if the push created the branch
+	 */
+	public String getBefore() {
+		return before;
+	}
+
+	/**
+	 * Checks whether the push created the branch
+	 *
+	 * @return true if the branch did not exist before the push, false otherwise
+	 */
+	public boolean isCreated() {
+		return created;
+	}
+
+	/**
+	 * Checks whether the push was forced
+	 *
+	 * @return true if the push rewrote the history of the branch, false otherwise
+	 */
+	public boolean isForced() {
+		return forced;
+	}
+
+	/**
+	 * Checks whether the push deleted the branch
+	 *
+	 * @return true if the branch no longer exists after the push, false otherwise
+	 */
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * Gets tree hash
+	 *
+	 * @return Hash of the git tree of the head commit, or null if the push has no head commit
+	 */
+	public String getTreeHash() {
+		return treeHash;
+	}
+
 	/**
 	 * Gets clone url
 	 *
@@ -114,6 +195,24 @@ public class PushPayload {
 		return commits;
 	}
 
+	/**
+	 * Gets changed files
+	 *
+	 * @return Paths of the files added, modified or removed by any commit of the push
+	 */
+	public Set<String> getChangedFiles() {
+		return changedFiles;
+	}
+
+	/**
+	 * Gets removed files
+	 *
+	 * @return Paths of the files removed by the push and not added back by a later commit
+	 */
+	public Set<String> getRemovedFiles() {
+		return removedFiles;
+	}
+
 	/**
 	 * Gets sender
 	 *
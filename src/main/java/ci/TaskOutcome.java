@@ -0,0 +1,10 @@
+package ci;
+
+/**
+ * Possible outcomes of a gradle task.
+ * An up-to-date task was not run because its outputs were already there, a task from cache had its
+ * outputs loaded from the build cache, and a skipped task had nothing to do or was disabled.
+ */
+public enum TaskOutcome {
+	executed, upToDate, fromCache, skipped, failed
+}
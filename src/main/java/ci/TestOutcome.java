@@ -0,0 +1,10 @@
+package ci;
+
+/**
+ * Possible outcomes of a single test.
+ * A flaky test failed, but passed when it was retried. A quarantined test is suspected to be flaky
+ * and kept failing when retried, but does not fail the build.
+ */
+public enum TestOutcome {
+	passed, failed, skipped, flaky, quarantined
+}
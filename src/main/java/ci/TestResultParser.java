@@ -0,0 +1,166 @@
+package ci;
+
+import ci.BuildInfo.TestResult;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Reads the results of single tests from the JUnit XML files Gradle writes to build/test-results.
+ * The files are streamed, so that the output captured from large suites is never held in memory.
+ */
+public class TestResultParser {
+	private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+	private TestResultParser() {
+	}
+
+	/**
+	 * Creates the factory of the XML readers, which does not resolve external entities.
+	 *
+	 * @return The factory.
+	 */
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * Reads the test results of a project and its subprojects.
+	 *
+	 * @param projectDir The directory of the project.
+	 * @return The results of all tests, empty if the tests did not run.
+	 * @throws IOException If a result file cannot be read or is invalid.
+	 */
+	public static List<TestResult> readTestResults(Path projectDir) throws IOException {
+		List<Path> resultFiles;
+		try (Stream<Path> files = Files.walk(projectDir)) {
+			resultFiles = files.filter(file -> isResultFile(projectDir.relativize(file)))
+				.sorted()
+				.toList();
+		}
+
+		List<TestResult> results = new ArrayList<>();
+		for (Path resultFile : resultFiles) {
+			try (InputStream input = Files.newInputStream(resultFile)) {
+				results.addAll(parse(input));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Checks whether a file is a result file of a test task: an XML file directly in
+	 * build/test-results/&lt;task&gt; of the root project or a subproject.
+	 * Files below source sets, build outputs and hidden directories are not, even if their path matches,
+	 * as they are fixtures or copies rather than results of this build.
+	 *
+	 * @param path Path of the file, relative to the directory of the root project.
+	 * @return true if the file holds test results, false otherwise.
+	 */
+	static boolean isResultFile(Path path) {
+		int count = path.getNameCount();
+		if (count < 4 || !path.getFileName().toString().endsWith(".xml")
+			|| !path.getName(count - 3).toString().equals("test-results")
+			|| !path.getName(count - 4).toString().equals("build")) {
+			return false;
+		}
+		for (int i = 0; i < count - 4; i++) {
+			String name = path.getName(i).toString();
+			if (name.equals("src") || name.equals("build") || name.startsWith(".")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the test results of a JUnit XML file.
+	 *
+	 * @param input Stream of the XML file.
+	 * @return The results of the test cases in the file.
+	 * @throws IOException If the stream cannot be read or is not valid XML.
+	 */
+	public static List<TestResult> parse(InputStream input) throws IOException {
+		List<TestResult> results = new ArrayList<>();
+		try {
+			XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(input);
+			try {
+				String className = null;
+				String name = null;
+				double duration = 0;
+				TestOutcome outcome = null;
+				String failureMessage = null;
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						switch (reader.getLocalName()) {
+							case "testcase" -> {
+								className = reader.getAttributeValue(null, "classname");
+								name = reader.getAttributeValue(null, "name");
+								duration = parseDuration(reader.getAttributeValue(null, "time"));
+								outcome = TestOutcome.passed;
+								failureMessage = null;
+							}
+							case "failure", "error" -> {
+								if (outcome != null) {
+									outcome = TestOutcome.failed;
+									String message = reader.getAttributeValue(null, "message");
+									failureMessage = message != null ? message : reader.getAttributeValue(null, "type");
+								}
+							}
+							case "skipped" -> {
+								if (outcome != null) {
+									outcome = TestOutcome.skipped;
+								}
+							}
+							default -> {
+								// Captured output and properties are skipped without being read into memory
+							}
+						}
+					} else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("testcase")) {
+						results.add(new TestResult(className, name, duration, outcome, failureMessage));
+						outcome = null;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		return results;
+	}
+
+	/**
+	 * Parses the duration of a test case.
+	 * Some writers format it for the locale: a comma is a grouping separator if the value also has a period,
+	 * as in "1,234.5", or several commas, and a decimal separator otherwise, as in "1,5".
+	 *
+	 * @param time Value of the time attribute in seconds, possibly missing.
+	 * @return The duration in seconds, 0 if it is missing or invalid.
+	 */
+	static double parseDuration(String time) {
+		if (time == null) {
+			return 0;
+		}
+		try {
+			boolean grouping = time.indexOf('.') != -1 || time.indexOf(',') != time.lastIndexOf(',');
+			return Double.parseDouble(grouping ? time.replace(",", "") : time.replace(',', '.'));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
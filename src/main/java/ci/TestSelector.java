@@ -0,0 +1,342 @@
+package ci;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Selects the test classes affected by the files changed in a push.
+ * Changed paths are mapped to the source sets of the (sub)projects they belong to, and changed
+ * classes to the test classes that referenced them in earlier builds.
+ * The full suite is run when the selection cannot be trusted: when the changes of the push are not
+ * fully known, when build scripts, resources or unknown source sets change, when a new test class
+ * is added, and periodically.
+ */
+public class TestSelector {
+	/**
+	 * Number of commits GitHub lists at most in the payload of a push.
+	 */
+	public static final int MAX_PAYLOAD_COMMITS = 20;
+
+	private static final Pattern SOURCE_PATTERN =
+		Pattern.compile("(?:(.*)/)?src/([^/]+)/(?:java|kotlin|groovy)/(.+)\\.(?:java|kt|groovy)");
+	private static final Pattern DESCRIPTOR_PATTERN = Pattern.compile("L([\\w/$]+);");
+	private static final Set<String> TEST_ANNOTATIONS = Set.of(
+		"Lorg/junit/Test;",
+		"Lorg/junit/jupiter/api/Test;",
+		"Lorg/junit/jupiter/params/ParameterizedTest;",
+		"Lorg/junit/jupiter/api/RepeatedTest;",
+		"Lorg/junit/jupiter/api/TestFactory;",
+		"Lorg/testng/annotations/Test;");
+
+	private final int fullSuiteEvery;
+
+	/**
+	 * Creates a new test selector.
+	 *
+	 * @param fullSuiteEvery Number of builds of a repository after which the full suite is run again.
+	 */
+	public TestSelector(int fullSuiteEvery) {
+		this.fullSuiteEvery = fullSuiteEvery;
+	}
+
+	/**
+	 * A source file of a project.
+	 *
+	 * @param project   Path of the (sub)project, for example ":" or ":app"
+	 * @param sourceSet Name of the source set, for example "main" or "test"
+	 * @param className Fully qualified name of the top level class of the file
+	 */
+	public record SourceFile(String project, String sourceSet, String className) {
+	}
+
+	/**
+	 * The files a push changed, as found by comparing the commit before the push with the pushed commit.
+	 *
+	 * @param changedFiles Paths of the files added, modified or removed by the push
+	 * @param removedFiles Paths of the files removed by the push
+	 */
+	public record Changes(Set<String> changedFiles, Set<String> removedFiles) {
+	}
+
+	/**
+	 * Checks whether the changes of a push can be found by comparing the commit before it with the pushed commit.
+	 * They cannot for new branches and force pushes, which have no commit before them on the branch, for pushes
+	 * whose payload was cut off, and for builds that also stand in for older pushes of the branch that were
+	 * superseded before they were tested.
+	 *
+	 * @param payload   The payload of the push
+	 * @param coalesced true if the build also stands in for superseded pushes, false otherwise
+	 * @return true if the changes of the push can be compared, false if the full suite has to run
+	 */
+	public static boolean isComparable(PushPayload payload, boolean coalesced) {
+		return !payload.isCreated() && !payload.isForced() && payload.getBefore() != null
+			&& payload.getCommits().length < MAX_PAYLOAD_COMMITS && !coalesced;
+	}
+
+	/**
+	 * Selects the test classes to run for a push.
+	 *
+	 * @param changes              The files changed by the push, or null if they are not known
+	 * @param buildsSinceFullSuite Number of builds of the repository since the full suite last ran
+	 * @param testDependencies     Classes referenced by each test class in earlier builds
+	 * @return Names of the test classes to run, or null to run the full suite
+	 */
+	public Set<String> select(Changes changes, int buildsSinceFullSuite, Map<String, Set<String>> testDependencies) {
+		if (changes == null || buildsSinceFullSuite + 1 >= fullSuiteEvery || testDependencies.isEmpty()) {
+			return null;
+		}
+
+		Set<String> changedClasses = new HashSet<>();
+		for (String path : changes.changedFiles()) {
+			if (isBuildScript(path) || path.contains("src/") && parseSourceFile(path) == null) {
+				// Build logic or resources, which may affect any test
+				return null;
+			}
+			SourceFile sourceFile = parseSourceFile(path);
+			if (sourceFile == null) {
+				// Outside of the source sets, for example documentation
+				continue;
+			}
+			if (!sourceFile.sourceSet().equals("main") && !sourceFile.sourceSet().equals("test")) {
+				return null;
+			}
+			if (sourceFile.sourceSet().equals("test") && !changes.removedFiles().contains(path)
+				&& !testDependencies.containsKey(sourceFile.className())
+				&& testDependencies.values().stream().noneMatch(deps -> deps.contains(sourceFile.className()))) {
+				// A test class, or a helper, that no earlier build has seen
+				return null;
+			}
+			changedClasses.add(sourceFile.className());
+		}
+
+		Set<String> selected = referencingTests(changedClasses, testDependencies);
+		for (String path : changes.removedFiles()) {
+			SourceFile sourceFile = parseSourceFile(path);
+			if (sourceFile != null) {
+				selected.remove(sourceFile.className());
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Finds the test classes changed by a push, or that reference a class changed by it.
+	 * Unlike {@link TestSelector#select(Changes, int, Map)}, this never falls back to the
+	 * full suite, and includes changed classes of the test source sets that no earlier build has seen.
+	 *
+	 * @param changedFiles     Paths of the files added, modified or removed by the push
+	 * @param testDependencies Classes referenced by each test class in earlier builds
+	 * @return Names of the changed test classes
+	 */
+	public static Set<String> changedTests(Collection<String> changedFiles, Map<String, Set<String>> testDependencies) {
+		Set<String> changedClasses = new HashSet<>();
+		Set<String> changedTests = new TreeSet<>();
+		for (String path : changedFiles) {
+			SourceFile sourceFile = parseSourceFile(path);
+			if (sourceFile != null) {
+				changedClasses.add(sourceFile.className());
+				if (sourceFile.sourceSet().equals("test")) {
+					changedTests.add(sourceFile.className());
+				}
+			}
+		}
+		changedTests.addAll(referencingTests(changedClasses, testDependencies));
+		return changedTests;
+	}
+
+	/**
+	 * Finds the test classes that are, or reference, one of the given classes.
+	 *
+	 * @param classes          Names of the classes
+	 * @param testDependencies Classes referenced by each test class
+	 * @return Names of the test classes
+	 */
+	private static Set<String> referencingTests(Set<String> classes, Map<String, Set<String>> testDependencies) {
+		Set<String> referencing = new TreeSet<>();
+		for (Map.Entry<String, Set<String>> entry : testDependencies.entrySet()) {
+			String testClass = entry.getKey();
+			if (classes.contains(testClass) || entry.getValue().stream().anyMatch(classes::contains)) {
+				referencing.add(testClass);
+			}
+		}
+		return referencing;
+	}
+
+	/**
+	 * Checks whether a changed path is part of the build logic.
+	 *
+	 * @param path Path of the file in the repository
+	 * @return true if the file can change how any project is built, false otherwise
+	 */
+	static boolean isBuildScript(String path) {
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		return name.endsWith(".gradle") || name.endsWith(".gradle.kts") || name.equals("gradle.properties")
+			|| path.startsWith("gradle/") || path.startsWith("buildSrc/") || name.equals("gradlew")
+			|| name.equals("gradlew.bat") || name.equals("libs.versions.toml");
+	}
+
+	/**
+	 * Maps a path to the project, source set and class it belongs to.
+	 *
+	 * @param path Path of the file in the repository
+	 * @return The source file, or null if the file is not a JVM source file
+	 */
+	static SourceFile parseSourceFile(String path) {
+		Matcher matcher = SOURCE_PATTERN.matcher(path);
+		if (!matcher.matches()) {
+			return null;
+		}
+		String projectDir = matcher.group(1);
+		String project = projectDir == null ? ":" : ":" + projectDir.replace('/', ':');
+		return new SourceFile(project, matcher.group(2), matcher.group(3).replace('/', '.'));
+	}
+
+	/**
+	 * Reads which classes the compiled test classes of a project reference.
+	 *
+	 * @param projectDir The directory of the project.
+	 * @return Names of the referenced classes of each test class
+	 * @throws IOException If the class files cannot be read.
+	 */
+	public static Map<String, Set<String>> readTestDependencies(Path projectDir) throws IOException {
+		List<Path> testClassDirs;
+		try (Stream<Path> dirs = Files.walk(projectDir)) {
+			testClassDirs = dirs.filter(dir -> dir.endsWith("test") && dir.getParent() != null
+					&& dir.getParent().getParent() != null && dir.getParent().getParent().endsWith("build/classes"))
+				.toList();
+		}
+
+		// References of nested classes count as references of their top level class
+		Map<String, Set<String>> references = new HashMap<>();
+		Set<String> testClasses = new HashSet<>();
+		for (Path testClassDir : testClassDirs) {
+			List<Path> classFiles;
+			try (Stream<Path> files = Files.walk(testClassDir)) {
+				classFiles = files.filter(file -> file.toString().endsWith(".class")).toList();
+			}
+			for (Path classFile : classFiles) {
+				String name = topLevelClass(testClassDir.relativize(classFile).toString()
+					.replace(".class", "").replace(classFile.getFileSystem().getSeparator(), "."));
+				List<String> constants;
+				try (InputStream input = Files.newInputStream(classFile)) {
+					constants = readUtf8Constants(input);
+				}
+				Set<String> classReferences = references.computeIfAbsent(name, key -> new HashSet<>());
+				for (String constant : constants) {
+					if (TEST_ANNOTATIONS.contains(constant)) {
+						testClasses.add(name);
+					}
+					addClassReferences(constant, classReferences);
+				}
+			}
+		}
+
+		// Test classes also depend on what the helpers of the test source set reference
+		Map<String, Set<String>> testDependencies = new HashMap<>();
+		for (String testClass : testClasses) {
+			Set<String> dependencies = new HashSet<>(references.get(testClass));
+			List<String> pending = new ArrayList<>(dependencies);
+			while (!pending.isEmpty()) {
+				Set<String> helperReferences = references.get(pending.remove(pending.size() - 1));
+				if (helperReferences != null) {
+					for (String reference : helperReferences) {
+						if (dependencies.add(reference)) {
+							pending.add(reference);
+						}
+					}
+				}
+			}
+			testDependencies.put(testClass, dependencies);
+		}
+		return testDependencies;
+	}
+
+	/**
+	 * Adds the classes a class file constant can refer to: internal class names and type descriptors.
+	 *
+	 * @param constant   A UTF-8 constant of a class file
+	 * @param references The set to add the referenced classes to
+	 */
+	private static void addClassReferences(String constant, Set<String> references) {
+		Matcher matcher = DESCRIPTOR_PATTERN.matcher(constant);
+		boolean descriptor = false;
+		while (matcher.find()) {
+			descriptor = true;
+			addReference(matcher.group(1), references);
+		}
+		if (!descriptor && constant.matches("[\\w$]+(/[\\w$]+)+")) {
+			addReference(constant, references);
+		}
+	}
+
+	/**
+	 * Adds a referenced class, unless it belongs to the JDK.
+	 *
+	 * @param internalName Internal name of the class, for example "ci/Builder$BuildResults"
+	 * @param references   The set to add the referenced class to
+	 */
+	private static void addReference(String internalName, Set<String> references) {
+		if (!internalName.startsWith("java/") && !internalName.startsWith("javax/")) {
+			references.add(topLevelClass(internalName.replace('/', '.')));
+		}
+	}
+
+	/**
+	 * Gets the top level class of a class name.
+	 *
+	 * @param className Fully qualified name of a class, possibly nested
+	 * @return Name of the top level class
+	 */
+	private static String topLevelClass(String className) {
+		int nested = className.indexOf('$');
+		return nested == -1 ? className : className.substring(0, nested);
+	}
+
+	/**
+	 * Reads the UTF-8 constants of the constant pool of a class file,
+	 * which hold the names and descriptors of every class it references.
+	 *
+	 * @param classFile Stream of the class file
+	 * @return The UTF-8 constants
+	 * @throws IOException If the class file cannot be read or is invalid
+	 */
+	static List<String> readUtf8Constants(InputStream classFile) throws IOException {
+		DataInputStream input = new DataInputStream(classFile);
+		if (input.readInt() != 0xCAFEBABE) {
+			throw new IOException("Not a class file");
+		}
+		input.skipBytes(4);
+		int constantCount = input.readUnsignedShort();
+		List<String> constants = new ArrayList<>();
+		for (int i = 1; i < constantCount; i++) {
+			int tag = input.readUnsignedByte();
+			switch (tag) {
+				case 1 -> constants.add(input.readUTF());
+				case 7, 8, 16, 19, 20 -> input.skipBytes(2);
+				case 15 -> input.skipBytes(3);
+				case 3, 4, 9, 10, 11, 12, 17, 18 -> input.skipBytes(4);
+				case 5, 6 -> {
+					// Longs and doubles take up two entries
+					input.skipBytes(8);
+					i++;
+				}
+				default -> throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+		return constants;
+	}
+}
@@ -0,0 +1,99 @@
+package ci;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Splits test classes into shards of about equal duration, so that the shards can be run in parallel.
+ * Classes are assigned longest first to the shard with the least total duration so far.
+ * Classes without a recorded duration are assumed to take as long as the average class.
+ */
+public class TestSharder {
+
+	private TestSharder() {
+	}
+
+	/**
+	 * Splits test classes into shards.
+	 *
+	 * @param testClasses   Names of the test classes to split.
+	 * @param testDurations Recorded duration in seconds of each test class.
+	 * @param shards        Maximum number of shards.
+	 * @return The non-empty shards, each with the names of its test classes.
+	 */
+	public static List<Set<String>> shard(Collection<String> testClasses, Map<String, Double> testDurations,
+										  int shards) {
+		double defaultDuration = testClasses.stream()
+			.filter(testDurations::containsKey)
+			.mapToDouble(testDurations::get)
+			.average()
+			.orElse(1);
+
+		List<String> longestFirst = new ArrayList<>(new TreeSet<>(testClasses));
+		longestFirst.sort(Comparator.comparingDouble(
+			(String testClass) -> testDurations.getOrDefault(testClass, defaultDuration)).reversed());
+
+		PriorityQueue<Shard> leastLoaded = new PriorityQueue<>(
+			Comparator.comparingDouble(Shard::getDuration).thenComparingInt(Shard::getIndex));
+		List<Shard> all = new ArrayList<>();
+		for (int i = 0; i < Math.min(shards, longestFirst.size()); i++) {
+			Shard shard = new Shard(i);
+			leastLoaded.add(shard);
+			all.add(shard);
+		}
+		for (String testClass : longestFirst) {
+			Shard shard = leastLoaded.poll();
+			shard.add(testClass, testDurations.getOrDefault(testClass, defaultDuration));
+			leastLoaded.add(shard);
+		}
+
+		return all.stream().map(Shard::getTestClasses).toList();
+	}
+
+	/**
+	 * A shard being filled with test classes.
+	 */
+	private static class Shard {
+		private final int index;
+		private final Set<String> testClasses = new TreeSet<>();
+		private double duration = 0;
+
+		/**
+		 * Creates a new empty shard.
+		 *
+		 * @param index Index of the shard, used to break ties between shards of equal duration.
+		 */
+		Shard(int index) {
+			this.index = index;
+		}
+
+		/**
+		 * Adds a test class to the shard.
+		 *
+		 * @param testClass Name of the test class.
+		 * @param duration  Expected duration of the test class in seconds.
+		 */
+		void add(String testClass, double duration) {
+			testClasses.add(testClass);
+			this.duration += duration;
+		}
+
+		int getIndex() {
+			return index;
+		}
+
+		double getDuration() {
+			return duration;
+		}
+
+		Set<String> getTestClasses() {
+			return testClasses;
+		}
+	}
+}
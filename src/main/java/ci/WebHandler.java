@@ -1,64 +1,66 @@
 package ci;
 
+import ci.BuildInfo.BuildSummary;
+import ci.BuildInfo.PhaseTiming;
+import ci.BuildInfo.TaskTiming;
+import ci.HistoryDAO.BuildFilter;
 import ci.PushPayload.Commit;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 /**
  * WebHandler class to handle web requests.
  */
 public class WebHandler {
-	private final List<BuildInfo> history;
+	private static final int SLOWEST_TASKS = 10;
 
 	/**
-	 * Creates a new WebHandler object.
+	 * Returns a string representation of the build info of a build.
 	 *
-	 * @param history List of build history
-	 */
-	public WebHandler(List<BuildInfo> history) {
-		this.history = history;
-	}
-
-	/**
-	 * Returns a string representation of the build info for a specific build id.
-	 *
-	 * @param buildId The id of the build
+	 * @param build The build
 	 * @return A string representation of the build info
 	 */
-	public String buildInfoToHtmlString(int buildId) {
+	public static String buildInfoToHtmlString(BuildInfo build) {
 		StringBuilder sb = new StringBuilder();
-
-		BuildInfo build = null;
-		for (BuildInfo b : history) {
-			if (b.getId() == buildId) {
-				build = b;
-				break;
-			}
-		}
-		if (build == null) {
-			return "<strong>Build not found</strong>";
-		}
-
 		sb.append("<strong>Build Info for build " + build.getId() + " on branch " + build.getBranch() + "</strong><br/>");
 		sb.append("Sender:<br/>");
-		sb.append("&emsp;<img src=\"" + build.getSender().avatarUrl() + "\" alt=\"Avatar\" width=\"50\" height=\"50\"><br/>");
-		sb.append("&emsp;Name: " + build.getSender().name() + "<br/>");
-		sb.append("&emsp;URL: " + build.getSender().url() + "<br/>");
+		if (build.getSender() == null) {
+			// The sender may be missing from the database
+			sb.append("&emsp;Unknown<br/>");
+		} else {
+			sb.append("&emsp;<img src=\"" + build.getSender().avatarUrl() + "\" alt=\"Avatar\" width=\"50\" height=\"50\"><br/>");
+			sb.append("&emsp;Name: " + build.getSender().name() + "<br/>");
+			sb.append("&emsp;URL: " + build.getSender().url() + "<br/>");
+		}
 
 		sb.append("<br/>Commits: <br/>");
 		for (Commit commit : build.getCommitList()) {
 			sb.append("&emsp;Id: " + commit.sha() + "<br/>");
 			sb.append("&emsp;Message: " + commit.message() + "<br/>");
-			sb.append("&emsp;Author: " + commit.author().name() + "<br/>");
-			sb.append("&emsp;&emsp;Name: " + commit.author().userName() + ".<br/>");
-			sb.append("&emsp;&emsp;Email: " + commit.author().email() + ".<br/><br/>");
+			if (commit.author() == null) {
+				sb.append("&emsp;Author: Unknown<br/><br/>");
+			} else {
+				sb.append("&emsp;Author: " + commit.author().name() + "<br/>");
+				sb.append("&emsp;&emsp;Name: " + commit.author().userName() + ".<br/>");
+				sb.append("&emsp;&emsp;Email: " + commit.author().email() + ".<br/><br/>");
+			}
 		}
 		sb.append("Build Details: <br/>");
 		sb.append("&emsp;Time: " + build.getBuildDate() + "<br/>");
 
 
 		CommitStatuses status = CommitStatuses.values()[build.getBuildDetails().buildResult()];
-		switch (status) {
+		if (build.getOutcome() == BuildOutcome.superseded) {
+			sb.append("&emsp;Result: Superseded by a newer push <br/>");
+		} else if (build.getOutcome() == BuildOutcome.timedOut) {
+			sb.append("&emsp;Result: " + (status == CommitStatuses.error ? "Tests" : "Build") + " timed out <br/>");
+		} else if (build.getOutcome() == BuildOutcome.infrastructureFailure) {
+			sb.append("&emsp;Result: Checkout or Gradle failed, the push was not built <br/>");
+		} else switch (status) {
 			case success:
 				sb.append("&emsp;Result: success <br/>");
 				break;
@@ -73,11 +75,161 @@ public class WebHandler {
 
 				break;
 		}
+		if (build.getOutcome() == BuildOutcome.cached) {
+			sb.append("&emsp;Reused from an earlier build of tree " + build.getTreeHash() + " <br/>");
+		}
 		sb.append("&emsp;Log: " + build.getBuildDetails().buildLog() + "<br/>");
 		sb.append("<br/>Test Details: <br/>");
 		sb.append("&emsp;Total: " + build.getTestDetails().totalTests() + "<br/>");
 		sb.append("&emsp;Passed: " + build.getTestDetails().numOfPassedTests() + "<br/>");
 		sb.append("&emsp;Log: " + build.getTestDetails().testLog() + "<br/>");
+		if (!build.getPhaseTimings().isEmpty()) {
+			sb.append("<br/>Phase Timings: <br/>");
+			for (PhaseTiming timing : build.getPhaseTimings()) {
+				sb.append("&emsp;" + timing.phase() + ": " + timing.wallMillis() + " ms (CPU " + timing.cpuMillis()
+					+ " ms)<br/>");
+			}
+		}
+		if (!build.getTaskTimings().isEmpty()) {
+			sb.append(taskTimingsToHtmlString(build.getTaskTimings()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a link to the page of a build, with its branch, result and date.
+	 *
+	 * @param build The summary of the build
+	 * @return A string representation of the build summary
+	 */
+	public static String buildSummaryToHtmlString(BuildSummary build) {
+		String result = build.outcome() == BuildOutcome.built
+			? CommitStatuses.values()[build.buildResult()].toString()
+			: build.outcome().toString();
+		return "<a href=\"/build_" + build.id() + "/\">Build Info " + build.id() + " - Branch: " + escapeHtml(build.branch())
+			+ "</a> - " + result + " - " + build.buildDate() + "<br>";
+	}
+
+	/**
+	 * Returns a form to filter the builds listed on the main page by branch, outcome, sender and date.
+	 *
+	 * @param filter The current filter, shown in the form
+	 * @return A string representation of the filter form
+	 */
+	public static String buildFilterToHtmlString(BuildFilter filter) {
+		StringBuilder sb = new StringBuilder("<form method=\"get\" action=\"/\">");
+		sb.append("Branch: <input name=\"branch\" value=\"" + escapeHtml(filter.branch()) + "\"> ");
+		sb.append("Outcome: <select name=\"outcome\"><option value=\"\">any</option>");
+		for (BuildOutcome outcome : BuildOutcome.values()) {
+			sb.append("<option" + (outcome == filter.outcome() ? " selected" : "") + ">" + outcome + "</option>");
+		}
+		sb.append("</select> ");
+		sb.append("Sender: <input name=\"sender\" value=\"" + escapeHtml(filter.sender()) + "\"> ");
+		sb.append("From: <input type=\"date\" name=\"from\" value=\"" + escapeHtml(filter.fromDate()) + "\"> ");
+		sb.append("Before: <input type=\"date\" name=\"to\" value=\"" + escapeHtml(filter.toDate()) + "\"> ");
+		sb.append("<input type=\"submit\" value=\"Filter\"></form><br>");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns links to the pages of newer and older builds matching a filter.
+	 *
+	 * @param filter    The filter on the builds
+	 * @param newerThan ID of the newest build on the current page, or -1 if there are no newer builds
+	 * @param olderThan ID of the oldest build on the current page, or -1 if there are no older builds
+	 * @return A string representation of the page navigation
+	 */
+	public static String pageLinksToHtmlString(BuildFilter filter, int newerThan, int olderThan) {
+		List<String> parameters = new ArrayList<>();
+		addParameter(parameters, "branch", filter.branch());
+		addParameter(parameters, "outcome", filter.outcome() == null ? null : filter.outcome().name());
+		addParameter(parameters, "sender", filter.sender());
+		addParameter(parameters, "from", filter.fromDate());
+		addParameter(parameters, "to", filter.toDate());
+		String query = "/?" + String.join("&amp;", parameters) + (parameters.isEmpty() ? "" : "&amp;");
+
+		StringBuilder sb = new StringBuilder("<br>");
+		if (newerThan != -1) {
+			sb.append("<a href=\"" + query + "after=" + newerThan + "\">Newer builds</a> ");
+		}
+		if (olderThan != -1) {
+			sb.append("<a href=\"" + query + "before=" + olderThan + "\">Older builds</a>");
+		}
+		sb.append("<br>");
 		return sb.toString();
 	}
+
+	/**
+	 * Adds a parameter to the query of a link, unless it has no value.
+	 *
+	 * @param parameters The encoded parameters of the query
+	 * @param name       Name of the parameter
+	 * @param value      Value of the parameter, or null
+	 */
+	private static void addParameter(List<String> parameters, String name, String value) {
+		if (value != null) {
+			parameters.add(name + "=" + escapeHtml(URLEncoder.encode(value, StandardCharsets.UTF_8)));
+		}
+	}
+
+	/**
+	 * Escapes text written into an HTML attribute or element.
+	 *
+	 * @param text The text, or null
+	 * @return The text with markup characters escaped, or an empty string for null
+	 */
+	private static String escapeHtml(String text) {
+		if (text == null) {
+			return "";
+		}
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	/**
+	 * Returns a string representation of the gradle tasks of a build: the number of tasks with each outcome,
+	 * the share of tasks that did not have to run or were loaded from the build cache, and the slowest tasks.
+	 *
+	 * @param taskTimings Time spent in each task of the build
+	 * @return A string representation of the task timings
+	 */
+	private static String taskTimingsToHtmlString(List<TaskTiming> taskTimings) {
+		StringBuilder sb = new StringBuilder();
+		int[] counts = new int[TaskOutcome.values().length];
+		for (TaskTiming timing : taskTimings) {
+			counts[timing.outcome().ordinal()]++;
+		}
+		int executed = counts[TaskOutcome.executed.ordinal()];
+		int upToDate = counts[TaskOutcome.upToDate.ordinal()];
+		int fromCache = counts[TaskOutcome.fromCache.ordinal()];
+		int failed = counts[TaskOutcome.failed.ordinal()];
+
+		sb.append("<br/>Tasks: <br/>");
+		sb.append("&emsp;Executed: " + executed + ", up-to-date: " + upToDate + ", from cache: " + fromCache
+			+ ", skipped: " + counts[TaskOutcome.skipped.ordinal()] + ", failed: " + failed + "<br/>");
+		int run = executed + upToDate + fromCache + failed;
+		if (run > 0) {
+			sb.append("&emsp;Avoided: " + percent(upToDate + fromCache, run) + "<br/>");
+		}
+		if (executed + fromCache + failed > 0) {
+			sb.append("&emsp;Build cache hits: " + percent(fromCache, executed + fromCache + failed) + "<br/>");
+		}
+		sb.append("&emsp;Slowest: <br/>");
+		taskTimings.stream()
+			.sorted(Comparator.comparingLong(TaskTiming::durationMillis).reversed())
+			.limit(SLOWEST_TASKS)
+			.forEach(timing -> sb.append("&emsp;&emsp;" + timing.taskPath() + ": " + timing.durationMillis() + " ms ("
+				+ timing.outcome() + ")<br/>"));
+		return sb.toString();
+	}
+
+	/**
+	 * Formats a share as a whole percentage.
+	 *
+	 * @param part  The part.
+	 * @param total The total, greater than 0.
+	 * @return The percentage followed by a percent sign.
+	 */
+	private static String percent(int part, int total) {
+		return Math.round(100.0 * part / total) + "%";
+	}
 }
@@ -0,0 +1,102 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+public class BuildCacheTest {
+	private final Path cacheDir = Path.of(System.getProperty("user.dir"), "buildcachetest");
+
+	/*
+	 * Runs after each test to delete the stored entries.
+	 */
+	@AfterEach
+	void cleanup() {
+		Builder.deleteDirectory(cacheDir.toFile());
+	}
+
+	/*
+	 * Stores an entry of the given size, without declaring its size in advance.
+	 */
+	private boolean store(BuildCache cache, String key, int size) throws IOException {
+		return cache.store(key, new ByteArrayInputStream(new byte[size]), -1);
+	}
+
+	/*
+	 * Loads an entry, returning its content or null if it was not found.
+	 */
+	private String load(BuildCache cache, String key) throws IOException {
+		try (FileChannel entry = cache.open(key)) {
+			if (entry == null) {
+				return null;
+			}
+			return new String(Channels.newInputStream(entry).readAllBytes());
+		}
+	}
+
+	/*
+	 * Store and load Test:
+	 * Stores an entry and loads it again, also from a new cache over the same directory.
+	 * The loaded entry is expected to equal the stored one, and unknown keys are expected to miss.
+	 */
+	@Test
+	@DisplayName("Stored entries can be loaded")
+	void load_storedEntry_returnsEntry() throws IOException {
+		BuildCache cache = new BuildCache(cacheDir, 10, 10);
+		cache.store("abc123", new ByteArrayInputStream("task output".getBytes()), 11);
+
+		Assertions.assertThat(load(cache, "abc123")).isEqualTo("task output");
+		Assertions.assertThat(load(cache, "def456")).isNull();
+		Assertions.assertThat(load(new BuildCache(cacheDir, 10, 10), "abc123")).isEqualTo("task output");
+	}
+
+	/*
+	 * LRU eviction Test:
+	 * Fills a 1 MB cache with two 400 KB entries, loads the first one and stores a third.
+	 * The second entry, which was used least recently, is expected to be evicted.
+	 */
+	@Test
+	@DisplayName("Least recently used entries are evicted")
+	void store_cacheFull_evictsLeastRecentlyUsed() throws IOException {
+		BuildCache cache = new BuildCache(cacheDir, 1, 1);
+		store(cache, "aa", 400 * 1024);
+		store(cache, "bb", 400 * 1024);
+		load(cache, "aa");
+		store(cache, "cc", 400 * 1024);
+
+		Assertions.assertThat(load(cache, "aa")).isNotNull();
+		Assertions.assertThat(load(cache, "bb")).isNull();
+		Assertions.assertThat(load(cache, "cc")).isNotNull();
+		Assertions.assertThat(cache.getSize()).isEqualTo(800 * 1024);
+	}
+
+	/*
+	 * Entry size Test:
+	 * Stores an entry larger than the maximum entry size, once with and once without its declared size,
+	 * and checks keys that are not hashes.
+	 * The entry is expected to be rejected, with a declared size without reading it,
+	 * and otherwise after reading one byte more than the maximum entry size. The keys are expected to be invalid.
+	 */
+	@Test
+	@DisplayName("Oversized entries and invalid keys are rejected")
+	void store_entryTooLarge_rejectsEntry() throws IOException {
+		BuildCache cache = new BuildCache(cacheDir, 10, 1);
+		var declared = new ByteArrayInputStream(new byte[2 * 1024 * 1024]);
+		var undeclared = new ByteArrayInputStream(new byte[2 * 1024 * 1024]);
+
+		Assertions.assertThat(cache.store("aa", declared, 2 * 1024 * 1024)).isFalse();
+		Assertions.assertThat(declared.available()).isEqualTo(2 * 1024 * 1024);
+		Assertions.assertThat(cache.store("aa", undeclared, -1)).isFalse();
+		Assertions.assertThat(undeclared.available()).isEqualTo(1024 * 1024 - 1);
+		Assertions.assertThat(cache.getSize()).isZero();
+		Assertions.assertThat(BuildCache.isValidKey("../builds.db")).isFalse();
+		Assertions.assertThat(BuildCache.isValidKey("")).isFalse();
+	}
+}
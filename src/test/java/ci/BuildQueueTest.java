@@ -0,0 +1,253 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class BuildQueueTest {
+	private final ExecutorService executor = Executors.newFixedThreadPool(1);
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	/*
+	 * Runs after each test to let blocked jobs finish and stop the worker thread.
+	 */
+	@AfterEach
+	void shutdownExecutor() throws InterruptedException {
+		release.countDown();
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/*
+	 * Blocks the calling worker until the test releases it.
+	 */
+	private void blockingWorker(BuildQueue.BuildJob job) {
+		started.countDown();
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Queue statistics Test:
+	 * Submits two jobs to a queue with one worker, where the first job blocks.
+	 * The first job is expected to be active and the second to be queued.
+	 */
+	@Test
+	@DisplayName("Queue depth and active workers")
+	void submit_workerBusy_countsQueuedAndActiveJobs() throws InterruptedException {
+		BuildQueue queue = new BuildQueue(executor, 1, 2, this::blockingWorker);
+		PushPayload payload = Mockito.mock(PushPayload.class);
+
+		int firstId = queue.submit(payload, "url");
+		started.await(10, TimeUnit.SECONDS);
+		int secondId = queue.submit(payload, "url");
+
+		Assertions.assertThat(secondId).isEqualTo(firstId + 1);
+		Assertions.assertThat(queue.getActiveWorkers()).isEqualTo(1);
+		Assertions.assertThat(queue.getQueueDepth()).isEqualTo(1);
+	}
+
+	/*
+	 * Load shedding Test:
+	 * Fills the queue of a busy worker up to its capacity.
+	 * One more job is expected to be rejected.
+	 */
+	@Test
+	@DisplayName("Full queue rejects jobs")
+	void submit_queueFull_rejectsJob() throws InterruptedException {
+		BuildQueue queue = new BuildQueue(executor, 1, 1, this::blockingWorker);
+		PushPayload payload = Mockito.mock(PushPayload.class);
+
+		queue.submit(payload, "url");
+		started.await(10, TimeUnit.SECONDS);
+		queue.submit(payload, "url");
+
+		Assertions.assertThatThrownBy(() -> queue.submit(payload, "url"))
+			.isInstanceOf(RejectedExecutionException.class);
+		Assertions.assertThat(queue.getQueueDepth()).isEqualTo(1);
+	}
+
+	/*
+	 * Executor rejection Test:
+	 * Submits a job after the executor has been shut down.
+	 * The job is expected to be rejected without being counted as queued.
+	 */
+	@Test
+	@DisplayName("Rejected execution does not count as queued")
+	void submit_executorShutDown_doesNotCountJob() {
+		BuildQueue queue = new BuildQueue(executor, 1, 1, this::blockingWorker);
+		PushPayload payload = Mockito.mock(PushPayload.class);
+		executor.shutdown();
+
+		Assertions.assertThatThrownBy(() -> queue.submit(payload, "url"))
+			.isInstanceOf(RejectedExecutionException.class);
+		Assertions.assertThat(queue.getQueueDepth()).isZero();
+	}
+
+	/*
+	 * Shutdown Test:
+	 * Queues a job behind a running one, then shuts the queue down.
+	 * Both jobs are expected to be built before the shutdown returns, and later jobs to be rejected.
+	 */
+	@Test
+	@DisplayName("Shutdown builds queued jobs and rejects new ones")
+	void shutdown_jobsQueued_buildsThemAndRejectsNewJobs() throws InterruptedException {
+		List<BuildQueue.BuildJob> ran = Collections.synchronizedList(new ArrayList<>());
+		BuildQueue queue = new BuildQueue(executor, 1, 2, job -> {
+			blockingWorker(job);
+			ran.add(job);
+		});
+		PushPayload payload = Mockito.mock(PushPayload.class);
+
+		queue.submit(payload, "url");
+		started.await(10, TimeUnit.SECONDS);
+		queue.submit(payload, "url");
+		release.countDown();
+
+		Assertions.assertThat(queue.shutdown(10)).isTrue();
+		Assertions.assertThat(ran).hasSize(2);
+		Assertions.assertThatThrownBy(() -> queue.submit(payload, "url"))
+			.isInstanceOf(RejectedExecutionException.class)
+			.hasMessage("Build queue is shut down");
+	}
+
+	/*
+	 * Shutdown Timeout Test:
+	 * Shuts a queue down while its worker is blocked, with a timeout of one second.
+	 * The worker is expected to be interrupted, and the executor to be terminated.
+	 */
+	@Test
+	@DisplayName("Shutdown interrupts workers after the timeout")
+	void shutdown_workerBlocked_interruptsWorker() throws InterruptedException {
+		BuildQueue queue = new BuildQueue(executor, 1, 1, this::blockingWorker);
+		queue.submit(Mockito.mock(PushPayload.class), "url");
+		started.await(10, TimeUnit.SECONDS);
+
+		Assertions.assertThat(queue.shutdown(1)).isTrue();
+		Assertions.assertThat(executor.isTerminated()).isTrue();
+		Assertions.assertThat(queue.getActiveWorkers()).isZero();
+	}
+
+	/*
+	 * Creates a payload of a push to the given branch of a test repository.
+	 */
+	private PushPayload pushTo(String branch) {
+		PushPayload payload = Mockito.mock(PushPayload.class);
+		Mockito.when(payload.getRepo()).thenReturn("owner/repo");
+		Mockito.when(payload.getBranch()).thenReturn(branch);
+		return payload;
+	}
+
+	/*
+	 * Coalescing Test:
+	 * Queues three pushes to one branch and one push to another branch behind a busy worker.
+	 * Only the newest queued push of the first branch is expected to be built,
+	 * the older one is expected to be superseded by it, and only the newest to stand in for an older push.
+	 */
+	@Test
+	@DisplayName("Newer push supersedes queued push of the same branch")
+	void submit_coalescing_supersedesQueuedJobOfSameBranch() throws InterruptedException {
+		List<BuildQueue.BuildJob> ran = Collections.synchronizedList(new ArrayList<>());
+		BuildQueue queue = new BuildQueue(executor, 1, 10, true, false, job -> {
+			ran.add(job);
+			blockingWorker(job);
+		});
+
+		queue.submit(pushTo("main"), "url");
+		started.await(10, TimeUnit.SECONDS);
+		int olderId = queue.submit(pushTo("feature"), "url");
+		int otherBranchId = queue.submit(pushTo("main"), "url");
+		int newerId = queue.submit(pushTo("feature"), "url");
+
+		Assertions.assertThat(queue.getQueueDepth()).isEqualTo(2);
+
+		release.countDown();
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		Assertions.assertThat(ran).hasSize(4);
+		BuildQueue.BuildJob older = ran.get(1);
+		Assertions.assertThat(older.getId()).isEqualTo(olderId);
+		Assertions.assertThat(older.isSuperseded()).isTrue();
+		Assertions.assertThat(older.getSupersededBy().getId()).isEqualTo(newerId);
+		Assertions.assertThat(ran.get(0).isSuperseded()).isFalse();
+		Assertions.assertThat(ran.get(2).getId()).isEqualTo(otherBranchId);
+		Assertions.assertThat(ran.get(2).isSuperseded()).isFalse();
+		Assertions.assertThat(ran.get(2).isCoalesced()).isFalse();
+		Assertions.assertThat(ran.get(3).isSuperseded()).isFalse();
+		Assertions.assertThat(ran.get(3).isCoalesced()).isTrue();
+	}
+
+	/*
+	 * Cancel running Test:
+	 * Pushes to a branch while a build of the same branch is running.
+	 * The running build is expected to be superseded and cancelled.
+	 */
+	@Test
+	@DisplayName("Newer push cancels running push of the same branch")
+	void submit_cancelRunning_cancelsRunningJobOfSameBranch() throws InterruptedException {
+		CountDownLatch cancelled = new CountDownLatch(1);
+		List<BuildQueue.BuildJob> ran = Collections.synchronizedList(new ArrayList<>());
+		BuildQueue queue = new BuildQueue(executor, 1, 10, true, true, job -> {
+			ran.add(job);
+			job.onCancel(cancelled::countDown);
+			blockingWorker(job);
+		});
+
+		queue.submit(pushTo("main"), "url");
+		started.await(10, TimeUnit.SECONDS);
+		queue.submit(pushTo("main"), "url");
+
+		Assertions.assertThat(cancelled.await(10, TimeUnit.SECONDS)).isTrue();
+		Assertions.assertThat(ran.get(0).isSuperseded()).isTrue();
+	}
+
+	/*
+	 * Coalescing rejection Test:
+	 * Pushes to a branch while a build of the same branch is queued, on an executor that rejects the newer job.
+	 * The queued build is expected not to be superseded by the rejected push, but by the next accepted one.
+	 */
+	@Test
+	@DisplayName("Rejected push does not supersede queued push of the same branch")
+	void submit_coalescingExecutorRejects_keepsQueuedJob() {
+		List<Runnable> tasks = new ArrayList<>();
+		boolean[] rejecting = {false};
+		List<BuildQueue.BuildJob> ran = new ArrayList<>();
+		BuildQueue queue = new BuildQueue(task -> {
+			if (rejecting[0]) {
+				throw new RejectedExecutionException("Executor is busy");
+			}
+			tasks.add(task);
+		}, 1, 10, true, false, ran::add);
+
+		int queuedId = queue.submit(pushTo("main"), "url");
+		rejecting[0] = true;
+		Assertions.assertThatThrownBy(() -> queue.submit(pushTo("main"), "url"))
+			.isInstanceOf(RejectedExecutionException.class);
+		Assertions.assertThat(queue.getQueueDepth()).isEqualTo(1);
+
+		rejecting[0] = false;
+		int newerId = queue.submit(pushTo("main"), "url");
+		tasks.forEach(Runnable::run);
+
+		Assertions.assertThat(ran).hasSize(2);
+		Assertions.assertThat(ran.get(0).getId()).isEqualTo(queuedId);
+		Assertions.assertThat(ran.get(0).getSupersededBy().getId()).isEqualTo(newerId);
+		Assertions.assertThat(ran.get(1).isCoalesced()).isTrue();
+	}
+}
@@ -6,12 +6,18 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import ci.Builder.BuildResults;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import static org.assertj.core.api.Fail.fail;
 import static org.junit.jupiter.api.Assertions.*;
@@ -86,6 +92,146 @@ public class BuilderTest {
 		}
 	}
 
+	/*
+	 * Mirror Cloning Test:
+	 * Creates a remote directory with a master and a secondary branch.
+	 * Runs the cloneTargetRepo function with a mirror cache on the secondary branch.
+	 * The files of the secondary branch are expected to be checked out.
+	 * The remote, mirror and local directories are deleted after the test.
+	 */
+	@Test
+	@DisplayName("Test Repository Cloning from mirror")
+	void testRepositoryCloningFromMirror() throws GitAPIException, IOException {
+		String currentDir = System.getProperty("user.dir");
+		File testRemote = new File(currentDir, "mirrorremote");
+		File testMirrors = new File(currentDir, "mirrors_test");
+		File testDir = new File(currentDir, "mirrortemp");
+
+		try (Builder builder = new Builder(testDir.toPath(), System.out, System.out)) {
+			builder.setMirrorCache(new MirrorCache(testMirrors.toPath()));
+
+			Git git = Git.init().setDirectory(testRemote).call();
+			Files.write(new File(testRemote, "fippel_master.txt").toPath(), "Hello, master!".getBytes());
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("Initial commit").call();
+
+			git.branchCreate().setName("secondary").call();
+			git.checkout().setName("secondary").call();
+			Files.write(new File(testRemote, "fippel_secondary.txt").toPath(), "Hello, secondary!".getBytes());
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("Secondary commit").call();
+			git.checkout().setName("master").call();
+			git.getRepository().close();
+
+			builder.cloneTargetRepo(testRemote.getAbsolutePath(), "secondary");
+
+			File secondaryFippelFile = new File(testDir, "fippel_secondary.txt");
+			assertTrue(new File(testDir, "fippel_master.txt").exists());
+			assertTrue(secondaryFippelFile.exists());
+			assertEquals("Hello, secondary!", Files.readString(secondaryFippelFile.toPath()));
+		} finally {
+			Builder.deleteDirectory(testRemote);
+			Builder.deleteDirectory(testMirrors);
+			Builder.deleteDirectory(testDir);
+		}
+	}
+
+	/*
+	 * Shallow Cloning Test:
+	 * Creates a remote directory with three commits on its master branch.
+	 * Runs the cloneTargetRepo function with depth 1, first for the newest and then for the oldest commit.
+	 * The newest commit is expected to be checked out detached from a shallow clone,
+	 * and the oldest commit is expected to be fetched although it is beyond the clone depth.
+	 */
+	@Test
+	@DisplayName("Test Shallow Repository Cloning")
+	void testShallowRepositoryCloning() throws GitAPIException, IOException {
+		String currentDir = System.getProperty("user.dir");
+		File testRemote = new File(currentDir, "shallowremote");
+		File testDir = new File(currentDir, "shallowtemp");
+
+		try (Builder builder = new Builder(testDir.toPath(), System.out, System.out)) {
+			builder.setCloneDepth(1);
+
+			Git git = Git.init().setDirectory(testRemote).call();
+			String[] shas = new String[3];
+			for (int i = 0; i < shas.length; i++) {
+				Files.write(new File(testRemote, "fippel.txt").toPath(), ("Hello, " + i + "!").getBytes());
+				git.add().addFilepattern(".").call();
+				shas[i] = git.commit().setMessage("Commit " + i).call().getName();
+			}
+			git.getRepository().close();
+			String remoteUrl = testRemote.getAbsoluteFile().toURI().toString();
+
+			builder.cloneTargetRepo(remoteUrl, "master", shas[2]);
+
+			Git clone = Git.open(testDir);
+			assertEquals(shas[2], clone.getRepository().resolve("HEAD").getName());
+			assertEquals(shas[2], clone.getRepository().getFullBranch());
+			assertTrue(new File(testDir, ".git/shallow").exists());
+			clone.getRepository().close();
+			assertEquals("Hello, 2!", Files.readString(testDir.toPath().resolve("fippel.txt")));
+
+			builder.cloneTargetRepo(remoteUrl, "master", shas[0]);
+
+			clone = Git.open(testDir);
+			assertEquals(shas[0], clone.getRepository().resolve("HEAD").getName());
+			clone.getRepository().close();
+			assertEquals("Hello, 0!", Files.readString(testDir.toPath().resolve("fippel.txt")));
+		} finally {
+			Builder.deleteDirectory(testRemote);
+			Builder.deleteDirectory(testDir);
+		}
+	}
+
+	/*
+	 * Push Changes Test:
+	 * Creates a remote directory with three commits that add, modify and remove files.
+	 * Runs the findChanges function for the first commit after checking out the last one,
+	 * from a full clone and from a shallow clone.
+	 * The full clone is expected to list every changed file and the removed one,
+	 * and the shallow clone to have no changes, as the first commit is beyond its depth.
+	 */
+	@Test
+	@DisplayName("Changes since the previous commit are found in the checkout")
+	void testFindChanges() throws GitAPIException, IOException {
+		String currentDir = System.getProperty("user.dir");
+		File testRemote = new File(currentDir, "changesremote");
+		File testDir = new File(currentDir, "changestemp");
+
+		try (Builder builder = new Builder(testDir.toPath(), System.out, System.out)) {
+			Git git = Git.init().setDirectory(testRemote).call();
+			Files.write(new File(testRemote, "A.java").toPath(), "class A {}".getBytes());
+			Files.write(new File(testRemote, "B.java").toPath(), "class B {}".getBytes());
+			git.add().addFilepattern(".").call();
+			String first = git.commit().setMessage("Add A and B").call().getName();
+			Files.write(new File(testRemote, "A.java").toPath(), "class A { int a; }".getBytes());
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("Change A").call();
+			Files.delete(new File(testRemote, "B.java").toPath());
+			Files.write(new File(testRemote, "C.java").toPath(), "class C {}".getBytes());
+			git.add().addFilepattern(".").call();
+			git.rm().addFilepattern("B.java").call();
+			String last = git.commit().setMessage("Replace B by C").call().getName();
+			git.getRepository().close();
+			String remoteUrl = testRemote.getAbsoluteFile().toURI().toString();
+
+			builder.cloneTargetRepo(remoteUrl, "master", last);
+			TestSelector.Changes changes = builder.findChanges(first);
+
+			assertEquals(Set.of("A.java", "B.java", "C.java"), changes.changedFiles());
+			assertEquals(Set.of("B.java"), changes.removedFiles());
+
+			builder.setCloneDepth(1);
+			builder.cloneTargetRepo(remoteUrl, "master", last);
+
+			assertNull(builder.findChanges(first));
+		} finally {
+			Builder.deleteDirectory(testRemote);
+			Builder.deleteDirectory(testDir);
+		}
+	}
+
 	/*
 	 * Directory Deletion Test:
 	 * Creates a new directory containing a file.
@@ -124,7 +270,8 @@ public class BuilderTest {
 	/*
 	 * BuilderTest:
 	 * Attempts to build a Gradle project.
-	 * The project is expected to compile successfully and pass all tests.
+	 * The project is expected to compile successfully and pass all tests,
+	 * and the timings of its compile and test tasks are expected to be recorded.
 	 */
 	@Test
 	@DisplayName("Self-build success")
@@ -133,6 +280,9 @@ public class BuilderTest {
 		try (var builder = new Builder(buildDir, System.out, System.out)) {
 			var expectedResult = new ci.Builder.BuildResults(CommitStatuses.success, 1, 1);
 			Assertions.assertThat(builder.buildAndTest()).isEqualTo(expectedResult);
+			Assertions.assertThat(builder.getTaskTimings())
+				.extracting(BuildInfo.TaskTiming::taskPath)
+				.contains(":compileJava", ":test");
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -179,6 +329,112 @@ public class BuilderTest {
 		Assertions.assertThat(buildDir.resolve("build").toFile().exists()).isFalse();
 	}
 
+	/*
+	 * BuilderTest:
+	 * Attempts to build a Gradle project whose test hangs, with a test timeout of 20 seconds.
+	 * The build is expected to be cancelled and to report the tests as timed out.
+	 */
+	@Test
+	@DisplayName("Self-build test timeout")
+	void buildProjectAndTimeOutTest() {
+		var buildDir = Path.of("./src/test/resources/build_test_timeout");
+		try (var builder = new Builder(buildDir, System.out, System.out)) {
+			builder.setTimeouts(null, Duration.ofSeconds(20));
+			Assertions.assertThatThrownBy(builder::buildAndTest)
+				.isInstanceOf(BuildTimeoutException.class)
+				.hasMessageStartingWith("Tests timed out")
+				.extracting(e -> ((BuildTimeoutException) e).getStatus())
+				.isEqualTo(CommitStatuses.error);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		Assertions.assertThat(buildDir.resolve(".gradle").toFile().exists()).isFalse();
+		Assertions.assertThat(buildDir.resolve("build").toFile().exists()).isFalse();
+	}
+
+	/*
+	 * BuilderTest:
+	 * Attempts to build a Gradle project whose test hangs in a single invocation, with only a test timeout of 20 seconds.
+	 * The build is expected to be cancelled instead of running without a limit.
+	 */
+	@Test
+	@DisplayName("Single invocation test timeout")
+	void buildProjectInOneInvocationAndTimeOutTest() {
+		var buildDir = Path.of("./src/test/resources/build_test_timeout");
+		try (var builder = new Builder(buildDir, System.out, System.out)) {
+			builder.setSingleInvocation(true);
+			builder.setTimeouts(null, Duration.ofSeconds(20));
+			Assertions.assertThatThrownBy(builder::buildAndTest)
+				.isInstanceOf(BuildTimeoutException.class);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		Assertions.assertThat(buildDir.resolve(".gradle").toFile().exists()).isFalse();
+		Assertions.assertThat(buildDir.resolve("build").toFile().exists()).isFalse();
+	}
+
+	/*
+	 * BuilderTest:
+	 * Computes the timeout of a single invocation from every combination of set and unset phase timeouts.
+	 * A phase without a limit is expected not to lift the limit of the other phase.
+	 */
+	@Test
+	@DisplayName("Single invocation timeout")
+	void singleInvocationTimeout() {
+		Duration build = Duration.ofMinutes(2);
+		Duration test = Duration.ofMinutes(3);
+
+		Assertions.assertThat(Builder.singleInvocationTimeout(build, test)).isEqualTo(Duration.ofMinutes(5));
+		Assertions.assertThat(Builder.singleInvocationTimeout(build, null)).isEqualTo(build);
+		Assertions.assertThat(Builder.singleInvocationTimeout(null, test)).isEqualTo(test);
+		Assertions.assertThat(Builder.singleInvocationTimeout(null, null)).isNull();
+	}
+
+	/*
+	 * BuilderTest:
+	 * Attempts to build a Gradle project with a failing test, running that test first with fail-fast.
+	 * The failing test is expected to be run first and fail the build.
+	 */
+	@Test
+	@DisplayName("Self-build test error with failure-first ordering")
+	void buildProjectAndFailPriorityTest() {
+		var buildDir = Path.of("./src/test/resources/build_success_test_fail");
+		var testOutput = new ByteArrayOutputStream();
+		try (var builder = new Builder(buildDir, System.out, testOutput)) {
+			builder.setPriorityTests(Set.of("MainTest"));
+			builder.setFailFast(true);
+			var expectedResult = new BuildResults(CommitStatuses.error, 1, 0);
+			Assertions.assertThat(builder.buildAndTest()).isEqualTo(expectedResult);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		Assertions.assertThat(testOutput.toString()).contains("Running 1 recently failed or changed test classes first");
+		Assertions.assertThat(buildDir.resolve(".gradle").toFile().exists()).isFalse();
+		Assertions.assertThat(buildDir.resolve("build").toFile().exists()).isFalse();
+	}
+
+	/*
+	 * BuilderTest:
+	 * Attempts to build a Gradle project with a failing test, with the tests split into shards.
+	 * The results of the shards are expected to match an unsharded build, and the durations of the
+	 * test classes to be recorded.
+	 */
+	@Test
+	@DisplayName("Self-build test error with sharded tests")
+	void buildProjectAndFailShardedTest() {
+		var buildDir = Path.of("./src/test/resources/build_success_test_fail");
+		try (var builder = new Builder(buildDir, System.out, System.out)) {
+			builder.setTestShards(2, Map.of());
+			var expectedResult = new BuildResults(CommitStatuses.error, 1, 0);
+			Assertions.assertThat(builder.buildAndTest()).isEqualTo(expectedResult);
+			Assertions.assertThat(builder.getTestDurations()).containsOnlyKeys("MainTest");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		Assertions.assertThat(buildDir.resolve(".gradle").toFile().exists()).isFalse();
+		Assertions.assertThat(buildDir.resolve("build").toFile().exists()).isFalse();
+	}
+
 	/*
 	 * BuilderTest:
 	 * Compiles the successful project and checks that the log seems to contain the information it should.
@@ -197,4 +453,51 @@ public class BuilderTest {
 		}
 	}
 
+	/*
+	 * BuilderTest:
+	 * Builds and tests the successful project and the project with a failing test in a single invocation.
+	 * The results are expected to be the same as when using one invocation per phase.
+	 */
+	@Test
+	@DisplayName("Single invocation build results")
+	void buildAndTestInOneInvocation() {
+		var expectedResults = new LinkedHashMap<String, BuildResults>();
+		expectedResults.put("build_success", new BuildResults(CommitStatuses.success, 1, 1));
+		expectedResults.put("build_success_test_fail", new BuildResults(CommitStatuses.error, 1, 0));
+		expectedResults.put("build_fail", new BuildResults(CommitStatuses.failure, 0, 0));
+
+		expectedResults.forEach((project, expectedResult) -> {
+			var buildDir = Path.of("./src/test/resources").resolve(project);
+			try (var builder = new Builder(buildDir, System.out, System.out)) {
+				builder.setSingleInvocation(true);
+				Assertions.assertThat(builder.buildAndTest()).isEqualTo(expectedResult);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			Assertions.assertThat(buildDir.resolve(".gradle").toFile().exists()).isFalse();
+			Assertions.assertThat(buildDir.resolve("build").toFile().exists()).isFalse();
+		});
+	}
+
+	/*
+	 * BuilderTest:
+	 * Builds and tests the successful project in a single invocation.
+	 * The build summary is printed after the tests, so it is expected in the test log only.
+	 */
+	@Test
+	@DisplayName("Single invocation output streams")
+	void testOutputStreamOneInvocation() {
+		var buildDir = Path.of("./src/test/resources/build_success");
+		ByteArrayOutputStream buildOut = new ByteArrayOutputStream();
+		ByteArrayOutputStream testOut = new ByteArrayOutputStream();
+		try (var builder = new Builder(buildDir, new PrintStream(buildOut), new PrintStream(testOut))) {
+			builder.setSingleInvocation(true);
+			builder.buildAndTest();
+			Assertions.assertThat(buildOut.toString()).doesNotContain("BUILD SUCCESSFUL");
+			Assertions.assertThat(testOut.toString()).contains("BUILD SUCCESSFUL");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 }
@@ -0,0 +1,154 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.gradle.tooling.GradleConnector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class DaemonPoolTest {
+	private final Path tempDir = Path.of(System.getProperty("user.dir"), "daemonpooltest");
+
+	/*
+	 * Runs after each test to delete the test projects and Gradle user homes.
+	 */
+	@AfterEach
+	void cleanup() {
+		Builder.deleteDirectory(tempDir.toFile());
+	}
+
+	/*
+	 * Creates a pool of the given size whose connectors are mocks.
+	 */
+	private DaemonPool mockPool(int size, int maxBuilds) {
+		return new DaemonPool(tempDir.resolve("daemons"), size, List.of("-Xmx256m"), 60, maxBuilds, 0) {
+			@Override
+			protected GradleConnector createConnector(Daemon daemon) {
+				return Mockito.mock(GradleConnector.class);
+			}
+		};
+	}
+
+	/*
+	 * Creates a project directory whose wrapper uses the given Gradle version.
+	 */
+	private Path project(String name, String gradleVersion) throws IOException {
+		Path projectDir = tempDir.resolve(name);
+		Files.createDirectories(projectDir.resolve("gradle/wrapper"));
+		Files.writeString(projectDir.resolve("gradle/wrapper/gradle-wrapper.properties"),
+			"distributionUrl=https\\://services.gradle.org/distributions/gradle-" + gradleVersion + "-bin.zip\n");
+		return projectDir;
+	}
+
+	/*
+	 * Compatibility Test:
+	 * Leases and releases a daemon for a project, then leases daemons for a project using the same
+	 * Gradle version and for one using another version.
+	 * The compatible project is expected to get the same warm daemon, the other project a new one.
+	 */
+	@Test
+	@DisplayName("Daemons are leased by compatibility")
+	void lease_compatibleProject_reusesDaemon() throws IOException, InterruptedException {
+		DaemonPool pool = mockPool(2, 10);
+
+		DaemonPool.Daemon first = pool.lease(project("a", "7.3"));
+		pool.release(first, true);
+		DaemonPool.Daemon second = pool.lease(project("b", "7.3"));
+		DaemonPool.Daemon third = pool.lease(project("c", "8.5"));
+
+		Assertions.assertThat(second).isSameAs(first);
+		Assertions.assertThat(second.getBuilds()).isEqualTo(1);
+		Assertions.assertThat(third.getIndex()).isNotEqualTo(first.getIndex());
+		Assertions.assertThat(third.getUserHome()).isNotEqualTo(first.getUserHome());
+		Assertions.assertThat(third.getJvmArguments()).containsExactly("-Xmx256m");
+	}
+
+	/*
+	 * Recycling Test:
+	 * Releases a daemon once healthy after reaching the build limit, and once after an infrastructure failure.
+	 * The daemon is expected to be disconnected and to get a new connector both times.
+	 */
+	@Test
+	@DisplayName("Daemons are recycled after N builds and after failures")
+	void release_limitReachedOrUnhealthy_recyclesDaemon() throws IOException, InterruptedException {
+		DaemonPool pool = mockPool(1, 1);
+		Path projectDir = project("a", "7.3");
+
+		DaemonPool.Daemon daemon = pool.lease(projectDir);
+		GradleConnector firstConnector = daemon.getConnector();
+		pool.release(daemon, true);
+
+		Mockito.verify(firstConnector).disconnect();
+		Assertions.assertThat(daemon.getGeneration()).isEqualTo(1);
+		Assertions.assertThat(daemon.getBuilds()).isZero();
+
+		pool = mockPool(1, 10);
+		daemon = pool.lease(projectDir);
+		GradleConnector unhealthyConnector = daemon.getConnector();
+		pool.release(daemon, false);
+
+		Mockito.verify(unhealthyConnector).disconnect();
+		Assertions.assertThat(daemon.getConnector()).isNotSameAs(unhealthyConnector);
+	}
+
+	/*
+	 * Full pool Test:
+	 * Leases the only daemon of a pool for one Gradle version, releases it and leases for another version.
+	 * The daemon is expected to be recycled for the new version rather than a second one being started.
+	 */
+	@Test
+	@DisplayName("Full pool recycles the least recently used daemon")
+	void lease_poolFullOfIncompatibleDaemons_recyclesDaemon() throws IOException, InterruptedException {
+		DaemonPool pool = mockPool(1, 10);
+
+		DaemonPool.Daemon first = pool.lease(project("a", "7.3"));
+		GradleConnector firstConnector = first.getConnector();
+		pool.release(first, true);
+		DaemonPool.Daemon second = pool.lease(project("b", "8.5"));
+
+		Assertions.assertThat(second).isSameAs(first);
+		Mockito.verify(firstConnector).disconnect();
+		Assertions.assertThat(second.getGeneration()).isEqualTo(1);
+	}
+
+	/*
+	 * Non-blocking lease Test:
+	 * Leases the only daemon of a pool, then tries to lease another one, and again after releasing the first.
+	 * The second attempt is expected to get nothing rather than wait, and the third the released daemon.
+	 */
+	@Test
+	@DisplayName("Trying to lease from a full pool does not wait")
+	void tryLease_poolFull_returnsNull() throws IOException, InterruptedException {
+		DaemonPool pool = mockPool(1, 10);
+		Path projectDir = project("a", "7.3");
+
+		DaemonPool.Daemon first = pool.lease(projectDir);
+
+		Assertions.assertThat(pool.tryLease(projectDir)).isNull();
+		pool.release(first, true);
+		Assertions.assertThat(pool.tryLease(projectDir)).isSameAs(first);
+	}
+
+	/*
+	 * Available memory Test:
+	 * Parses the available memory from the contents of /proc/meminfo, with and without a MemAvailable line.
+	 * The available memory rather than the free memory is expected to be read, and -1 if it is missing.
+	 */
+	@Test
+	@DisplayName("Available memory is read from meminfo")
+	void parseAvailableMemoryMb_meminfo_readsMemAvailable() {
+		List<String> meminfo = List.of(
+			"MemTotal:       16303476 kB",
+			"MemFree:          512000 kB",
+			"MemAvailable:    8192000 kB");
+
+		Assertions.assertThat(DaemonPool.parseAvailableMemoryMb(meminfo)).isEqualTo(8000);
+		Assertions.assertThat(DaemonPool.parseAvailableMemoryMb(meminfo.subList(0, 2))).isEqualTo(-1);
+	}
+}
@@ -0,0 +1,134 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DependencyCacheTest {
+	private final Path tempDir = Path.of(System.getProperty("user.dir"), "dependencycachetest");
+	private final Path cacheDir = tempDir.resolve("cache");
+	private final Path userHome = tempDir.resolve("userhome");
+
+	/*
+	 * Runs after each test to delete the cache and the Gradle user home.
+	 */
+	@AfterEach
+	void cleanup() {
+		Builder.deleteDirectory(tempDir.toFile());
+	}
+
+	/*
+	 * Writes a downloaded module file of the given size to the Gradle user home.
+	 */
+	private void download(String group, String module, int size, long lastModified) throws IOException {
+		Path file = userHome.resolve("caches/modules-2/files-2.1").resolve(group).resolve(module)
+			.resolve("1.0/abc/" + module + "-1.0.jar");
+		Files.createDirectories(file.getParent());
+		Files.write(file, new byte[size]);
+		file.toFile().setLastModified(lastModified);
+	}
+
+	/*
+	 * Warming Test:
+	 * Warms a new, empty, cache from a Gradle user home twice, with one more module the second time.
+	 * The current generation is expected to contain both modules, but none of the lock files,
+	 * the first generation is expected to be deleted since no build uses it,
+	 * and the path given to builds is expected to link to the current generation.
+	 */
+	@Test
+	@DisplayName("Warming creates a new generation")
+	void warm_newDependencies_createsNewGeneration() throws IOException, InterruptedException {
+		DependencyCache cache = new DependencyCache(cacheDir, 100);
+		Path emptyGeneration = cache.acquire();
+		Assertions.assertThat(emptyGeneration.resolve("modules-2")).isEmptyDirectory();
+		cache.release(emptyGeneration);
+
+		download("org.example", "first", 10, 1000);
+		Files.writeString(userHome.resolve("caches/modules-2/modules-2.lock"), "");
+		cache.warm(userHome);
+		Path firstGeneration = cache.acquire();
+		cache.release(firstGeneration);
+
+		Thread.sleep(5);
+		download("org.example", "second", 10, 2000);
+		cache.warm(userHome);
+		Path secondGeneration = cache.acquire();
+
+		Assertions.assertThat(secondGeneration).isNotEqualTo(firstGeneration);
+		Assertions.assertThat(secondGeneration.resolve("modules-2/files-2.1/org.example/first")).isDirectory();
+		Assertions.assertThat(secondGeneration.resolve("modules-2/files-2.1/org.example/second")).isDirectory();
+		Assertions.assertThat(secondGeneration.resolve("modules-2/modules-2.lock")).doesNotExist();
+		Assertions.assertThat(firstGeneration).doesNotExist();
+		Assertions.assertThat(cache.getPath().toRealPath()).isEqualTo(secondGeneration.toRealPath());
+		cache.release(secondGeneration);
+	}
+
+	/*
+	 * Incremental warming Test:
+	 * Warms the cache from a Gradle user home twice, without new modules the second time.
+	 * The second warming is expected to keep the current generation instead of creating a new one.
+	 */
+	@Test
+	@DisplayName("Warming without new dependencies keeps the generation")
+	void warm_noNewDependencies_keepsGeneration() throws IOException {
+		DependencyCache cache = new DependencyCache(cacheDir, 100);
+		download("org.example", "first", 10, 1000);
+		Assertions.assertThat(cache.warm(userHome)).isTrue();
+		Path generation = cache.acquire();
+		cache.release(generation);
+
+		Assertions.assertThat(cache.warm(userHome)).isFalse();
+		Path sameGeneration = cache.acquire();
+
+		Assertions.assertThat(sameGeneration).isEqualTo(generation).isDirectory();
+		cache.release(sameGeneration);
+	}
+
+	/*
+	 * Generation in use Test:
+	 * Acquires a generation, as a running build would, and warms the cache.
+	 * The acquired generation is expected to be kept until it is released.
+	 */
+	@Test
+	@DisplayName("Generations in use are kept")
+	void release_oldGenerationInUse_deletedOnRelease() throws IOException, InterruptedException {
+		DependencyCache cache = new DependencyCache(cacheDir, 100);
+		download("org.example", "first", 10, 1000);
+		cache.warm(userHome);
+		Path inUse = cache.acquire();
+
+		Thread.sleep(5);
+		download("org.example", "second", 10, 2000);
+		cache.warm(userHome);
+
+		Assertions.assertThat(inUse).isDirectory();
+		cache.release(inUse);
+		Assertions.assertThat(inUse).doesNotExist();
+	}
+
+	/*
+	 * Eviction Test:
+	 * Warms a cache limited to 1 MB with two modules of 600 KB each.
+	 * The least recently downloaded module is expected to be evicted.
+	 */
+	@Test
+	@DisplayName("Least recently downloaded modules are evicted")
+	void warm_sizeLimitExceeded_evictsOldestModule() throws IOException {
+		DependencyCache cache = new DependencyCache(cacheDir, 1);
+		download("org.example", "old", 600 * 1024, 1000);
+		download("org.example", "new", 600 * 1024, 2000);
+
+		cache.warm(userHome);
+		Path generation = cache.acquire();
+
+		Assertions.assertThat(generation.resolve("modules-2/files-2.1/org.example/old")).doesNotExist();
+		Assertions.assertThat(generation.resolve("modules-2/files-2.1/org.example/new")).isDirectory();
+		Assertions.assertThat(DependencyCache.sizeOf(generation)).isLessThanOrEqualTo(1024 * 1024);
+		cache.release(generation);
+	}
+}
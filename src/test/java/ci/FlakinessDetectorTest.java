@@ -0,0 +1,53 @@
+package ci;
+
+import ci.FlakinessDetector.TestId;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static ci.TestOutcome.failed;
+import static ci.TestOutcome.flaky;
+import static ci.TestOutcome.passed;
+import static ci.TestOutcome.quarantined;
+import static ci.TestOutcome.skipped;
+
+public class FlakinessDetectorTest {
+
+	/*
+	 * Flip Rate Test:
+	 * Computes the flip rate of tests that always pass, alternate, and fail once among skipped runs.
+	 * Skipped runs are expected to be left out, and quarantined runs to count as failures.
+	 */
+	@Test
+	@DisplayName("Flip rate counts changes between passing and failing")
+	void flipRate_outcomes_countsFlips() {
+		Assertions.assertThat(FlakinessDetector.flipRate(List.of(passed, passed, passed))).isZero();
+		Assertions.assertThat(FlakinessDetector.flipRate(List.of(passed, failed, passed, quarantined))).isEqualTo(1);
+		Assertions.assertThat(FlakinessDetector.flipRate(List.of(passed, skipped, passed, failed, failed)))
+			.isEqualTo(1.0 / 3);
+		Assertions.assertThat(FlakinessDetector.flipRate(List.of(failed))).isZero();
+	}
+
+	/*
+	 * Suspects Test:
+	 * Finds the suspects among a stable test, a test that broke once, a test that flips often,
+	 * and a test that passed on a retry before.
+	 * The test that flips often and the test that was flaky before are expected to be suspected.
+	 */
+	@Test
+	@DisplayName("Tests that flip often or were flaky are suspected")
+	void findSuspects_history_returnsFlakyTests() {
+		var detector = new FlakinessDetector(30);
+		Map<TestId, List<TestOutcome>> testOutcomes = Map.of(
+			new TestId("ci.A", "stable()"), List.of(passed, passed, passed, passed, passed),
+			new TestId("ci.A", "broke()"), List.of(passed, passed, passed, passed, failed),
+			new TestId("ci.A", "flips()"), List.of(passed, failed, passed, passed, failed),
+			new TestId("ci.A", "retried()"), List.of(passed, flaky, passed, passed, passed));
+
+		Assertions.assertThat(detector.findSuspects(testOutcomes))
+			.containsExactlyInAnyOrder(new TestId("ci.A", "flips()"), new TestId("ci.A", "retried()"));
+	}
+}
@@ -4,11 +4,21 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.assertj.core.api.Assertions;
@@ -16,6 +26,16 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import ci.BuildInfo.BuildDetails;
+import ci.BuildInfo.BuildSummary;
+import ci.BuildInfo.PhaseTiming;
+import ci.BuildInfo.TaskTiming;
+import ci.BuildInfo.TestDetails;
+import ci.BuildInfo.TestResult;
+import ci.PushPayload.Author;
+import ci.PushPayload.Sender;
 
 public class HistoryDAOTest {
 
@@ -92,7 +112,19 @@ public class HistoryDAOTest {
 		Assertions.assertThat(resultSet.next()).isTrue();
 		Assertions.assertThat(resultSet.getString("TABLE_NAME")).isEqualTo("historyCommits");
 		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("TABLE_NAME")).isEqualTo("phaseTimings");
+		Assertions.assertThat(resultSet.next()).isTrue();
 		Assertions.assertThat(resultSet.getString("TABLE_NAME")).isEqualTo("senders");
+		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("TABLE_NAME")).isEqualTo("taskTimings");
+		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("TABLE_NAME")).isEqualTo("testDependencies");
+		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("TABLE_NAME")).isEqualTo("testDurations");
+		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("TABLE_NAME")).isEqualTo("testResults");
+		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("TABLE_NAME")).isEqualTo("testSelections");
 		Assertions.assertThat(resultSet.next()).isFalse();
 
 		Statement statement = connection.createStatement();
@@ -125,6 +157,15 @@ public class HistoryDAOTest {
 		Assertions.assertThat(resultSet.next()).isTrue();
 		Assertions.assertThat(resultSet.getString("name")).isEqualTo("branch");
 		Assertions.assertThat(resultSet.getString("type")).isEqualTo("TEXT");
+		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("name")).isEqualTo("outcome");
+		Assertions.assertThat(resultSet.getString("type")).isEqualTo("TEXT");
+		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("name")).isEqualTo("treeHash");
+		Assertions.assertThat(resultSet.getString("type")).isEqualTo("TEXT");
+		Assertions.assertThat(resultSet.next()).isTrue();
+		Assertions.assertThat(resultSet.getString("name")).isEqualTo("repo");
+		Assertions.assertThat(resultSet.getString("type")).isEqualTo("TEXT");
 		Assertions.assertThat(resultSet.next()).isFalse();
 
 		resultSet = statement.executeQuery("PRAGMA table_info(historyCommits)");
@@ -287,6 +328,273 @@ public class HistoryDAOTest {
 		Assertions.assertThat(commits).hasSize(0);
 	}
 
+	/*
+	 * Get History Query Count Test:
+	 * Adds 100 commits, each with its own author, to a build and gets the build through a DAO
+	 * that counts the queries it runs.
+	 * The build, its commits and their authors are expected to be loaded in the same number of queries
+	 * as a build with one commit: the build with its sender, the commits with their authors,
+	 * the phase timings and the task timings.
+	 */
+	@Test
+	@DisplayName("Get History runs a fixed number of queries")
+	void getHistory_ManyCommits_RunsFixedNumberOfQueries() throws SQLException {
+		Statement statement = historyDAO.getConnection().createStatement();
+		for (int i = 4; i <= 103; i++) {
+			statement.addBatch("INSERT INTO authors (name, username, email) VALUES ('Author " + i + "', 'author" + i + "', 'author" + i + "@mail.com')");
+			statement.addBatch("INSERT INTO commits (sha, message, authorId, url, modifiedFiles) VALUES ('sha" + i + "', 'Commit" + i + "', " + (i - 1) + ", 'commitUrl" + i + "', 'File1.txt')");
+			statement.addBatch("INSERT INTO historyCommits ('historyId', 'commitId') VALUES (2, " + i + ")");
+		}
+		statement.executeBatch();
+		historyDAO.closeConnection();
+		AtomicInteger queries = new AtomicInteger();
+		historyDAO = countingQueries(queries);
+
+		historyDAO.getHistory(1);
+		int queriesForOneBuild = queries.getAndSet(0);
+		BuildInfo buildInfo = historyDAO.getHistory(2);
+
+		Assertions.assertThat(buildInfo.getCommitList()).hasSize(101);
+		Assertions.assertThat(buildInfo.getCommitList().get(100).author().name()).isEqualTo("Author 103");
+		Assertions.assertThat(queries.get()).isEqualTo(queriesForOneBuild).isEqualTo(4);
+	}
+
+	/*
+	 * Build Summaries Query Count Test:
+	 * Grows the history to 50, 200 and 2000 builds and gets the newest and the middle page of 20 summaries
+	 * at each size through a DAO that counts the queries it runs.
+	 * Every page is expected to be read in a single query, however many builds the history holds.
+	 */
+	@Test
+	@DisplayName("Page of summaries runs a fixed number of queries")
+	void getBuildSummaries_GrowingHistory_RunsFixedNumberOfQueries() throws SQLException {
+		HistoryDAO.BuildFilter filter = HistoryDAO.BuildFilter.NONE;
+		int builds = 2;
+		for (int size : new int[] { 50, 200, 2000 }) {
+			Statement statement = historyDAO.getConnection().createStatement();
+			for (int id = builds + 1; id <= size; id++) {
+				statement.addBatch("INSERT INTO history ('senderId', 'buildResult', 'buildLog', 'totalTests', 'numOfPassedTests', 'testLog', 'buildDate', 'branch') VALUES (1, 1, '', 0, 0, '', '2021-01-03T00:00:00', 'main')");
+				statement.addBatch("INSERT INTO historyCommits ('historyId', 'commitId') VALUES (" + id + ", 3)");
+			}
+			statement.executeBatch();
+			builds = size;
+			historyDAO.closeConnection();
+			AtomicInteger queries = new AtomicInteger();
+			historyDAO = countingQueries(queries);
+
+			List<BuildSummary> newest = historyDAO.getBuildSummaries(filter, Integer.MAX_VALUE, 20);
+			int queriesForNewest = queries.getAndSet(0);
+			List<BuildSummary> middle = historyDAO.getBuildSummaries(filter, size / 2, 20);
+
+			Assertions.assertThat(newest).hasSize(20).first().extracting(BuildSummary::id).isEqualTo(size);
+			Assertions.assertThat(middle).hasSize(20).first().extracting(BuildSummary::id).isEqualTo(size / 2 - 1);
+			Assertions.assertThat(queries.get()).isEqualTo(queriesForNewest).isEqualTo(1);
+		}
+	}
+
+	/*
+	 * Creates a DAO on the test database that counts the queries run through its prepared statements.
+	 */
+	private HistoryDAO countingQueries(AtomicInteger queries) throws SQLException {
+		return new HistoryDAO(testDatabaseName) {
+			@Override
+			protected Connection openConnection() throws SQLException {
+				Connection connection = Mockito.spy(super.openConnection());
+				Mockito.doAnswer(prepare -> {
+					PreparedStatement preparedStatement = Mockito.spy((PreparedStatement) prepare.callRealMethod());
+					Mockito.doAnswer(query -> {
+						queries.incrementAndGet();
+						return query.callRealMethod();
+					}).when(preparedStatement).executeQuery();
+					return preparedStatement;
+				}).when(connection).prepareStatement(Mockito.anyString());
+				return connection;
+			}
+		};
+	}
+
+	/*
+	 * Get Build Summaries Test:
+	 * Gets the summaries of the builds in the database.
+	 * Each build is expected to be summarized newest first, with a build outcome for rows stored without one.
+	 */
+	@Test
+	@DisplayName("Get summaries of all builds")
+	void getBuildSummaries_ReturnsSummaryOfEachBuild() throws SQLException {
+		List<BuildSummary> summaries =
+				historyDAO.getBuildSummaries(HistoryDAO.BuildFilter.NONE, Integer.MAX_VALUE, 10);
+
+		Assertions.assertThat(summaries).containsExactly(
+				new BuildSummary(2, "branch1", 0, BuildOutcome.built, "2021-01-02T00:00:00"),
+				new BuildSummary(1, "main", 1, BuildOutcome.built, "2021-01-01T00:00:00"));
+	}
+
+	/*
+	 * Build Summaries Pagination Test:
+	 * Adds 100 builds and pages through them, in pages of 40 builds.
+	 * Each page is expected to start after the build the previous one ended at, newest first,
+	 * and the newer builds of a page are expected to be the page before it.
+	 */
+	@Test
+	@DisplayName("Page through summaries of builds")
+	void getBuildSummaries_Paged_ReturnsPagesOfBuilds() throws SQLException {
+		Statement statement = historyDAO.getConnection().createStatement();
+		for (int i = 3; i <= 102; i++) {
+			statement.addBatch("INSERT INTO history ('senderId', 'buildResult', 'buildLog', 'totalTests', 'numOfPassedTests', 'testLog', 'buildDate', 'branch') VALUES (1, 1, '', 0, 0, '', '2021-01-03T00:00:00', 'main')");
+		}
+		statement.executeBatch();
+
+		HistoryDAO.BuildFilter filter = HistoryDAO.BuildFilter.NONE;
+		List<BuildSummary> first = historyDAO.getBuildSummaries(filter, Integer.MAX_VALUE, 40);
+		List<BuildSummary> second = historyDAO.getBuildSummaries(filter, first.get(39).id(), 40);
+		List<BuildSummary> last = historyDAO.getBuildSummaries(filter, second.get(39).id(), 40);
+
+		Assertions.assertThat(first).extracting(BuildSummary::id).startsWith(102, 101).endsWith(63);
+		Assertions.assertThat(second).extracting(BuildSummary::id).startsWith(62).endsWith(23);
+		Assertions.assertThat(last).extracting(BuildSummary::id).hasSize(22).startsWith(22).endsWith(1);
+		Assertions.assertThat(historyDAO.getNewerBuildSummaries(filter, second.get(0).id(), 40)).isEqualTo(first);
+		Assertions.assertThat(historyDAO.getNewerBuildSummaries(filter, 102, 40)).isEmpty();
+	}
+
+	/*
+	 * Build Summaries Filter Test:
+	 * Adds a superseded build of another sender on the main branch.
+	 * Each filter is expected to match only the builds with that branch, outcome, sender or date.
+	 */
+	@Test
+	@DisplayName("Filter summaries of builds")
+	void getBuildSummaries_Filtered_ReturnsMatchingBuilds() throws SQLException {
+		Sender sender = new Sender("janedoe", "janedoeUrl", "janedoeAvatarUrl");
+		BuildInfo superseded = new BuildInfo(0, sender, List.of(),
+				new BuildDetails(CommitStatuses.error.ordinal(), ""),
+				new TestDetails(0, 0, ""), "2021-01-03T12:00:00", "main");
+		superseded.setOutcome(BuildOutcome.superseded);
+		int supersededId = historyDAO.addHistory(superseded);
+
+		Assertions.assertThat(getBuildIds(new HistoryDAO.BuildFilter("main", null, null, null, null)))
+				.containsExactly(supersededId, 1);
+		Assertions.assertThat(getBuildIds(new HistoryDAO.BuildFilter(null, BuildOutcome.built, null, null, null)))
+				.containsExactly(2, 1);
+		Assertions.assertThat(getBuildIds(new HistoryDAO.BuildFilter(null, BuildOutcome.superseded, null, null, null)))
+				.containsExactly(supersededId);
+		Assertions.assertThat(getBuildIds(new HistoryDAO.BuildFilter(null, null, "janedoe", null, null)))
+				.containsExactly(supersededId);
+		Assertions.assertThat(getBuildIds(new HistoryDAO.BuildFilter(null, null, null, "2021-01-02", "2021-01-03")))
+				.containsExactly(2);
+		Assertions.assertThat(getBuildIds(new HistoryDAO.BuildFilter("main", null, "johndoe", "2021-01-02", null)))
+				.isEmpty();
+	}
+
+	/**
+	 * Gets the IDs of the newest builds matching a filter
+	 *
+	 * @param filter Filter on the builds
+	 * @return IDs of the builds, newest first
+	 * @throws SQLException If an error occurs while getting the builds
+	 */
+	private List<Integer> getBuildIds(HistoryDAO.BuildFilter filter) throws SQLException {
+		return historyDAO.getBuildSummaries(filter, Integer.MAX_VALUE, 10).stream()
+				.map(BuildSummary::id).toList();
+	}
+
+	/*
+	 * Concurrent Access Test:
+	 * Reopens the database with two read connections, then adds 100 builds on four threads
+	 * while four other threads read a build.
+	 * Every build is expected to be stored once, and every read is expected to succeed.
+	 */
+	@Test
+	@DisplayName("Reads and writes from several threads")
+	void addHistory_ConcurrentReadsAndWrites_AllSucceed() throws Exception {
+		historyDAO.closeConnection();
+		historyDAO = new HistoryDAO(testDatabaseName, 2);
+		Sender sender = new Sender("test", "testUrl", "testAvatarUrl");
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			String branch = "branch" + i;
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < 25; j++) {
+					historyDAO.addHistory(new BuildInfo(0, sender, List.of(),
+							new BuildDetails(CommitStatuses.success.ordinal(), ""),
+							new TestDetails(0, 0, ""), "2021-01-03T00:00:00", branch));
+				}
+				return null;
+			}));
+			futures.add(executor.submit(() -> {
+				for (int j = 0; j < 25; j++) {
+					Assertions.assertThat(historyDAO.getHistory(1).getBranch()).isEqualTo("main");
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		Assertions.assertThat(historyDAO.getBuildSummaries(HistoryDAO.BuildFilter.NONE, Integer.MAX_VALUE, 200))
+				.hasSize(102);
+		Assertions.assertThat(historyDAO.getBuildSummaries(
+				new HistoryDAO.BuildFilter("branch3", null, null, null, null), Integer.MAX_VALUE, 200)).hasSize(25);
+	}
+
+	/*
+	 * Closed DAO Test:
+	 * Closes the DAO, then reads a build and adds an author.
+	 * Both are expected to fail at once instead of waiting for a connection.
+	 */
+	@Test
+	@DisplayName("Reads and writes fail after close")
+	void closeConnection_ReadAndWriteAfterClose_Fail() throws SQLException {
+		historyDAO.closeConnection();
+
+		Assertions.assertThatThrownBy(() -> historyDAO.getHistory(1))
+				.isInstanceOf(SQLException.class)
+				.hasMessage("The history database is closed");
+		Assertions.assertThatThrownBy(() -> historyDAO.addAuthor(new Author("test", "test", "test@mail.com")))
+				.isInstanceOf(SQLException.class)
+				.hasMessage("The history database is closed");
+	}
+
+	/*
+	 * Close During Read Test:
+	 * Reopens the database with one read connection, and closes the DAO while a read is preparing its query.
+	 * The read is expected to finish, and its connection to be closed when it is returned.
+	 */
+	@Test
+	@DisplayName("Read connection in use is closed after its read")
+	void closeConnection_ReadInProgress_ClosesReaderAfterRead() throws Exception {
+		historyDAO.closeConnection();
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch closed = new CountDownLatch(1);
+		List<Connection> connections = Collections.synchronizedList(new ArrayList<>());
+		historyDAO = new HistoryDAO(testDatabaseName, 1) {
+			@Override
+			protected Connection openConnection() throws SQLException {
+				Connection connection = Mockito.spy(super.openConnection());
+				connections.add(connection);
+				Mockito.doAnswer(prepare -> {
+					reading.countDown();
+					closed.await(10, TimeUnit.SECONDS);
+					return prepare.callRealMethod();
+				}).when(connection).prepareStatement(Mockito.anyString());
+				return connection;
+			}
+		};
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<BuildInfo> read = executor.submit(() -> historyDAO.getHistory(1));
+		reading.await(10, TimeUnit.SECONDS);
+		historyDAO.closeConnection();
+		closed.countDown();
+
+		Assertions.assertThat(read.get(10, TimeUnit.SECONDS).getBranch()).isEqualTo("main");
+		executor.shutdown();
+		Assertions.assertThat(connections).hasSize(2).extracting(Connection::isClosed).containsOnly(true);
+	}
+
 	/*
 	 * Get History Test:
 	 * Gets a history that exists in the database.
@@ -353,100 +661,6 @@ public class HistoryDAOTest {
 		Assertions.assertThat(buildInfo).isNull();
 	}
 
-	/*
-	 * Get All History Test:
-	 * Gets all history from the database.
-	 * The histories is expected to have the correct sender, buildDetails, testDetails, and commitList.
-	 */
-	@Test
-	@DisplayName("Get all History")
-	void getAllHistory_ReturnsHistory() throws SQLException {
-		List<BuildInfo> history = historyDAO.getAllHistory();
-		Assertions.assertThat(history).hasSize(2);
-
-		BuildInfo buildInfo = history.get(0);
-
-		Assertions.assertThat(buildInfo).isNotNull();
-		Assertions.assertThat(buildInfo.getId()).isEqualTo(1);
-		Assertions.assertThat(buildInfo.getBuildDate()).isEqualTo("2021-01-01T00:00:00");
-		Assertions.assertThat(buildInfo.getBranch()).isEqualTo("main");
-
-
-		ci.PushPayload.Sender sender = buildInfo.getSender();
-		Assertions.assertThat(sender).isNotNull();
-		Assertions.assertThat(sender.name()).isEqualTo("johndoe");
-		Assertions.assertThat(sender.url()).isEqualTo("johndoeUrl");
-		Assertions.assertThat(sender.avatarUrl()).isEqualTo("johndoeAvatarUrl");
-
-		ci.BuildInfo.BuildDetails buildDetails = buildInfo.getBuildDetails();
-		Assertions.assertThat(buildDetails).isNotNull();
-		Assertions.assertThat(buildDetails.buildResult()).isEqualTo(1);
-		Assertions.assertThat(buildDetails.buildLog()).isEqualTo("Build Log 1");
-
-		ci.BuildInfo.TestDetails testDetails = buildInfo.getTestDetails();
-		Assertions.assertThat(testDetails).isNotNull();
-		Assertions.assertThat(testDetails.totalTests()).isEqualTo(10);
-		Assertions.assertThat(testDetails.numOfPassedTests()).isEqualTo(10);
-		Assertions.assertThat(testDetails.testLog()).isEqualTo("All test passed");
-
-		List<ci.PushPayload.Commit> commits = buildInfo.getCommitList();
-		Assertions.assertThat(commits).hasSize(2);
-		Assertions.assertThat(commits).hasSize(2);
-
-		Assertions.assertThat(commits.get(0).sha()).isEqualTo("sha1");
-		Assertions.assertThat(commits.get(0).message()).isEqualTo("Commit1");
-		Assertions.assertThat(commits.get(0).author().name()).isEqualTo("John Doe");
-		Assertions.assertThat(commits.get(0).author().userName()).isEqualTo("johndoe");
-		Assertions.assertThat(commits.get(0).author().email()).isEqualTo("john@doe.com");
-		Assertions.assertThat(commits.get(0).url()).isEqualTo("commitUrl1");
-		Assertions.assertThat(commits.get(0).modifiedFiles()).containsExactly("File1.txt", "File2.txt");
-
-		Assertions.assertThat(commits.get(1).sha()).isEqualTo("sha2");
-		Assertions.assertThat(commits.get(1).message()).isEqualTo("Commit2");
-		Assertions.assertThat(commits.get(1).author().name()).isEqualTo("Mr Bean");
-		Assertions.assertThat(commits.get(1).author().userName()).isEqualTo("mrbean");
-		Assertions.assertThat(commits.get(1).author().email()).isEqualTo("beanAndTeddy@funny.org");
-		Assertions.assertThat(commits.get(1).url()).isEqualTo("commitUrl2");
-		Assertions.assertThat(commits.get(1).modifiedFiles()).containsExactly("File1.txt", "File2.txt");
-
-
-		buildInfo = history.get(1);
-
-		Assertions.assertThat(buildInfo).isNotNull();
-		Assertions.assertThat(buildInfo.getId()).isEqualTo(2);
-		Assertions.assertThat(buildInfo.getBuildDate()).isEqualTo("2021-01-02T00:00:00");
-		Assertions.assertThat(buildInfo.getBranch()).isEqualTo("branch1");
-
-
-		sender = buildInfo.getSender();
-		Assertions.assertThat(sender).isNotNull();
-		Assertions.assertThat(sender.name()).isEqualTo("johndoe");
-		Assertions.assertThat(sender.url()).isEqualTo("johndoeUrl");
-		Assertions.assertThat(sender.avatarUrl()).isEqualTo("johndoeAvatarUrl");
-
-		buildDetails = buildInfo.getBuildDetails();
-		Assertions.assertThat(buildDetails).isNotNull();
-		Assertions.assertThat(buildDetails.buildResult()).isEqualTo(0);
-		Assertions.assertThat(buildDetails.buildLog()).isEqualTo("Build Log 2");
-
-		testDetails = buildInfo.getTestDetails();
-		Assertions.assertThat(testDetails).isNotNull();
-		Assertions.assertThat(testDetails.totalTests()).isEqualTo(10);
-		Assertions.assertThat(testDetails.numOfPassedTests()).isEqualTo(5);
-		Assertions.assertThat(testDetails.testLog()).isEqualTo("5 test failed");
-
-		commits = buildInfo.getCommitList();
-		Assertions.assertThat(commits).hasSize(1);
-
-		Assertions.assertThat(commits.get(0).sha()).isEqualTo("sha3");
-		Assertions.assertThat(commits.get(0).message()).isEqualTo("Commit3");
-		Assertions.assertThat(commits.get(0).author().name()).isEqualTo("John Doe");
-		Assertions.assertThat(commits.get(0).author().userName()).isEqualTo("johndoe");
-		Assertions.assertThat(commits.get(0).author().email()).isEqualTo("john@doe.com");
-		Assertions.assertThat(commits.get(0).url()).isEqualTo("commitUrl3");
-		Assertions.assertThat(commits.get(0).modifiedFiles()).containsExactly("File2.txt");
-	}
-
 	/*
 	 * Add Author Test:
 	 * Adds an author to the database.
@@ -549,4 +763,223 @@ public class HistoryDAOTest {
 		Assertions.assertThat(testDetails).isNotNull();
 		Assertions.assertThat(testDetails).isEqualTo(testDetailsToAdd);
 	}
+
+	/*
+	 * Add History Outcome Test:
+	 * Adds a history of a superseded build to the database.
+	 * The history is expected to keep its outcome, while histories stored
+	 * without an outcome are expected to count as built.
+	 */
+	@Test
+	@DisplayName("Add History with outcome")
+	void addHistory_SupersededOutcome_OutcomeStored() throws SQLException {
+		Sender sender = new Sender("test", "testUrl", "testAvatarUrl");
+		BuildInfo buildInfoToAdd = new BuildInfo(0, sender, List.of(),
+				new BuildDetails(CommitStatuses.error.ordinal(), ""),
+				new TestDetails(0, 0, ""), "2021-01-03T00:00:00", "branch1");
+		buildInfoToAdd.setOutcome(BuildOutcome.superseded);
+
+		int id = historyDAO.addHistory(buildInfoToAdd);
+
+		Assertions.assertThat(historyDAO.getHistory(id).getOutcome()).isEqualTo(BuildOutcome.superseded);
+		Assertions.assertThat(historyDAO.getHistory(1).getOutcome()).isEqualTo(BuildOutcome.built);
+	}
+
+	/*
+	 * Find Conclusive Build Test:
+	 * Adds a built and a superseded history of one tree, a superseded history and an infrastructure failure
+	 * of another tree, all in one repository.
+	 * The built history is expected to be found for the first tree, but not in another repository,
+	 * and nothing for the second tree.
+	 */
+	@Test
+	@DisplayName("Find conclusive build of a tree")
+	void findConclusiveBuild_TreeBuilt_ReturnsBuild() throws SQLException {
+		Sender sender = new Sender("test", "testUrl", "testAvatarUrl");
+		BuildInfo built = new BuildInfo(0, sender, List.of(),
+				new BuildDetails(CommitStatuses.success.ordinal(), ""),
+				new TestDetails(1, 1, ""), "2021-01-03T00:00:00", "branch1");
+		built.setTreeHash("tree1");
+		BuildInfo superseded = new BuildInfo(0, sender, List.of(),
+				new BuildDetails(CommitStatuses.error.ordinal(), ""),
+				new TestDetails(0, 0, ""), "2021-01-04T00:00:00", "branch1");
+		superseded.setOutcome(BuildOutcome.superseded);
+		superseded.setTreeHash("tree1");
+		BuildInfo otherTree = new BuildInfo(0, sender, List.of(),
+				new BuildDetails(CommitStatuses.error.ordinal(), ""),
+				new TestDetails(0, 0, ""), "2021-01-04T00:00:00", "branch2");
+		otherTree.setOutcome(BuildOutcome.superseded);
+		otherTree.setTreeHash("tree2");
+		BuildInfo failedCheckout = new BuildInfo(0, sender, List.of(),
+				new BuildDetails(CommitStatuses.failure.ordinal(), ""),
+				new TestDetails(0, 0, ""), "2021-01-05T00:00:00", "branch2");
+		failedCheckout.setOutcome(BuildOutcome.infrastructureFailure);
+		failedCheckout.setTreeHash("tree2");
+		for (BuildInfo build : List.of(built, superseded, otherTree, failedCheckout)) {
+			build.setRepo("owner/repo");
+		}
+
+		int builtId = historyDAO.addHistory(built);
+		historyDAO.addHistory(superseded);
+		historyDAO.addHistory(otherTree);
+		historyDAO.addHistory(failedCheckout);
+
+		Assertions.assertThat(historyDAO.findConclusiveBuild("owner/repo", "tree1")).isEqualTo(builtId);
+		Assertions.assertThat(historyDAO.getHistory(builtId).getTreeHash()).isEqualTo("tree1");
+		Assertions.assertThat(historyDAO.getHistory(builtId).getRepo()).isEqualTo("owner/repo");
+		Assertions.assertThat(historyDAO.findConclusiveBuild("owner/other", "tree1")).isEqualTo(-1);
+		Assertions.assertThat(historyDAO.findConclusiveBuild("owner/repo", "tree2")).isEqualTo(-1);
+	}
+
+	/*
+	 * Test Dependencies Test:
+	 * Stores the dependencies of three test classes after a full suite run, then replaces those of one of them
+	 * after two runs of selected tests, and then stores those of two of them after another full suite run.
+	 * The selected runs are expected to replace only the dependencies of their test classes and to be counted,
+	 * and the full suite runs to replace all dependencies of the repository and to reset the count.
+	 */
+	@Test
+	@DisplayName("Test dependencies are stored per test class and replaced by full suite runs")
+	void setTestDependencies_ReplacesDependenciesOfTestClass() throws SQLException {
+		Assertions.assertThat(historyDAO.getBuildsSinceFullSuite("owner/repo")).isZero();
+		historyDAO.setTestDependencies("owner/repo", Map.of(
+				"ci.MainTest", Set.of("ci.Main", "ci.Builder"),
+				"ci.NotifierTest", Set.of("ci.Notifier"),
+				"ci.RemovedTest", Set.of("ci.Removed")), true);
+		historyDAO.setTestDependencies("owner/repo", Map.of("ci.MainTest", Set.of("ci.Main")), false);
+		historyDAO.setTestDependencies("owner/repo", Map.of("ci.MainTest", Set.of("ci.Main")), false);
+
+		Assertions.assertThat(historyDAO.getTestDependencies("owner/repo")).isEqualTo(Map.of(
+				"ci.MainTest", Set.of("ci.Main"),
+				"ci.NotifierTest", Set.of("ci.Notifier"),
+				"ci.RemovedTest", Set.of("ci.Removed")));
+		Assertions.assertThat(historyDAO.getBuildsSinceFullSuite("owner/repo")).isEqualTo(2);
+		Assertions.assertThat(historyDAO.getTestDependencies("owner/other")).isEmpty();
+
+		historyDAO.setTestDependencies("owner/repo", Map.of(
+				"ci.MainTest", Set.of("ci.Main", "ci.Builder"),
+				"ci.NotifierTest", Set.of("ci.Notifier")), true);
+
+		Assertions.assertThat(historyDAO.getTestDependencies("owner/repo")).isEqualTo(Map.of(
+				"ci.MainTest", Set.of("ci.Main", "ci.Builder"),
+				"ci.NotifierTest", Set.of("ci.Notifier")));
+		Assertions.assertThat(historyDAO.getBuildsSinceFullSuite("owner/repo")).isZero();
+	}
+
+	/*
+	 * Test Durations Test:
+	 * Records the durations of two test classes, then a new duration of one of them.
+	 * The new duration is expected to be averaged with the previous one, and the other to be kept.
+	 */
+	@Test
+	@DisplayName("Test durations are averaged per test class")
+	void setTestDurations_AveragesDurationsOfTestClass() throws SQLException {
+		historyDAO.setTestDurations("owner/repo", Map.of("ci.MainTest", 4.0, "ci.NotifierTest", 1.0));
+		historyDAO.setTestDurations("owner/repo", Map.of("ci.MainTest", 2.0));
+
+		Assertions.assertThat(historyDAO.getTestDurations("owner/repo"))
+				.isEqualTo(Map.of("ci.MainTest", 3.0, "ci.NotifierTest", 1.0));
+		Assertions.assertThat(historyDAO.getTestDurations("owner/other")).isEmpty();
+	}
+
+	/*
+	 * Test Results Test:
+	 * Stores the results of a passed and a failed test of a build.
+	 * The results are expected to be read back in order, and no results for another build.
+	 */
+	@Test
+	@DisplayName("Test results are stored per build")
+	void addTestResults_TestResultsAdded() throws SQLException {
+		List<TestResult> testResults = List.of(
+				new TestResult("ci.MainTest", "passes()", 0.5, TestOutcome.passed, null),
+				new TestResult("ci.MainTest", "fails()", 1.5, TestOutcome.failed, "expected: true"));
+		historyDAO.addTestResults(1, testResults);
+
+		Assertions.assertThat(historyDAO.getTestResults(1)).isEqualTo(testResults);
+		Assertions.assertThat(historyDAO.getTestResults(2)).isEmpty();
+	}
+
+	/*
+	 * Phase Timings Test:
+	 * Stores the time spent in the phases of a build.
+	 * The timings are expected to be read back in order, also with the history of the build,
+	 * and no timings for another build.
+	 */
+	@Test
+	@DisplayName("Phase timings are stored per build")
+	void addPhaseTimings_PhaseTimingsAdded() throws SQLException {
+		List<PhaseTiming> phaseTimings = List.of(
+				new PhaseTiming("queue", 1200, 0),
+				new PhaseTiming("clone", 800, 150),
+				new PhaseTiming("test", 30000, 40));
+		historyDAO.addPhaseTimings(1, phaseTimings);
+
+		Assertions.assertThat(historyDAO.getPhaseTimings(1)).isEqualTo(phaseTimings);
+		Assertions.assertThat(historyDAO.getHistory(1).getPhaseTimings()).isEqualTo(phaseTimings);
+		Assertions.assertThat(historyDAO.getPhaseTimings(2)).isEmpty();
+	}
+
+	/*
+	 * Task Timings Test:
+	 * Stores the outcome and duration of the gradle tasks of a build.
+	 * The timings are expected to be read back in order, also with the history of the build,
+	 * and no timings for another build.
+	 */
+	@Test
+	@DisplayName("Task timings are stored per build")
+	void addTaskTimings_TaskTimingsAdded() throws SQLException {
+		List<TaskTiming> taskTimings = List.of(
+				new TaskTiming(":compileJava", TaskOutcome.fromCache, 40),
+				new TaskTiming(":processResources", TaskOutcome.skipped, 1),
+				new TaskTiming(":test", TaskOutcome.executed, 12000));
+		historyDAO.addTaskTimings(1, taskTimings);
+
+		Assertions.assertThat(historyDAO.getTaskTimings(1)).isEqualTo(taskTimings);
+		Assertions.assertThat(historyDAO.getHistory(1).getTaskTimings()).isEqualTo(taskTimings);
+		Assertions.assertThat(historyDAO.getTaskTimings(2)).isEmpty();
+	}
+
+	/*
+	 * Test Outcomes Test:
+	 * Stores the results of a test for two builds of the main branch of a repository, a build of another branch,
+	 * and a build of the main branch of another repository, with a superseded build of the main branch in between.
+	 * Only the outcomes of the builds of the main branch of the repository are expected to be returned, oldest
+	 * first, and only the latest one when a single build is asked for. The superseded build is not expected
+	 * to count as one of the latest builds.
+	 */
+	@Test
+	@DisplayName("Test outcomes of recent builds of a branch")
+	void getTestOutcomes_Branch_ReturnsOutcomesOfBranch() throws SQLException {
+		int firstId = addBuild("owner/repo", "main", BuildOutcome.built);
+		int otherBranchId = addBuild("owner/repo", "feature", BuildOutcome.built);
+		int otherRepoId = addBuild("owner/other", "main", BuildOutcome.built);
+		int laterId = addBuild("owner/repo", "main", BuildOutcome.built);
+		addBuild("owner/repo", "main", BuildOutcome.superseded);
+		historyDAO.addTestResults(firstId, List.of(
+				new TestResult("ci.MainTest", "flips()", 1, TestOutcome.failed, "expected: true")));
+		historyDAO.addTestResults(otherBranchId, List.of(
+				new TestResult("ci.MainTest", "flips()", 1, TestOutcome.skipped, null)));
+		historyDAO.addTestResults(otherRepoId, List.of(
+				new TestResult("ci.MainTest", "flips()", 1, TestOutcome.failed, "expected: true")));
+		historyDAO.addTestResults(laterId, List.of(
+				new TestResult("ci.MainTest", "flips()", 1, TestOutcome.passed, null)));
+
+		var test = new FlakinessDetector.TestId("ci.MainTest", "flips()");
+		Assertions.assertThat(historyDAO.getTestOutcomes("owner/repo", "main", null, 2))
+				.isEqualTo(Map.of(test, List.of(TestOutcome.failed, TestOutcome.passed)));
+		Assertions.assertThat(historyDAO.getTestOutcomes("owner/repo", "main", null, 1))
+				.isEqualTo(Map.of(test, List.of(TestOutcome.passed)));
+	}
+
+	/*
+	 * Adds a build of a branch of a repository with the given outcome.
+	 */
+	private int addBuild(String repo, String branch, BuildOutcome outcome) throws SQLException {
+		BuildInfo buildInfo = new BuildInfo(0, new Sender("test", "testUrl", "testAvatarUrl"), List.of(),
+				new BuildDetails(CommitStatuses.success.ordinal(), ""),
+				new TestDetails(1, 1, ""), "2021-01-03T00:00:00", branch);
+		buildInfo.setRepo(repo);
+		buildInfo.setOutcome(outcome);
+		return historyDAO.addHistory(buildInfo);
+	}
 }
@@ -6,6 +6,7 @@ import org.eclipse.jetty.server.Response;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import ci.Builder.BuildResults;
@@ -14,9 +15,16 @@ import javax.servlet.ServletException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.file.Path;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
 
 public class MainTest {
 
@@ -24,7 +32,8 @@ public class MainTest {
 
 	/*
 	 * Handle function recieves a POST request from the github webhook.
-	 * Handle is expected to call the correct functions in the subclasses.
+	 * Handle is expected to accept the request and queue a build, which
+	 * (run inline here) is expected to call the correct functions in the subclasses.
 	 */
 	@Test
 	@DisplayName("TestCloneBuildTest")
@@ -32,14 +41,14 @@ public class MainTest {
 		var notifier = Mockito.mock(Notifier.class);
 		var builder = Mockito.mock(Builder.class); //Skipping try with resources intentionally, will be called in handle.
 		var historyDAO = Mockito.mock(HistoryDAO.class);
-		Main main = new Main() {
+		Main main = new Main(Runnable::run) {
 			@Override
 			protected Notifier createNotifier(PushPayload payload) {
 				return notifier;
 			}
 
 			@Override
-			protected Builder createBuilder(Path path, OutputStream output, OutputStream testOutput) {
+			protected Builder createBuilder(Path path, PushPayload payload, OutputStream output, OutputStream testOutput) {
 				return builder;
 			}
 
@@ -60,31 +69,417 @@ public class MainTest {
 
 		Mockito.when(notifier.setCommitStatus(Mockito.any(), Mockito.anyString(), Mockito.anyString())).thenReturn(true);
 
-		Mockito.doNothing().when(builder).cloneTargetRepo(Mockito.anyString(), Mockito.anyString());
+		Mockito.doNothing().when(builder).cloneTargetRepo(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
 		Mockito.when(builder.buildAndTest()).thenReturn(new BuildResults(CommitStatuses.success, 10, 10));
+		Mockito.when(builder.isCheckedOut()).thenReturn(true);
+		Mockito.when(builder.isConclusive()).thenReturn(true);
 		Mockito.doNothing().when(builder).close(); //It is closed by the try-with-resources statement.
 
 		Mockito.when(historyDAO.addHistory(Mockito.any())).thenReturn(1);
 
 		var dummyResponse = Mockito.mock(Response.class);
+		Mockito.when(dummyResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
 		try {
 			main.handle(
 				"https://localhost:8080", dummyRequest, dummyRequest, dummyResponse
 			);
 
+			Mockito.verify(dummyResponse, Mockito.times(1)).setStatus(202);
 			Mockito.verify(notifier, Mockito.times(1)).setCommitStatus(CommitStatuses.pending, "Working", testURL);
 			Mockito.verify(notifier, Mockito.times(1)).setCommitStatus(CommitStatuses.success, "Build successful!", testURL);
 			Mockito.verifyNoMoreInteractions(notifier);
-			Mockito.verify(builder, Mockito.times(1)).cloneTargetRepo("https://github.com/DD2480-Group-4/lab2.git", "push_branch");
+			Mockito.verify(builder, Mockito.times(1)).setPhaseTimer(Mockito.any());
+			Mockito.verify(builder, Mockito.times(1)).cloneTargetRepo("https://github.com/DD2480-Group-4/lab2.git", "push_branch", "17a4c2ec28144d4b195d2e7dee7e605f66ce65f8");
+			Mockito.verify(builder, Mockito.times(1)).isCheckedOut();
 			Mockito.verify(builder, Mockito.times(1)).buildAndTest();
+			Mockito.verify(builder, Mockito.times(1)).isConclusive();
+			Mockito.verify(builder, Mockito.times(1)).getTestResults();
+			Mockito.verify(builder, Mockito.times(1)).getTaskTimings();
 			Mockito.verify(builder, Mockito.times(1)).close();
 			Mockito.verifyNoMoreInteractions(builder);
 			Mockito.verify(historyDAO, Mockito.times(1)).addHistory(Mockito.any());
-			Mockito.verify(historyDAO, Mockito.times(1)).closeConnection();
+			Mockito.verify(historyDAO, Mockito.times(1)).addTestResults(1, List.of());
+			Mockito.verify(historyDAO, Mockito.times(1)).addTaskTimings(1, List.of());
+			Mockito.verify(historyDAO, Mockito.times(1)).addPhaseTimings(Mockito.eq(1), Mockito.anyList());
+			Mockito.verify(historyDAO, Mockito.never()).closeConnection();
 			Mockito.verifyNoMoreInteractions(historyDAO);
 
 		} catch (IOException | ServletException e) {
 			throw new RuntimeException(e);
 		}
 	}
+
+	/*
+	 * Handle function recieves a POST request with a body that is not a push payload.
+	 * Handle is expected to answer 400 without queueing a build.
+	 */
+	@Test
+	@DisplayName("TestInvalidPayload")
+	void testInvalidPayload() throws IOException, ServletException {
+		var builder = Mockito.mock(Builder.class);
+		Main main = new Main(Runnable::run) {
+			@Override
+			protected Builder createBuilder(Path path, PushPayload payload, OutputStream output, OutputStream testOutput) {
+				return builder;
+			}
+		};
+
+		var dummyRequest = Mockito.mock(Request.class);
+		Mockito.when(dummyRequest.getReader()).thenReturn(new BufferedReader(new StringReader("{\"zen\":\"ping\"}")));
+		Mockito.when(dummyRequest.getMethod()).thenReturn("POST");
+		Mockito.when(dummyRequest.getRequestURL()).thenReturn(new StringBuffer("https://minecraft.wiki"));
+
+		var dummyResponse = Mockito.mock(Response.class);
+		Mockito.when(dummyResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+		main.handle("/", dummyRequest, dummyRequest, dummyResponse);
+
+		Mockito.verify(dummyResponse, Mockito.times(1)).setStatus(400);
+		Mockito.verifyNoInteractions(builder);
+	}
+
+	/*
+	 * Handle function recieves GET requests for the page of a build that exists and of one that does not.
+	 * Only the requested build is expected to be read from the history, and the missing build is expected
+	 * to be answered with 404. Both requests are expected to share one history database that stays open.
+	 */
+	@Test
+	@DisplayName("TestBuildPage")
+	void testBuildPage() throws IOException, ServletException, SQLException {
+		var historyDAO = Mockito.mock(HistoryDAO.class);
+		var opened = new int[1];
+		Main main = new Main(Runnable::run) {
+			@Override
+			protected HistoryDAO createHistoryDAO(String dbPath) {
+				opened[0]++;
+				return historyDAO;
+			}
+		};
+
+		var build = new BuildInfo(5, new PushPayload.Sender("johndoe", "johndoeUrl", "johndoeAvatarUrl"), List.of(),
+			new BuildInfo.BuildDetails(CommitStatuses.success.ordinal(), "Build Log 5"),
+			new BuildInfo.TestDetails(10, 10, "Test Log 5"), "2024-02-06T12:00", "main");
+		Mockito.when(historyDAO.getHistory(5)).thenReturn(build);
+
+		var dummyRequest = Mockito.mock(Request.class);
+		Mockito.when(dummyRequest.getMethod()).thenReturn("GET");
+
+		var foundResponse = Mockito.mock(Response.class);
+		var foundPage = new StringWriter();
+		Mockito.when(foundResponse.getWriter()).thenReturn(new PrintWriter(foundPage));
+		main.handle("/build_5/", dummyRequest, dummyRequest, foundResponse);
+
+		var missingResponse = Mockito.mock(Response.class);
+		Mockito.when(missingResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+		main.handle("/build_6/", dummyRequest, dummyRequest, missingResponse);
+
+		Assertions.assertThat(foundPage.toString()).contains("Build Info for build 5 on branch main", "Build Log 5");
+		Mockito.verify(foundResponse, Mockito.never()).setStatus(404);
+		Mockito.verify(missingResponse, Mockito.times(1)).setStatus(404);
+		Mockito.verify(historyDAO, Mockito.times(1)).getHistory(5);
+		Mockito.verify(historyDAO, Mockito.times(1)).getHistory(6);
+		Assertions.assertThat(opened[0]).isEqualTo(1);
+		Mockito.verifyNoMoreInteractions(historyDAO);
+	}
+
+	/*
+	 * Handle function recieves a POST request for a tree that was already built, with memoization enabled.
+	 * The result of the earlier build is expected to be reported and stored as a cache hit,
+	 * without cloning or building.
+	 */
+	@Test
+	@DisplayName("TestMemoizedTree")
+	void testMemoizedTree() throws IOException, ServletException, InterruptedException, SQLException {
+		var notifier = Mockito.mock(Notifier.class);
+		var builder = Mockito.mock(Builder.class);
+		var historyDAO = Mockito.mock(HistoryDAO.class);
+		var properties = new Properties();
+		properties.setProperty("memoize.enabled", "true");
+		Main main = new Main(Runnable::run, 1, new Config(properties)) {
+			@Override
+			protected Notifier createNotifier(PushPayload payload) {
+				return notifier;
+			}
+
+			@Override
+			protected Builder createBuilder(Path path, PushPayload payload, OutputStream output, OutputStream testOutput) {
+				return builder;
+			}
+
+			@Override
+			protected HistoryDAO createHistoryDAO(String dbPath) {
+				return historyDAO;
+			}
+		};
+
+		final String testURL = "https://minecraft.wiki";
+
+		var dummyRequest = Mockito.mock(Request.class);
+		Mockito.when(dummyRequest.getReader()).thenReturn(new BufferedReader(new StringReader(requestJson)));
+		Mockito.when(dummyRequest.getMethod()).thenReturn("POST");
+		Mockito.when(dummyRequest.getRequestURL()).thenReturn(new StringBuffer(testURL));
+
+		var previous = new BuildInfo(5, null, List.of(),
+			new BuildInfo.BuildDetails(CommitStatuses.success.ordinal(), "log"),
+			new BuildInfo.TestDetails(10, 10, "log"), "2024-02-06T12:00", "main");
+		Mockito.when(historyDAO.findConclusiveBuild("DD2480-Group-4/lab2", "1f7d710666219a46769843d95f663d1bf6f77cbe"))
+			.thenReturn(5);
+		Mockito.when(historyDAO.getHistory(5)).thenReturn(previous);
+
+		var dummyResponse = Mockito.mock(Response.class);
+		Mockito.when(dummyResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+		main.handle("/", dummyRequest, dummyRequest, dummyResponse);
+
+		Mockito.verify(dummyResponse, Mockito.times(1)).setStatus(202);
+		Mockito.verify(notifier, Mockito.times(1)).setCommitStatus(CommitStatuses.success,
+			"Build successful! (same tree as build 5)", testURL);
+		Mockito.verifyNoMoreInteractions(notifier);
+		Mockito.verifyNoInteractions(builder);
+		var stored = ArgumentCaptor.forClass(BuildInfo.class);
+		Mockito.verify(historyDAO, Mockito.times(1)).addHistory(stored.capture());
+		Assertions.assertThat(stored.getValue().getOutcome()).isEqualTo(BuildOutcome.cached);
+		Assertions.assertThat(stored.getValue().getTreeHash()).isEqualTo("1f7d710666219a46769843d95f663d1bf6f77cbe");
+		Assertions.assertThat(stored.getValue().getTestDetails().totalTests()).isEqualTo(10);
+	}
+
+	/*
+	 * Handle function recieves a POST request for a push whose tests take too long.
+	 * The build is expected to be reported with the timeout as description, and stored as timed out.
+	 */
+	@Test
+	@DisplayName("TestTimedOutBuild")
+	void testTimedOutBuild() throws IOException, ServletException, InterruptedException, SQLException {
+		var notifier = Mockito.mock(Notifier.class);
+		var builder = Mockito.mock(Builder.class);
+		var historyDAO = Mockito.mock(HistoryDAO.class);
+		Main main = new Main(Runnable::run) {
+			@Override
+			protected Notifier createNotifier(PushPayload payload) {
+				return notifier;
+			}
+
+			@Override
+			protected Builder createBuilder(Path path, PushPayload payload, OutputStream output, OutputStream testOutput) {
+				return builder;
+			}
+
+			@Override
+			protected HistoryDAO createHistoryDAO(String dbPath) {
+				return historyDAO;
+			}
+		};
+
+		final String testURL = "https://minecraft.wiki";
+
+		var dummyRequest = Mockito.mock(Request.class);
+		Mockito.when(dummyRequest.getReader()).thenReturn(new BufferedReader(new StringReader(requestJson)));
+		Mockito.when(dummyRequest.getMethod()).thenReturn("POST");
+		Mockito.when(dummyRequest.getRequestURL()).thenReturn(new StringBuffer(testURL));
+
+		Mockito.when(builder.isCheckedOut()).thenReturn(true);
+		Mockito.when(builder.buildAndTest()).thenThrow(
+			new BuildTimeoutException("Tests", Duration.ofMinutes(60), CommitStatuses.error, null));
+
+		var dummyResponse = Mockito.mock(Response.class);
+		Mockito.when(dummyResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+		main.handle("/", dummyRequest, dummyRequest, dummyResponse);
+
+		Mockito.verify(dummyResponse, Mockito.times(1)).setStatus(202);
+		Mockito.verify(notifier, Mockito.times(1)).setCommitStatus(CommitStatuses.pending, "Working", testURL);
+		Mockito.verify(notifier, Mockito.times(1)).setCommitStatus(CommitStatuses.error,
+			"Tests timed out after 60 minutes", testURL);
+		Mockito.verifyNoMoreInteractions(notifier);
+		Mockito.verify(builder, Mockito.times(1)).close();
+		var stored = ArgumentCaptor.forClass(BuildInfo.class);
+		Mockito.verify(historyDAO, Mockito.times(1)).addHistory(stored.capture());
+		Assertions.assertThat(stored.getValue().getOutcome()).isEqualTo(BuildOutcome.timedOut);
+		Assertions.assertThat(stored.getValue().getBuildDetails().buildResult()).isEqualTo(CommitStatuses.error.ordinal());
+	}
+
+	/*
+	 * Handle function recieves a POST request for a push whose commit cannot be checked out.
+	 * The push is expected not to be built, to be reported as an error, and to be stored as an infrastructure failure.
+	 */
+	@Test
+	@DisplayName("TestCheckoutFailed")
+	void testCheckoutFailed() throws IOException, ServletException, InterruptedException, SQLException {
+		var notifier = Mockito.mock(Notifier.class);
+		var builder = Mockito.mock(Builder.class);
+		var historyDAO = Mockito.mock(HistoryDAO.class);
+		Main main = new Main(Runnable::run) {
+			@Override
+			protected Notifier createNotifier(PushPayload payload) {
+				return notifier;
+			}
+
+			@Override
+			protected Builder createBuilder(Path path, PushPayload payload, OutputStream output, OutputStream testOutput) {
+				return builder;
+			}
+
+			@Override
+			protected HistoryDAO createHistoryDAO(String dbPath) {
+				return historyDAO;
+			}
+		};
+
+		final String testURL = "https://minecraft.wiki";
+
+		var dummyRequest = Mockito.mock(Request.class);
+		Mockito.when(dummyRequest.getReader()).thenReturn(new BufferedReader(new StringReader(requestJson)));
+		Mockito.when(dummyRequest.getMethod()).thenReturn("POST");
+		Mockito.when(dummyRequest.getRequestURL()).thenReturn(new StringBuffer(testURL));
+
+		Mockito.when(builder.isCheckedOut()).thenReturn(false);
+
+		var dummyResponse = Mockito.mock(Response.class);
+		Mockito.when(dummyResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+		main.handle("/", dummyRequest, dummyRequest, dummyResponse);
+
+		Mockito.verify(notifier, Mockito.times(1)).setCommitStatus(CommitStatuses.pending, "Working", testURL);
+		Mockito.verify(notifier, Mockito.times(1)).setCommitStatus(CommitStatuses.error, "Checkout failed", testURL);
+		Mockito.verifyNoMoreInteractions(notifier);
+		Mockito.verify(builder, Mockito.never()).buildAndTest();
+		var stored = ArgumentCaptor.forClass(BuildInfo.class);
+		Mockito.verify(historyDAO, Mockito.times(1)).addHistory(stored.capture());
+		Assertions.assertThat(stored.getValue().getOutcome()).isEqualTo(BuildOutcome.infrastructureFailure);
+		Assertions.assertThat(stored.getValue().getBuildDetails().buildResult()).isEqualTo(CommitStatuses.error.ordinal());
+	}
+
+	/*
+	 * Handle function recieves a POST request for a push that deleted its branch.
+	 * Handle is expected to answer 200 without queueing a build.
+	 */
+	@Test
+	@DisplayName("TestDeletedBranch")
+	void testDeletedBranch() throws IOException, ServletException {
+		var builder = Mockito.mock(Builder.class);
+		Main main = new Main(Runnable::run) {
+			@Override
+			protected Builder createBuilder(Path path, PushPayload payload, OutputStream output, OutputStream testOutput) {
+				return builder;
+			}
+		};
+
+		String deletionJson = requestJson
+			.replace("\"after\":\"17a4c2ec28144d4b195d2e7dee7e605f66ce65f8\"", "\"after\":\"0000000000000000000000000000000000000000\"")
+			.replace("\"deleted\":false", "\"deleted\":true");
+		var dummyRequest = Mockito.mock(Request.class);
+		Mockito.when(dummyRequest.getReader()).thenReturn(new BufferedReader(new StringReader(deletionJson)));
+		Mockito.when(dummyRequest.getMethod()).thenReturn("POST");
+		Mockito.when(dummyRequest.getRequestURL()).thenReturn(new StringBuffer("https://minecraft.wiki"));
+
+		var dummyResponse = Mockito.mock(Response.class);
+		Mockito.when(dummyResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+		main.handle("/", dummyRequest, dummyRequest, dummyResponse);
+
+		Mockito.verify(dummyResponse, Mockito.times(1)).setStatus(200);
+		Mockito.verifyNoInteractions(builder);
+	}
+
+	/*
+	 * Handle function recieves two POST requests for the same branch, with coalescing enabled,
+	 * before either is built. The older build is expected to be stored as superseded, with an error
+	 * status naming the newer job, and not to be built.
+	 */
+	@Test
+	@DisplayName("TestSupersededBuild")
+	void testSupersededBuild() throws IOException, ServletException, InterruptedException, SQLException {
+		var notifier = Mockito.mock(Notifier.class);
+		var builder = Mockito.mock(Builder.class);
+		var historyDAO = Mockito.mock(HistoryDAO.class);
+		var properties = new Properties();
+		properties.setProperty("queue.coalesce", "true");
+		List<Runnable> queued = new ArrayList<>();
+		Main main = new Main(queued::add, 1, new Config(properties)) {
+			@Override
+			protected Notifier createNotifier(PushPayload payload) {
+				return notifier;
+			}
+
+			@Override
+			protected Builder createBuilder(Path path, PushPayload payload, OutputStream output, OutputStream testOutput) {
+				return builder;
+			}
+
+			@Override
+			protected HistoryDAO createHistoryDAO(String dbPath) {
+				return historyDAO;
+			}
+		};
+
+		var dummyRequest = Mockito.mock(Request.class);
+		Mockito.when(dummyRequest.getReader()).thenReturn(
+			new BufferedReader(new StringReader(requestJson)), new BufferedReader(new StringReader(requestJson)));
+		Mockito.when(dummyRequest.getMethod()).thenReturn("POST");
+		Mockito.when(dummyRequest.getRequestURL()).thenReturn(new StringBuffer("https://minecraft.wiki"));
+
+		var dummyResponse = Mockito.mock(Response.class);
+		Mockito.when(dummyResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+		main.handle("/", dummyRequest, dummyRequest, dummyResponse);
+		main.handle("/", dummyRequest, dummyRequest, dummyResponse);
+		queued.get(0).run();
+
+		Mockito.verify(notifier).setCommitStatus(Mockito.eq(CommitStatuses.error),
+			Mockito.eq("Superseded by build job 2"), Mockito.anyString());
+		Mockito.verifyNoMoreInteractions(notifier);
+		Mockito.verifyNoInteractions(builder);
+		var stored = ArgumentCaptor.forClass(BuildInfo.class);
+		Mockito.verify(historyDAO, Mockito.times(1)).addHistory(stored.capture());
+		Assertions.assertThat(stored.getValue().getOutcome()).isEqualTo(BuildOutcome.superseded);
+	}
+
+	/*
+	 * Handle function recieves PUT requests to the build cache without credentials and with a wrong password.
+	 * Both are expected to be answered with 401 without reading the entry.
+	 */
+	@Test
+	@DisplayName("TestBuildCacheAuthentication")
+	void testBuildCacheAuthentication() throws IOException, ServletException {
+		var cacheDir = Path.of(System.getProperty("user.dir"), "maintestcache");
+		var properties = new Properties();
+		properties.setProperty("cache.enabled", "true");
+		properties.setProperty("cache.dir", cacheDir.toString());
+		Main main = new Main(Runnable::run, 1, new Config(properties));
+		try {
+			var anonymous = Mockito.mock(Request.class);
+			Mockito.when(anonymous.getMethod()).thenReturn("PUT");
+			var wrongPassword = Mockito.mock(Request.class);
+			Mockito.when(wrongPassword.getMethod()).thenReturn("PUT");
+			Mockito.when(wrongPassword.getHeader("Authorization")).thenReturn(
+				"Basic " + Base64.getEncoder().encodeToString("ci:guess".getBytes()));
+
+			var anonymousResponse = Mockito.mock(Response.class);
+			main.handle("/cache/abc123", anonymous, anonymous, anonymousResponse);
+			var wrongPasswordResponse = Mockito.mock(Response.class);
+			main.handle("/cache/abc123", wrongPassword, wrongPassword, wrongPasswordResponse);
+
+			Mockito.verify(anonymousResponse, Mockito.times(1)).setStatus(401);
+			Mockito.verify(wrongPasswordResponse, Mockito.times(1)).setStatus(401);
+			Mockito.verify(anonymous, Mockito.never()).getInputStream();
+			Mockito.verify(wrongPassword, Mockito.never()).getInputStream();
+		} finally {
+			Builder.deleteDirectory(cacheDir.toFile());
+		}
+	}
+
+	/*
+	 * Creates a CI handler with the shared dependency cache enabled but without the daemon pool.
+	 * The handler is expected to be refused, as there would be nothing to warm the cache from.
+	 */
+	@Test
+	@DisplayName("TestDependencyCacheWithoutDaemonPool")
+	void testDependencyCacheWithoutDaemonPool() {
+		var properties = new Properties();
+		properties.setProperty("deps.cache", "true");
+
+		Assertions.assertThatThrownBy(() -> new Main(Runnable::run, 1, new Config(properties)))
+			.isInstanceOf(IllegalArgumentException.class)
+			.hasMessageContaining("daemon.pool");
+	}
 }
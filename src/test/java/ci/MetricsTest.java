@@ -0,0 +1,80 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class MetricsTest {
+
+	/*
+	 * Counter Test:
+	 * Counts two accepted webhooks and one invalid one, and a successful build.
+	 * The counters are expected to be written per label value, sorted by value.
+	 */
+	@Test
+	@DisplayName("Counters are written per label value")
+	void writeTo_counters_writesCountPerLabel() {
+		var metrics = new Metrics();
+		metrics.countWebhook("invalid");
+		metrics.countWebhook("accepted");
+		metrics.countWebhook("accepted");
+		metrics.countBuild("success");
+
+		Assertions.assertThat(write(metrics))
+			.contains("# TYPE ci_webhooks_total counter\n"
+				+ "ci_webhooks_total{response=\"accepted\"} 2\n"
+				+ "ci_webhooks_total{response=\"invalid\"} 1\n")
+			.contains("ci_builds_total{outcome=\"success\"} 1\n");
+	}
+
+	/*
+	 * Histogram Test:
+	 * Records a clone phase of 0.8 and one of 20 seconds.
+	 * The buckets are expected to be cumulative, with the sum and count of both durations.
+	 */
+	@Test
+	@DisplayName("Histogram buckets are cumulative")
+	void writeTo_histogram_writesCumulativeBuckets() {
+		var metrics = new Metrics();
+		metrics.observePhase("clone", 800);
+		metrics.observePhase("clone", 20000);
+
+		Assertions.assertThat(write(metrics))
+			.contains("ci_build_phase_seconds_bucket{phase=\"clone\",le=\"0.5\"} 0\n")
+			.contains("ci_build_phase_seconds_bucket{phase=\"clone\",le=\"1.0\"} 1\n")
+			.contains("ci_build_phase_seconds_bucket{phase=\"clone\",le=\"10.0\"} 1\n")
+			.contains("ci_build_phase_seconds_bucket{phase=\"clone\",le=\"30.0\"} 2\n")
+			.contains("ci_build_phase_seconds_bucket{phase=\"clone\",le=\"+Inf\"} 2\n")
+			.contains("ci_build_phase_seconds_sum{phase=\"clone\"} 20.8\n")
+			.contains("ci_build_phase_seconds_count{phase=\"clone\"} 2\n");
+	}
+
+	/*
+	 * Gauge Test:
+	 * Adds a gauge for the queue depth and escapes a label value with a quote.
+	 * The gauge is expected to be read when written, along with the heap statistics of the JVM.
+	 */
+	@Test
+	@DisplayName("Gauges and JVM statistics are written")
+	void writeTo_gauges_writesCurrentValues() {
+		var metrics = new Metrics();
+		int[] queueDepth = {1};
+		metrics.addGauge("ci_queue_depth", "Build jobs waiting for a worker", () -> queueDepth[0]);
+		metrics.observeHistoryQuery("say \"hi\"", 1_000_000);
+		queueDepth[0] = 3;
+
+		Assertions.assertThat(write(metrics))
+			.contains("# TYPE ci_queue_depth gauge\nci_queue_depth 3\n")
+			.contains("ci_history_query_seconds_count{operation=\"say \\\"hi\\\"\"} 1\n")
+			.contains("jvm_memory_heap_used_bytes ");
+	}
+
+	private static String write(Metrics metrics) {
+		var output = new StringWriter();
+		metrics.writeTo(new PrintWriter(output));
+		return output.toString().replace(System.lineSeparator(), "\n");
+	}
+}
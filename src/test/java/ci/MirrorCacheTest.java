@@ -0,0 +1,78 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MirrorCacheTest {
+	private final String currentDir = System.getProperty("user.dir");
+	private final File remote = new File(currentDir, "mirrorremotetest");
+	private final File cacheDir = new File(currentDir, "mirrorcachetest");
+	private final File firstWorkspace = new File(currentDir, "mirrorworkspacetest1");
+	private final File secondWorkspace = new File(currentDir, "mirrorworkspacetest2");
+
+	/*
+	 * Runs after each test to delete the remote, the mirrors and the workspaces.
+	 */
+	@AfterEach
+	void cleanup() {
+		Builder.deleteDirectory(remote);
+		Builder.deleteDirectory(cacheDir);
+		Builder.deleteDirectory(firstWorkspace);
+		Builder.deleteDirectory(secondWorkspace);
+	}
+
+	/*
+	 * Commits a file to the checked out branch of the remote repository.
+	 */
+	private RevCommit commitFile(Git git, String name, String content) throws IOException, GitAPIException {
+		Files.write(new File(remote, name).toPath(), content.getBytes());
+		git.add().addFilepattern(".").call();
+		return git.commit().setMessage("Add " + name).call();
+	}
+
+	/*
+	 * Mirror Cloning Test:
+	 * Creates workspaces from the mirror of a remote repository before and after a new commit is pushed.
+	 * The mirror is expected to be created once and updated with the new commit,
+	 * and the workspaces are expected to use the objects of the mirror instead of copies.
+	 */
+	@Test
+	@DisplayName("Workspaces created from updated mirror")
+	void cloneFromMirror_newCommit_fetchedIntoMirrorAndWorkspace() throws GitAPIException, IOException {
+		Git remoteGit = Git.init().setDirectory(remote).call();
+		RevCommit first = commitFile(remoteGit, "first.txt", "first");
+
+		MirrorCache mirrorCache = new MirrorCache(cacheDir.toPath());
+		String url = remote.getAbsolutePath();
+
+		Git workspace = mirrorCache.cloneFromMirror(url, firstWorkspace);
+		ObjectId head = workspace.getRepository().resolve("origin/master");
+		workspace.getRepository().close();
+		Assertions.assertThat(head).isEqualTo(first.getId());
+		Assertions.assertThat(mirrorCache.getMirrorPath(url).resolve("objects").toFile().exists()).isTrue();
+
+		RevCommit second = commitFile(remoteGit, "second.txt", "second");
+		remoteGit.getRepository().close();
+
+		workspace = mirrorCache.cloneFromMirror(url, secondWorkspace);
+		head = workspace.getRepository().resolve("origin/master");
+		workspace.getRepository().close();
+		Assertions.assertThat(head).isEqualTo(second.getId());
+
+		Path alternates = secondWorkspace.toPath().resolve(".git/objects/info/alternates");
+		Assertions.assertThat(Files.readString(alternates).trim())
+			.isEqualTo(mirrorCache.getMirrorPath(url).resolve("objects").toAbsolutePath().toString());
+		Assertions.assertThat(secondWorkspace.toPath().resolve(".git/objects/pack").toFile().list()).isNullOrEmpty();
+	}
+}
@@ -0,0 +1,76 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import ci.BuildInfo.PhaseTiming;
+
+public class PhaseTimerTest {
+	private final Path recordingFile = Path.of(System.getProperty("user.dir"), "phase-timer-test.jfr");
+
+	@AfterEach
+	void cleanup() throws IOException {
+		Files.deleteIfExists(recordingFile);
+	}
+
+	/*
+	 * Phase Timings Test:
+	 * Records a queue wait, then runs the notify phase twice around a clone phase.
+	 * The phases are expected in the order they were first started, with the runs of notify summed.
+	 */
+	@Test
+	@DisplayName("Phases are listed in start order and summed")
+	void getTimings_repeatedPhase_sumsRuns() throws InterruptedException {
+		var timer = new PhaseTimer();
+		timer.record("queue", 1500, 0);
+		try (PhaseTimer.Phase ignored = timer.start("notify")) {
+			Thread.sleep(10);
+		}
+		try (PhaseTimer.Phase ignored = timer.start("clone")) {
+			Thread.sleep(10);
+		}
+		timer.time("notify", () -> null);
+		timer.record("notify", 100, 0);
+
+		List<PhaseTiming> timings = timer.getTimings();
+		Assertions.assertThat(timings).extracting(PhaseTiming::phase).containsExactly("queue", "notify", "clone");
+		Assertions.assertThat(timings.get(0)).isEqualTo(new PhaseTiming("queue", 1500, 0));
+		Assertions.assertThat(timings.get(1).wallMillis()).isGreaterThanOrEqualTo(110);
+		Assertions.assertThat(timings.get(2).wallMillis()).isGreaterThanOrEqualTo(10);
+	}
+
+	/*
+	 * Flight Recorder Test:
+	 * Runs a phase while a flight recording of the build phase events is running.
+	 * One build phase event with the name of the phase is expected to be recorded.
+	 */
+	@Test
+	@DisplayName("Phases are emitted as flight recorder events")
+	void start_recording_emitsBuildPhaseEvent() throws IOException, InterruptedException {
+		try (var recording = new Recording()) {
+			recording.enable("ci.BuildPhase");
+			recording.start();
+			try (PhaseTimer.Phase ignored = new PhaseTimer().start("clone")) {
+				Thread.sleep(10);
+			}
+			recording.stop();
+			recording.dump(recordingFile);
+		}
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+		Assertions.assertThat(events).hasSize(1);
+		Assertions.assertThat(events.get(0).getString("phase")).isEqualTo("clone");
+		Assertions.assertThat(events.get(0).getDuration().toMillis()).isGreaterThanOrEqualTo(10);
+	}
+}
@@ -34,6 +34,14 @@ public class PushPayloadTest {
 
 		Assertions.assertThat(payload.getCloneUrl()).isEqualTo("https://github.com/DD2480-Group-4/lab2.git");
 		Assertions.assertThat(payload.getBranch()).isEqualTo("push_branch");
+		Assertions.assertThat(payload.getHeadSha()).isEqualTo("17a4c2ec28144d4b195d2e7dee7e605f66ce65f8");
+		Assertions.assertThat(payload.getTreeHash()).isEqualTo("1f7d710666219a46769843d95f663d1bf6f77cbe");
+		Assertions.assertThat(payload.getBefore()).isEqualTo("6d6c532899920951a9616ef38a2055258fdd2761");
+		Assertions.assertThat(payload.isCreated()).isFalse();
+		Assertions.assertThat(payload.isForced()).isFalse();
+		Assertions.assertThat(payload.isDeleted()).isFalse();
+		Assertions.assertThat(payload.getChangedFiles()).hasSize(4).contains("src/main/java/ci/Builder.java");
+		Assertions.assertThat(payload.getRemovedFiles()).isEmpty();
 
 		LocalDateTime expectedPushTime = LocalDateTime.ofInstant(Instant.ofEpochSecond(1707217745),
 			ZoneId.systemDefault());
@@ -0,0 +1,108 @@
+package ci;
+
+import ci.BuildInfo.TestResult;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TestResultParserTest {
+	private final Path projectDir = Path.of(System.getProperty("user.dir"), "testresultstest");
+
+	private final String resultXml = """
+		<?xml version="1.0" encoding="UTF-8"?>
+		<testsuite name="ci.MainTest" tests="3" skipped="1" failures="1" errors="0" time="1.5">
+		  <properties/>
+		  <testcase name="passes()" classname="ci.MainTest" time="0.25"/>
+		  <testcase name="fails()" classname="ci.MainTest" time="1.25">
+		    <failure message="expected: true" type="org.opentest4j.AssertionFailedError">stack trace</failure>
+		  </testcase>
+		  <testcase name="skips()" classname="ci.MainTest" time="0.0">
+		    <skipped/>
+		  </testcase>
+		  <system-out><![CDATA[output of the tests]]></system-out>
+		  <system-err><![CDATA[]]></system-err>
+		</testsuite>
+		""";
+
+	/*
+	 * Runs after each test to delete the written result files.
+	 */
+	@AfterEach
+	void cleanup() {
+		Builder.deleteDirectory(projectDir.toFile());
+	}
+
+	/*
+	 * Parse Test:
+	 * Parses a result file with a passed, a failed and a skipped test.
+	 * Each test is expected to be read with its duration, outcome and failure message.
+	 */
+	@Test
+	@DisplayName("Test cases are read from a result file")
+	void parse_resultFile_returnsTestResults() throws IOException {
+		Assertions.assertThat(TestResultParser.parse(new ByteArrayInputStream(resultXml.getBytes()))).containsExactly(
+			new TestResult("ci.MainTest", "passes()", 0.25, TestOutcome.passed, null),
+			new TestResult("ci.MainTest", "fails()", 1.25, TestOutcome.failed, "expected: true"),
+			new TestResult("ci.MainTest", "skips()", 0, TestOutcome.skipped, null));
+	}
+
+	/*
+	 * Read Project Test:
+	 * Writes result files to the root project and a subproject, an unrelated XML file, a result file
+	 * fixture below a source set, and an XML file nested below the results of a test task.
+	 * The results of both result files are expected to be read, and the other files to be ignored.
+	 */
+	@Test
+	@DisplayName("Result files of all projects are read")
+	void readTestResults_subprojects_returnsAllResults() throws IOException {
+		Path rootResults = projectDir.resolve("build/test-results/test");
+		Path subprojectResults = projectDir.resolve("app/build/test-results/test");
+		Files.createDirectories(rootResults);
+		Files.createDirectories(subprojectResults);
+		Files.writeString(rootResults.resolve("TEST-ci.MainTest.xml"), resultXml);
+		Files.writeString(subprojectResults.resolve("TEST-ci.MainTest.xml"), resultXml);
+		Files.writeString(projectDir.resolve("checkstyle.xml"), "<module/>");
+		Path fixtureResults = projectDir.resolve("src/test/resources/build/test-results/test");
+		Files.createDirectories(fixtureResults);
+		Files.writeString(fixtureResults.resolve("TEST-ci.MainTest.xml"), resultXml);
+		Files.createDirectories(rootResults.resolve("binary"));
+		Files.writeString(rootResults.resolve("binary/results.xml"), resultXml);
+
+		Assertions.assertThat(TestResultParser.readTestResults(projectDir)).hasSize(6);
+	}
+
+	/*
+	 * Duration Test:
+	 * Parses durations with a decimal period, a decimal comma, grouping commas, and a missing or invalid value.
+	 * A lone comma is expected to be read as a decimal separator, and commas next to a period as grouping.
+	 */
+	@Test
+	@DisplayName("Durations are parsed with decimal and grouping separators")
+	void parseDuration_separators_returnsSeconds() {
+		Assertions.assertThat(TestResultParser.parseDuration("1.5")).isEqualTo(1.5);
+		Assertions.assertThat(TestResultParser.parseDuration("1,5")).isEqualTo(1.5);
+		Assertions.assertThat(TestResultParser.parseDuration("1,234.5")).isEqualTo(1234.5);
+		Assertions.assertThat(TestResultParser.parseDuration("1,234,567")).isEqualTo(1234567);
+		Assertions.assertThat(TestResultParser.parseDuration(null)).isZero();
+		Assertions.assertThat(TestResultParser.parseDuration("n/a")).isZero();
+	}
+
+	/*
+	 * Invalid File Test:
+	 * Parses a truncated result file.
+	 * An IOException is expected to be thrown.
+	 */
+	@Test
+	@DisplayName("Invalid result files are rejected")
+	void parse_truncatedFile_throwsIOException() {
+		Assertions.assertThatThrownBy(() -> TestResultParser.parse(
+				new ByteArrayInputStream("<testsuite><testcase name=\"a\"".getBytes())))
+			.isInstanceOf(IOException.class);
+	}
+}
@@ -0,0 +1,140 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestSelectorTest {
+	private final Map<String, Set<String>> testDependencies = Map.of(
+		"ci.BuilderTest", Set.of("ci.BuilderTest", "ci.Builder", "ci.CommitStatuses"),
+		"ci.MainTest", Set.of("ci.MainTest", "ci.Main", "ci.Builder", "ci.Notifier"),
+		"ci.NotifierTest", Set.of("ci.NotifierTest", "ci.Notifier"));
+
+	/*
+	 * Source file mapping Test:
+	 * Maps paths of the root project and of a nested subproject to their source files.
+	 * Paths outside of a source set are expected not to map to a source file.
+	 */
+	@Test
+	@DisplayName("Paths are mapped to projects and source sets")
+	void parseSourceFile_sourcePaths_mapsProjectAndSourceSet() {
+		Assertions.assertThat(TestSelector.parseSourceFile("src/main/java/ci/Builder.java"))
+			.isEqualTo(new TestSelector.SourceFile(":", "main", "ci.Builder"));
+		Assertions.assertThat(TestSelector.parseSourceFile("libs/core/src/test/kotlin/a/BTest.kt"))
+			.isEqualTo(new TestSelector.SourceFile(":libs:core", "test", "a.BTest"));
+		Assertions.assertThat(TestSelector.parseSourceFile("README.md")).isNull();
+		Assertions.assertThat(TestSelector.parseSourceFile("src/main/resources/log4j.xml")).isNull();
+	}
+
+	/*
+	 * Affected tests Test:
+	 * Changes a main class, a test class and a documentation file.
+	 * Only the tests referencing the main class and the changed test are expected to be selected.
+	 */
+	@Test
+	@DisplayName("Tests referencing changed classes are selected")
+	void select_changedClasses_selectsAffectedTests() {
+		TestSelector selector = new TestSelector(20);
+
+		Set<String> selected = selector.select(
+			changes("src/main/java/ci/Notifier.java", "src/test/java/ci/BuilderTest.java", "README.md"),
+			0, testDependencies);
+
+		Assertions.assertThat(selected).containsExactly("ci.BuilderTest", "ci.MainTest", "ci.NotifierTest");
+		Assertions.assertThat(selector.select(changes("README.md"), 0, testDependencies)).isEmpty();
+		Assertions.assertThat(selector.select(changes("src/main/java/ci/Main.java"), 0, testDependencies))
+			.containsExactly("ci.MainTest");
+	}
+
+	/*
+	 * Full suite fallback Test:
+	 * Changes a build script, a resource and adds an unknown test class, builds without recorded dependencies,
+	 * and without known changes.
+	 * The full suite is expected to be run each time.
+	 */
+	@Test
+	@DisplayName("Full suite on build script, resource, new test and unknown changes")
+	void select_untrustedChanges_runsFullSuite() {
+		TestSelector selector = new TestSelector(20);
+
+		Assertions.assertThat(selector.select(changes("build.gradle.kts"), 0, testDependencies)).isNull();
+		Assertions.assertThat(selector.select(changes("src/main/resources/config.xml"), 0, testDependencies))
+			.isNull();
+		Assertions.assertThat(selector.select(changes("src/test/java/ci/NewTest.java"), 0, testDependencies))
+			.isNull();
+		Assertions.assertThat(selector.select(changes("src/main/java/ci/Main.java"), 0, Map.of())).isNull();
+		Assertions.assertThat(selector.select(null, 0, testDependencies)).isNull();
+	}
+
+	/*
+	 * Periodic full suite Test:
+	 * Selects the tests of the same push after one, two and three builds without the full suite,
+	 * with a full suite every third build.
+	 * The build after two builds without the full suite is expected to run it.
+	 */
+	@Test
+	@DisplayName("Full suite is run periodically")
+	void select_everyNthBuild_runsFullSuite() {
+		TestSelector selector = new TestSelector(3);
+		TestSelector.Changes changed = changes("src/main/java/ci/Main.java");
+
+		Assertions.assertThat(selector.select(changed, 0, testDependencies)).isNotNull();
+		Assertions.assertThat(selector.select(changed, 1, testDependencies)).isNotNull();
+		Assertions.assertThat(selector.select(changed, 2, testDependencies)).isNull();
+	}
+
+	/*
+	 * Comparable push Test:
+	 * Checks pushes to an existing branch, of a new branch, forced, of 20 commits, and standing in for older pushes.
+	 * Only the plain push to an existing branch is expected to be comparable with the commit before it.
+	 */
+	@Test
+	@DisplayName("Only plain pushes are compared with the previous commit")
+	void isComparable_createdForcedOrCoalesced_isFalse() {
+		PushPayload payload = Mockito.mock(PushPayload.class);
+		Mockito.when(payload.getBefore()).thenReturn("6d6c532899920951a9616ef38a2055258fdd2761");
+		Mockito.when(payload.getCommits()).thenReturn(new PushPayload.Commit[2]);
+
+		Assertions.assertThat(TestSelector.isComparable(payload, false)).isTrue();
+		Assertions.assertThat(TestSelector.isComparable(payload, true)).isFalse();
+		Mockito.when(payload.getCommits()).thenReturn(new PushPayload.Commit[TestSelector.MAX_PAYLOAD_COMMITS]);
+		Assertions.assertThat(TestSelector.isComparable(payload, false)).isFalse();
+		Mockito.when(payload.getCommits()).thenReturn(new PushPayload.Commit[2]);
+		Mockito.when(payload.isForced()).thenReturn(true);
+		Assertions.assertThat(TestSelector.isComparable(payload, false)).isFalse();
+		Mockito.when(payload.isForced()).thenReturn(false);
+		Mockito.when(payload.isCreated()).thenReturn(true);
+		Assertions.assertThat(TestSelector.isComparable(payload, false)).isFalse();
+	}
+
+	/**
+	 * Creates the changes of a push that adds or modifies the given files.
+	 *
+	 * @param paths Paths of the changed files
+	 * @return The changes
+	 */
+	private static TestSelector.Changes changes(String... paths) {
+		return new TestSelector.Changes(new LinkedHashSet<>(List.of(paths)), Set.of());
+	}
+
+	/*
+	 * Changed tests Test:
+	 * Changes a main class, adds a new test class and changes a build script.
+	 * The tests referencing the main class and the new test class are expected to be found,
+	 * without falling back to the full suite.
+	 */
+	@Test
+	@DisplayName("Changed and referencing tests are found")
+	void changedTests_changedClasses_returnsChangedTests() {
+		Assertions.assertThat(TestSelector.changedTests(
+				List.of("src/main/java/ci/Notifier.java", "src/test/java/ci/NewTest.java", "build.gradle.kts"),
+				testDependencies))
+			.containsExactly("ci.MainTest", "ci.NewTest", "ci.NotifierTest");
+	}
+}
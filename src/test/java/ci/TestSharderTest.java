@@ -0,0 +1,39 @@
+package ci;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestSharderTest {
+
+	/*
+	 * Balanced shards Test:
+	 * Splits five test classes with durations 10, 7, 5 and 3 seconds, and one unknown duration, into two shards.
+	 * The unknown class is expected to count as the average, and the shards to take 15 and 16.25 seconds.
+	 */
+	@Test
+	@DisplayName("Test classes are split into balanced shards")
+	void shard_recordedDurations_balancesShards() {
+		List<Set<String>> shards = TestSharder.shard(List.of("A", "B", "C", "D", "E"),
+			Map.of("A", 10.0, "B", 7.0, "C", 5.0, "D", 3.0), 2);
+
+		Assertions.assertThat(shards).containsExactly(Set.of("A", "C"), Set.of("B", "D", "E"));
+	}
+
+	/*
+	 * Few test classes Test:
+	 * Splits two test classes without recorded durations into four shards, and no test classes at all.
+	 * Only non-empty shards are expected to be returned.
+	 */
+	@Test
+	@DisplayName("Only non-empty shards are returned")
+	void shard_fewerClassesThanShards_returnsNonEmptyShards() {
+		Assertions.assertThat(TestSharder.shard(List.of("A", "B"), Map.of(), 4))
+			.containsExactly(Set.of("A"), Set.of("B"));
+		Assertions.assertThat(TestSharder.shard(List.of(), Map.of(), 4)).isEmpty();
+	}
+}
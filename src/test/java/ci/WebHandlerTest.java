@@ -7,6 +7,9 @@ import org.junit.jupiter.api.Test;
 import java.util.List;
 
 import ci.BuildInfo.BuildDetails;
+import ci.BuildInfo.BuildSummary;
+import ci.BuildInfo.PhaseTiming;
+import ci.BuildInfo.TaskTiming;
 import ci.BuildInfo.TestDetails;
 import ci.PushPayload.Author;
 
@@ -30,13 +33,12 @@ public class WebHandlerTest {
 
 	/*
 	 * BuildInfo to HTML String Test:
-	 * Builds a string containing the build info for a given build id
-	 * from the history list.
+	 * Builds a string containing the build info for a build
+	 * of the history list.
 	 */
 	@Test
 	@DisplayName("buildInfoToHtmlString success")
 	void testBuildInfoToString() {
-		WebHandler webHandler = new WebHandler(history);
 		String expectedBuildInfoString =
 			"<strong>Build Info for build 2 on branch branch2</strong><br/>" +
 				"Sender:<br/>" +
@@ -57,19 +59,123 @@ public class WebHandlerTest {
 				"&emsp;Total: 2<br/>" +
 				"&emsp;Passed: 2<br/>" +
 				"&emsp;Log: Test Log 2<br/>";
-		Assertions.assertThat(webHandler.buildInfoToHtmlString(2)).isEqualTo(expectedBuildInfoString);
+		Assertions.assertThat(WebHandler.buildInfoToHtmlString(history.get(1))).isEqualTo(expectedBuildInfoString);
+	}
+
+	/*
+	 * BuildSummary to HTML String Test:
+	 * Builds a link to the page of a build, of a build that was superseded, and of a build whose branch has markup.
+	 * The commit status is expected to be shown for a build, and the outcome otherwise.
+	 * The branch is expected to be escaped.
+	 */
+	@Test
+	@DisplayName("buildSummaryToHtmlString success")
+	void testBuildSummaryToString() {
+		Assertions.assertThat(WebHandler.buildSummaryToHtmlString(
+				new BuildSummary(2, "branch2", 3, BuildOutcome.built, "2021-01-02T00:00:00")))
+			.isEqualTo("<a href=\"/build_2/\">Build Info 2 - Branch: branch2</a> - success - 2021-01-02T00:00:00<br>");
+		Assertions.assertThat(WebHandler.buildSummaryToHtmlString(
+				new BuildSummary(3, "branch2", 2, BuildOutcome.superseded, "2021-01-03T00:00:00")))
+			.isEqualTo("<a href=\"/build_3/\">Build Info 3 - Branch: branch2</a> - superseded - 2021-01-03T00:00:00<br>");
+		Assertions.assertThat(WebHandler.buildSummaryToHtmlString(
+				new BuildSummary(4, "<b>&branch", 3, BuildOutcome.built, "2021-01-04T00:00:00")))
+			.isEqualTo("<a href=\"/build_4/\">Build Info 4 - Branch: &lt;b&gt;&amp;branch</a> - success - 2021-01-04T00:00:00<br>");
+	}
+
+	/*
+	 * Page Links to HTML String Test:
+	 * Builds the links to the newer and older builds of a filtered page, and of the first page.
+	 * The links are expected to keep the filter, and the first page is expected to have no link to newer builds.
+	 */
+	@Test
+	@DisplayName("pageLinksToHtmlString success")
+	void testPageLinksToString() {
+		var filter = new HistoryDAO.BuildFilter("feature/a", BuildOutcome.built, null, "2021-01-01", null);
+		Assertions.assertThat(WebHandler.pageLinksToHtmlString(filter, 80, 31)).isEqualTo("<br>"
+			+ "<a href=\"/?branch=feature%2Fa&amp;outcome=built&amp;from=2021-01-01&amp;after=80\">Newer builds</a> "
+			+ "<a href=\"/?branch=feature%2Fa&amp;outcome=built&amp;from=2021-01-01&amp;before=31\">Older builds</a><br>");
+		Assertions.assertThat(WebHandler.pageLinksToHtmlString(HistoryDAO.BuildFilter.NONE, -1, 31))
+			.isEqualTo("<br><a href=\"/?before=31\">Older builds</a><br>");
+	}
+
+	/*
+	 * BuildInfo to HTML String Test:
+	 * Builds a string containing the build info for a build with recorded phase timings.
+	 * The wall and CPU time of each phase are expected to be listed after the test details.
+	 */
+	@Test
+	@DisplayName("buildInfoToHtmlString with phase timings")
+	void testBuildInfoToStringPhaseTimings() {
+		BuildInfo build = new BuildInfo(3,
+			new PushPayload.Sender("Jane Doe", "janedoe", "jane@doe.com"),
+			List.of(),
+			new BuildDetails(1, "Build Log 3"),
+			new TestDetails(0, 0, "Test Log 3"),
+			"2021-01-03T00:00:00", "branch3");
+		build.setPhaseTimings(List.of(new PhaseTiming("clone", 800, 150), new PhaseTiming("test", 30000, 40)));
+		Assertions.assertThat(WebHandler.buildInfoToHtmlString(build)).endsWith(
+			"&emsp;Log: Test Log 3<br/>" +
+				"<br/>Phase Timings: <br/>" +
+				"&emsp;clone: 800 ms (CPU 150 ms)<br/>" +
+				"&emsp;test: 30000 ms (CPU 40 ms)<br/>");
 	}
 
 	/*
 	 * BuildInfo to HTML String Test:
-	 * Builds a string containing "Build not found" as build id
-	 * cannot be found in the history list.
+	 * Builds a string containing the build info for a build with recorded task timings.
+	 * The tasks are expected to be counted by outcome, with the avoided tasks and build cache hits
+	 * as a percentage, and listed slowest first.
 	 */
 	@Test
-	@DisplayName("buildInfoToHtmlString build not found")
-	void testBuildInfoToStringBuildNotFound() {
-		WebHandler webHandler = new WebHandler(history);
-		Assertions.assertThat(webHandler.buildInfoToHtmlString(3)).isEqualTo("<strong>Build not found</strong>");
+	@DisplayName("buildInfoToHtmlString with task timings")
+	void testBuildInfoToStringTaskTimings() {
+		BuildInfo build = new BuildInfo(3,
+			new PushPayload.Sender("Jane Doe", "janedoe", "jane@doe.com"),
+			List.of(),
+			new BuildDetails(1, "Build Log 3"),
+			new TestDetails(0, 0, "Test Log 3"),
+			"2021-01-03T00:00:00", "branch3");
+		build.setTaskTimings(List.of(
+			new TaskTiming(":compileJava", TaskOutcome.fromCache, 40),
+			new TaskTiming(":processResources", TaskOutcome.skipped, 1),
+			new TaskTiming(":jar", TaskOutcome.upToDate, 5),
+			new TaskTiming(":test", TaskOutcome.executed, 12000)));
+		Assertions.assertThat(WebHandler.buildInfoToHtmlString(build)).endsWith(
+			"&emsp;Log: Test Log 3<br/>" +
+				"<br/>Tasks: <br/>" +
+				"&emsp;Executed: 1, up-to-date: 1, from cache: 1, skipped: 1, failed: 0<br/>" +
+				"&emsp;Avoided: 67%<br/>" +
+				"&emsp;Build cache hits: 50%<br/>" +
+				"&emsp;Slowest: <br/>" +
+				"&emsp;&emsp;:test: 12000 ms (executed)<br/>" +
+				"&emsp;&emsp;:compileJava: 40 ms (fromCache)<br/>" +
+				"&emsp;&emsp;:jar: 5 ms (upToDate)<br/>" +
+				"&emsp;&emsp;:processResources: 1 ms (skipped)<br/>");
+	}
+
+	/*
+	 * BuildInfo to HTML String Test:
+	 * Builds a string containing the build info for a build whose sender and commit author are missing.
+	 * Both are expected to be shown as unknown.
+	 */
+	@Test
+	@DisplayName("buildInfoToHtmlString without sender or author")
+	void testBuildInfoToStringWithoutSender() {
+		BuildInfo build = new BuildInfo(4,
+			null,
+			List.of(new PushPayload.Commit("sha4", "commit4", null, "commitUrl4", new String[]{"file5"})),
+			new BuildDetails(3, "Build Log 4"),
+			new TestDetails(1, 1, "Test Log 4"),
+			"2021-01-04T00:00:00", "branch4");
+		Assertions.assertThat(WebHandler.buildInfoToHtmlString(build)).startsWith(
+			"<strong>Build Info for build 4 on branch branch4</strong><br/>" +
+				"Sender:<br/>" +
+				"&emsp;Unknown<br/>" +
+				"<br/>Commits: <br/>" +
+				"&emsp;Id: sha4<br/>" +
+				"&emsp;Message: commit4<br/>" +
+				"&emsp;Author: Unknown<br/><br/>" +
+				"Build Details: <br/>");
 	}
 
 }
@@ -0,0 +1,20 @@
+plugins {
+	id("java")
+}
+
+group = "group4"
+version = "1.0-SNAPSHOT"
+
+repositories {
+	mavenCentral()
+}
+
+dependencies {
+	testImplementation(platform("org.junit:junit-bom:5.9.1"))
+	testImplementation("org.junit.jupiter:junit-jupiter")
+	testImplementation("org.assertj:assertj-core:3.25.1")
+}
+
+tasks.test {
+	useJUnitPlatform()
+}
@@ -0,0 +1,10 @@
+import org.junit.jupiter.api.Test;
+
+public class MainTest {
+
+	@Test
+	void hangingTest() throws InterruptedException {
+		Thread.sleep(30 * 1000);
+	}
+
+}